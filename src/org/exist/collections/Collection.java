@@ -35,6 +35,7 @@ import org.apache.log4j.Logger;
 import org.exist.Database;
 import org.exist.EXistException;
 import org.exist.Indexer;
+import org.exist.Namespaces;
 import org.exist.collections.triggers.*;
 import org.exist.dom.*;
 import org.exist.security.Account;
@@ -81,6 +82,12 @@ public class Collection extends Observable implements Comparable<Collection>, Ca
 
     public static final int POOL_PARSER_THRESHOLD = 500;
 
+    /**
+     * The maximum size, roughly in chars, of the parser events recorded while a
+     * document is validated. Larger documents are parsed again when they are stored.
+     */
+    public static final int MAX_RECORDED_SIZE = 4 * 1024 * 1024;
+
     private final static int SHALLOW_SIZE = 550;
 
     private final static int DOCUMENT_SIZE = 450;
@@ -1206,6 +1213,9 @@ public class Collection extends Observable implements Comparable<Collection>, Ca
         storeXMLInternal(transaction, broker, info, privileged, new StoreBlock() {
             @Override
             public void run() throws EXistException, SAXException {
+                if(info.replayEvents()) {
+                    return;
+                }
                 try {
                     final InputStream is = source.getByteStream();
                     if(is != null && is.markSupported()) {
@@ -1255,6 +1265,9 @@ public class Collection extends Observable implements Comparable<Collection>, Ca
         storeXMLInternal(transaction, broker, info, privileged, new StoreBlock() {
             @Override
             public void run() throws SAXException, EXistException {
+                if(info.replayEvents()) {
+                    return;
+                }
                 final CollectionConfiguration colconf = info.getDocument().getCollection().getConfiguration(broker);
                 final XMLReader reader = getReader(broker, false, colconf);
                 info.setReader(reader, null);
@@ -1481,6 +1494,11 @@ public class Collection extends Observable implements Comparable<Collection>, Ca
             public void run(final IndexInfo info) throws SAXException, EXistException {
                 final XMLReader reader = getReader(broker, true, colconf);
                 info.setReader(reader, null);
+                // without validation, the parser reports the same events as the one
+                // used by store: record them to store the document without parsing it again
+                if(!isValidating(reader)) {
+                    info.recordEvents(reader, MAX_RECORDED_SIZE);
+                }
                 try {
                     
                     /*
@@ -1503,6 +1521,14 @@ public class Collection extends Observable implements Comparable<Collection>, Ca
         });
     }
     
+    private static boolean isValidating(final XMLReader reader) {
+        try {
+            return reader.getFeature(Namespaces.SAX_VALIDATION);
+        } catch(final SAXException e) {
+            return true;
+        }
+    }
+    
     //stops streams on the input source from being closed
     private InputSource closeShieldInputSource(final InputSource source) {
         
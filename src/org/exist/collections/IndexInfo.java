@@ -52,6 +52,7 @@ public class IndexInfo {
     private boolean creating = false;
     private Permission oldDocPermissions = null;
     private CollectionConfiguration collectionConfig;
+    private SAXEventRecorder recorder = null;
 
     IndexInfo(Indexer indexer, CollectionConfiguration collectionConfig) {
         this.indexer = indexer;
@@ -99,6 +100,40 @@ public class IndexInfo {
         reader.setErrorHandler(indexer);
     }
 
+    /**
+     * Record the events reported by the reader, which must have been set up
+     * by {@link #setReader(XMLReader, EntityResolver)}, so they can be replayed
+     * by {@link #replayEvents()} instead of parsing the document again.
+     *
+     * @param reader
+     * @param maxSize the maximum size of the recorded events, roughly in chars
+     */
+    void recordEvents(XMLReader reader, int maxSize) throws SAXException {
+        recorder = new SAXEventRecorder(reader.getContentHandler(),
+            (LexicalHandler) reader.getProperty(Namespaces.SAX_LEXICAL_HANDLER), maxSize);
+        reader.setProperty(Namespaces.SAX_LEXICAL_HANDLER, recorder);
+        reader.setContentHandler(recorder);
+    }
+
+    /**
+     * Replay the events recorded while the document was validated.
+     *
+     * @return false if no complete document has been recorded. The document has
+     * to be parsed again in this case.
+     * @throws SAXException
+     */
+    boolean replayEvents() throws SAXException {
+        final SAXEventRecorder events = recorder;
+        recorder = null;
+        if (events == null || !events.isComplete())
+            {return false;}
+        if (triggersVisitor == null)
+            {events.replay(indexer, indexer);}
+        else
+            {events.replay(triggersVisitor.getInputHandler(), triggersVisitor.getLexicalInputHandler());}
+        return true;
+    }
+
     void setDOMStreamer(DOMStreamer streamer) {
         this.streamer = streamer;
         if (triggersVisitor == null) {
@@ -0,0 +1,423 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.collections;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Passes SAX events on to another handler and records them, so they can be
+ * replayed later without parsing the document again.
+ *
+ * Used to store a document with a single parse: the events reported while the
+ * document is validated are replayed to store it. To limit the memory used for
+ * large documents, recording stops once the buffered events exceed a given size.
+ * The document then has to be parsed again.
+ */
+final class SAXEventRecorder implements ContentHandler, LexicalHandler {
+
+    private final static byte START_DOCUMENT = 0;
+    private final static byte END_DOCUMENT = 1;
+    private final static byte START_PREFIX_MAPPING = 2;
+    private final static byte END_PREFIX_MAPPING = 3;
+    private final static byte START_ELEMENT = 4;
+    private final static byte END_ELEMENT = 5;
+    private final static byte CHARACTERS = 6;
+    private final static byte IGNORABLE_WHITESPACE = 7;
+    private final static byte PROCESSING_INSTRUCTION = 8;
+    private final static byte SKIPPED_ENTITY = 9;
+    private final static byte START_DTD = 10;
+    private final static byte END_DTD = 11;
+    private final static byte START_ENTITY = 12;
+    private final static byte END_ENTITY = 13;
+    private final static byte START_CDATA = 14;
+    private final static byte END_CDATA = 15;
+    private final static byte COMMENT = 16;
+
+    /** rough estimate of the memory used by an event, in chars */
+    private final static int EVENT_SIZE = 16;
+
+    private final ContentHandler contentHandler;
+
+    private final LexicalHandler lexicalHandler;
+
+    private final int maxSize;
+
+    private Locator locator = null;
+
+    private byte[] events = new byte[256];
+    private int eventCount = 0;
+
+    /** character data lengths and line numbers of start tags */
+    private int[] ints = new int[256];
+    private int intCount = 0;
+
+    private char[] chars = new char[1024];
+    private int charCount = 0;
+
+    /** names, attributes and other strings of the events, in order */
+    private List<Object> objects = new ArrayList<Object>();
+
+    private int size = 0;
+
+    private boolean overflow = false;
+
+    private boolean complete = false;
+
+    /**
+     * @param contentHandler the handler to pass the events to
+     * @param lexicalHandler the handler to pass lexical events to
+     * @param maxSize the maximum size of the recorded events, roughly in chars
+     */
+    SAXEventRecorder(ContentHandler contentHandler, LexicalHandler lexicalHandler, int maxSize) {
+        this.contentHandler = contentHandler;
+        this.lexicalHandler = lexicalHandler;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns true if all events of a document have been recorded.
+     */
+    boolean isComplete() {
+        return complete && !overflow;
+    }
+
+    /**
+     * Replay the recorded events.
+     *
+     * @param handler the handler to receive the events
+     * @param lexical the handler to receive lexical events
+     * @throws SAXException
+     */
+    void replay(ContentHandler handler, LexicalHandler lexical) throws SAXException {
+        final ReplayLocator replayLocator = new ReplayLocator();
+        handler.setDocumentLocator(replayLocator);
+        int nextInt = 0;
+        int nextChar = 0;
+        int nextObject = 0;
+        for (int i = 0; i < eventCount; i++) {
+            switch (events[i]) {
+            case START_DOCUMENT:
+                handler.startDocument();
+                break;
+            case END_DOCUMENT:
+                handler.endDocument();
+                break;
+            case START_PREFIX_MAPPING:
+                handler.startPrefixMapping((String) objects.get(nextObject), (String) objects.get(nextObject + 1));
+                nextObject += 2;
+                break;
+            case END_PREFIX_MAPPING:
+                handler.endPrefixMapping((String) objects.get(nextObject++));
+                break;
+            case START_ELEMENT:
+                replayLocator.line = ints[nextInt++];
+                handler.startElement((String) objects.get(nextObject), (String) objects.get(nextObject + 1),
+                    (String) objects.get(nextObject + 2), (Attributes) objects.get(nextObject + 3));
+                nextObject += 4;
+                break;
+            case END_ELEMENT:
+                handler.endElement((String) objects.get(nextObject), (String) objects.get(nextObject + 1),
+                    (String) objects.get(nextObject + 2));
+                nextObject += 3;
+                break;
+            case CHARACTERS:
+            case IGNORABLE_WHITESPACE:
+            case COMMENT: {
+                final int length = ints[nextInt++];
+                if (events[i] == CHARACTERS)
+                    {handler.characters(chars, nextChar, length);}
+                else if (events[i] == IGNORABLE_WHITESPACE)
+                    {handler.ignorableWhitespace(chars, nextChar, length);}
+                else if (lexical != null)
+                    {lexical.comment(chars, nextChar, length);}
+                nextChar += length;
+                break;
+            }
+            case PROCESSING_INSTRUCTION:
+                handler.processingInstruction((String) objects.get(nextObject), (String) objects.get(nextObject + 1));
+                nextObject += 2;
+                break;
+            case SKIPPED_ENTITY:
+                handler.skippedEntity((String) objects.get(nextObject++));
+                break;
+            case START_DTD:
+                if (lexical != null)
+                    {lexical.startDTD((String) objects.get(nextObject), (String) objects.get(nextObject + 1),
+                        (String) objects.get(nextObject + 2));}
+                nextObject += 3;
+                break;
+            case END_DTD:
+                if (lexical != null)
+                    {lexical.endDTD();}
+                break;
+            case START_ENTITY:
+                if (lexical != null)
+                    {lexical.startEntity((String) objects.get(nextObject));}
+                nextObject++;
+                break;
+            case END_ENTITY:
+                if (lexical != null)
+                    {lexical.endEntity((String) objects.get(nextObject));}
+                nextObject++;
+                break;
+            case START_CDATA:
+                if (lexical != null)
+                    {lexical.startCDATA();}
+                break;
+            case END_CDATA:
+                if (lexical != null)
+                    {lexical.endCDATA();}
+                break;
+            default:
+                throw new SAXException("Unknown event type: " + events[i]);
+            }
+        }
+    }
+
+    private boolean record(byte event) {
+        if (overflow)
+            {return false;}
+        size += EVENT_SIZE;
+        if (size > maxSize) {
+            // give up and free the memory
+            overflow = true;
+            events = null;
+            ints = null;
+            chars = null;
+            objects = null;
+            return false;
+        }
+        if (eventCount == events.length) {
+            final byte[] newEvents = new byte[events.length * 2];
+            System.arraycopy(events, 0, newEvents, 0, eventCount);
+            events = newEvents;
+        }
+        events[eventCount++] = event;
+        return true;
+    }
+
+    private void recordInt(int value) {
+        if (intCount == ints.length) {
+            final int[] newInts = new int[ints.length * 2];
+            System.arraycopy(ints, 0, newInts, 0, intCount);
+            ints = newInts;
+        }
+        ints[intCount++] = value;
+    }
+
+    private void recordObject(Object obj) {
+        if (obj instanceof String)
+            {size += ((String) obj).length();}
+        objects.add(obj);
+    }
+
+    private void recordChars(byte event, char[] ch, int start, int length) {
+        if (!record(event))
+            {return;}
+        size += length;
+        if (charCount + length > chars.length) {
+            final char[] newChars = new char[Math.max(chars.length * 2, charCount + length)];
+            System.arraycopy(chars, 0, newChars, 0, charCount);
+            chars = newChars;
+        }
+        System.arraycopy(ch, start, chars, charCount, length);
+        charCount += length;
+        recordInt(length);
+    }
+
+    @Override
+    public void setDocumentLocator(Locator locator) {
+        this.locator = locator;
+        contentHandler.setDocumentLocator(locator);
+    }
+
+    @Override
+    public void startDocument() throws SAXException {
+        record(START_DOCUMENT);
+        contentHandler.startDocument();
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        if (record(END_DOCUMENT))
+            {complete = true;}
+        contentHandler.endDocument();
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) throws SAXException {
+        if (record(START_PREFIX_MAPPING)) {
+            recordObject(prefix);
+            recordObject(uri);
+        }
+        contentHandler.startPrefixMapping(prefix, uri);
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) throws SAXException {
+        if (record(END_PREFIX_MAPPING))
+            {recordObject(prefix);}
+        contentHandler.endPrefixMapping(prefix);
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+        if (record(START_ELEMENT)) {
+            recordInt(locator == null ? 0 : locator.getLineNumber());
+            recordObject(uri);
+            recordObject(localName);
+            recordObject(qName);
+            size += atts.getLength() * EVENT_SIZE;
+            objects.add(new AttributesImpl(atts));
+        }
+        contentHandler.startElement(uri, localName, qName, atts);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        if (record(END_ELEMENT)) {
+            recordObject(uri);
+            recordObject(localName);
+            recordObject(qName);
+        }
+        contentHandler.endElement(uri, localName, qName);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        recordChars(CHARACTERS, ch, start, length);
+        contentHandler.characters(ch, start, length);
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+        recordChars(IGNORABLE_WHITESPACE, ch, start, length);
+        contentHandler.ignorableWhitespace(ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException {
+        if (record(PROCESSING_INSTRUCTION)) {
+            recordObject(target);
+            recordObject(data);
+        }
+        contentHandler.processingInstruction(target, data);
+    }
+
+    @Override
+    public void skippedEntity(String name) throws SAXException {
+        if (record(SKIPPED_ENTITY))
+            {recordObject(name);}
+        contentHandler.skippedEntity(name);
+    }
+
+    @Override
+    public void startDTD(String name, String publicId, String systemId) throws SAXException {
+        if (record(START_DTD)) {
+            recordObject(name);
+            recordObject(publicId);
+            recordObject(systemId);
+        }
+        if (lexicalHandler != null)
+            {lexicalHandler.startDTD(name, publicId, systemId);}
+    }
+
+    @Override
+    public void endDTD() throws SAXException {
+        record(END_DTD);
+        if (lexicalHandler != null)
+            {lexicalHandler.endDTD();}
+    }
+
+    @Override
+    public void startEntity(String name) throws SAXException {
+        if (record(START_ENTITY))
+            {recordObject(name);}
+        if (lexicalHandler != null)
+            {lexicalHandler.startEntity(name);}
+    }
+
+    @Override
+    public void endEntity(String name) throws SAXException {
+        if (record(END_ENTITY))
+            {recordObject(name);}
+        if (lexicalHandler != null)
+            {lexicalHandler.endEntity(name);}
+    }
+
+    @Override
+    public void startCDATA() throws SAXException {
+        record(START_CDATA);
+        if (lexicalHandler != null)
+            {lexicalHandler.startCDATA();}
+    }
+
+    @Override
+    public void endCDATA() throws SAXException {
+        record(END_CDATA);
+        if (lexicalHandler != null)
+            {lexicalHandler.endCDATA();}
+    }
+
+    @Override
+    public void comment(char[] ch, int start, int length) throws SAXException {
+        recordChars(COMMENT, ch, start, length);
+        if (lexicalHandler != null)
+            {lexicalHandler.comment(ch, start, length);}
+    }
+
+    /**
+     * Reports the line number of the start tag being replayed.
+     */
+    private final static class ReplayLocator implements Locator {
+
+        int line = 0;
+
+        @Override
+        public String getPublicId() {
+            return null;
+        }
+
+        @Override
+        public String getSystemId() {
+            return null;
+        }
+
+        @Override
+        public int getLineNumber() {
+            return line;
+        }
+
+        @Override
+        public int getColumnNumber() {
+            return -1;
+        }
+    }
+}
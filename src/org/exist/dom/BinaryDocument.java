@@ -45,6 +45,14 @@ public class BinaryDocument extends DocumentImpl {
     private long pageNr = Page.NO_PAGE;
     
     private long realSize = 0L;
+
+    /**
+     * Written instead of the page number if the content is kept in the
+     * {@link org.exist.storage.BlobStore}. The reference to the content follows.
+     */
+    private final static long BLOB_REFERENCE = -2L;
+
+    private String blobReference = null;
     
     public BinaryDocument(BrokerPool pool) {
         super(pool, null, null);
@@ -79,11 +87,28 @@ public class BinaryDocument extends DocumentImpl {
         this.realSize = length;
     }
 
+    /**
+     * Returns the reference to the content in the {@link org.exist.storage.BlobStore},
+     * or null if the content is stored in a file of its own.
+     */
+    public String getBlobReference() {
+        return blobReference;
+    }
+
+    public void setBlobReference(String reference) {
+        this.blobReference = reference;
+    }
+
     @Override
     public void write(VariableByteOutputStream ostream) throws IOException {
         ostream.writeInt(getDocId());
         ostream.writeUTF(getFileURI().toString());
-        ostream.writeLong(pageNr);
+        if (blobReference == null)
+            {ostream.writeLong(pageNr);}
+        else {
+            ostream.writeLong(BLOB_REFERENCE);
+            ostream.writeUTF(blobReference);
+        }
 
         getPermissions().write(ostream);
 
@@ -96,7 +121,12 @@ public class BinaryDocument extends DocumentImpl {
         setDocId(istream.readInt());
         setFileURI(XmldbURI.create(istream.readUTF()));
         pageNr = istream.readLong();
-        
+        if (pageNr == BLOB_REFERENCE) {
+            pageNr = Page.NO_PAGE;
+            blobReference = istream.readUTF();
+        } else
+            {blobReference = null;}
+
         getPermissions().read(istream);
 
         realSize = istream.readLong();
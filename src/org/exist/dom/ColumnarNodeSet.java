@@ -0,0 +1,611 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.dom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.exist.collections.Collection;
+import org.exist.numbering.NodeId;
+import org.exist.numbering.NodeIdFactory;
+import org.exist.xquery.Constants;
+import org.exist.xquery.Expression;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.SequenceIterator;
+import org.exist.xquery.value.Type;
+import org.w3c.dom.Node;
+
+/**
+ * A node set which stores its nodes in parallel arrays of primitives instead of
+ * one {@link NodeProxy} per node: the storage address of every node, and its
+ * serialized node id in a shared byte array. All nodes have the same node type.
+ *
+ * The set is filled by the structural index, which appends the nodes in document
+ * order, so it never needs to be sorted. The structural joins used by location steps,
+ * {@link #selectParentChild(NodeSet, int, int)}, {@link #selectAncestorDescendant(NodeSet, int, boolean, int, boolean)}
+ * and {@link #hasDescendantsInSet(DocumentImpl, NodeId, boolean, int, boolean)},
+ * compare the node ids in place and only create proxies for the nodes they return.
+ * Joins with a whole context set merge both sets in a single pass, see
+ * {@link StructuralJoin}.
+ *
+ * All other operations need the proxies: the first call to one of them copies the
+ * nodes into a {@link NewArrayNodeSet}, to which this and all later calls are
+ * delegated.
+ */
+public class ColumnarNodeSet extends AbstractNodeSet implements ExtNodeSet {
+
+    private final static int INITIAL_SIZE = 64;
+
+    private final NodeIdFactory nodeFactory;
+
+    private final short nodeType;
+
+    private long addresses[] = new long[INITIAL_SIZE];
+    private int idUnits[] = new int[INITIAL_SIZE];
+    private int idOffsets[] = new int[INITIAL_SIZE];
+    private byte idData[] = new byte[INITIAL_SIZE * 4];
+    private int dataLength = 0;
+    private int size = 0;
+
+    private DocumentImpl documents[] = new DocumentImpl[16];
+    private int documentOffsets[] = new int[16];
+    private int documentLengths[] = new int[16];
+    private int documentCount = 0;
+    private boolean documentsSorted = true;
+
+    private DocumentSet documentSet = null;
+
+    /** the proxies for all nodes, created on first use */
+    private NewArrayNodeSet nodes = null;
+
+    private int state = 0;
+
+    /**
+     * Creates a new, empty set.
+     *
+     * @param nodeFactory the factory used to create the node ids
+     * @param nodeType the DOM node type of all nodes in the set
+     */
+    public ColumnarNodeSet(NodeIdFactory nodeFactory, short nodeType) {
+        this.nodeFactory = nodeFactory;
+        this.nodeType = nodeType;
+    }
+
+    /**
+     * Append a node. Nodes of one document have to be appended together and
+     * in document order.
+     *
+     * @param doc the document the node belongs to
+     * @param units the number of units used by the node id
+     * @param data byte array containing the serialized node id
+     * @param startOffset offset of the node id in data
+     * @param address the storage address of the node
+     */
+    public void append(DocumentImpl doc, int units, byte[] data, int startOffset, long address) {
+        if (documentCount == 0 || documents[documentCount - 1] != doc) {
+            if (documentCount == documents.length) {
+                final int nlen = documentCount << 1;
+                documents = Arrays.copyOf(documents, nlen);
+                documentOffsets = Arrays.copyOf(documentOffsets, nlen);
+                documentLengths = Arrays.copyOf(documentLengths, nlen);
+            }
+            if (documentCount > 0 && documents[documentCount - 1].getDocId() > doc.getDocId())
+                {documentsSorted = false;}
+            documents[documentCount] = doc;
+            documentOffsets[documentCount] = size;
+            documentLengths[documentCount++] = 0;
+        }
+        if (size == addresses.length) {
+            final int nsize = size << 1;
+            addresses = Arrays.copyOf(addresses, nsize);
+            idUnits = Arrays.copyOf(idUnits, nsize);
+            idOffsets = Arrays.copyOf(idOffsets, nsize);
+        }
+        final int len = nodeFactory.lengthInBytes(units, data, startOffset);
+        if (dataLength + len > idData.length)
+            {idData = Arrays.copyOf(idData, Math.max(idData.length << 1, dataLength + len));}
+        System.arraycopy(data, startOffset, idData, dataLength, len);
+        addresses[size] = address;
+        idUnits[size] = units;
+        idOffsets[size++] = dataLength;
+        dataLength += len;
+        ++documentLengths[documentCount - 1];
+    }
+
+    /**
+     * Documents are appended in the order in which they are returned by the
+     * document set used for the lookup. Sort them by document id if necessary.
+     */
+    private void sortDocuments() {
+        if (documentsSorted)
+            {return;}
+        final long keys[] = new long[documentCount];
+        for (int i = 0; i < documentCount; i++) {
+            keys[i] = ((long) documents[i].getDocId() << 32) | i;
+        }
+        Arrays.sort(keys);
+        final DocumentImpl docs[] = new DocumentImpl[documents.length];
+        final int offsets[] = new int[documents.length];
+        final int lengths[] = new int[documents.length];
+        for (int i = 0; i < documentCount; i++) {
+            final int idx = (int) keys[i];
+            docs[i] = documents[idx];
+            offsets[i] = documentOffsets[idx];
+            lengths[i] = documentLengths[idx];
+        }
+        documents = docs;
+        documentOffsets = offsets;
+        documentLengths = lengths;
+        documentsSorted = true;
+    }
+
+    private int findDoc(int docId) {
+        sortDocuments();
+        int low = 0;
+        int high = documentCount - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int midVal = documents[mid].getDocId();
+            if (midVal < docId)
+                {low = mid + 1;}
+            else if (midVal > docId)
+                {high = mid - 1;}
+            else
+                {return mid;} // key found
+        }
+        return -(low + 1);  // key not found.
+    }
+
+    /**
+     * Returns the position of the first node of the document which is equal to or
+     * follows the given node id in document order.
+     */
+    private int findFirst(int docIdx, NodeId nodeId) {
+        return findFirst(docIdx, nodeId, documentOffsets[docIdx]);
+    }
+
+    /**
+     * Returns the position of the first node of the document which is equal to or
+     * follows the given node id in document order, starting at position from.
+     */
+    private int findFirst(int docIdx, NodeId nodeId, int from) {
+        int low = from;
+        if (nodeId == NodeId.DOCUMENT_NODE)
+            {return low;}
+        int high = documentOffsets[docIdx] + documentLengths[docIdx];
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (nodeId.compareTo(idUnits[mid], idData, idOffsets[mid]) > 0)
+                {low = mid + 1;}
+            else
+                {high = mid;}
+        }
+        return low;
+    }
+
+    private NodeProxy createProxy(int docIdx, int pos) {
+        final NodeId nodeId = nodeFactory.createFromData(idUnits[pos], idData, idOffsets[pos]);
+        return new NodeProxy(documents[docIdx], nodeId, nodeType, addresses[pos]);
+    }
+
+    /**
+     * Create the proxies for all nodes. From now on, all operations are delegated
+     * to the returned set.
+     */
+    private NewArrayNodeSet realize() {
+        if (nodes == null) {
+            sortDocuments();
+            final NewArrayNodeSet set = new NewArrayNodeSet(size);
+            for (int docIdx = 0; docIdx < documentCount; docIdx++) {
+                final int end = documentOffsets[docIdx] + documentLengths[docIdx];
+                for (int i = documentOffsets[docIdx]; i < end; i++) {
+                    set.add(createProxy(docIdx, i));
+                }
+            }
+            set.updateNoSort();
+            nodes = set;
+        }
+        return nodes;
+    }
+
+    public NodeSet getDescendantsInSet(NodeSet al, boolean childOnly,
+            boolean includeSelf, int mode, int contextId, boolean copyMatches) {
+        if (nodes != null)
+            {return nodes.getDescendantsInSet(al, childOnly, includeSelf, mode, contextId, copyMatches);}
+        final StructuralJoin join = new StructuralJoin(childOnly, includeSelf, mode, contextId, copyMatches);
+        final List<NodeProxy> contextNodes = new ArrayList<NodeProxy>();
+        DocumentImpl lastDoc = null;
+        int docIdx = -1;
+        for (final NodeProxy node : al) {
+            if (lastDoc == null || node.getDocument().getDocId() != lastDoc.getDocId()) {
+                join.run(docIdx, contextNodes);
+                contextNodes.clear();
+                lastDoc = node.getDocument();
+                docIdx = findDoc(lastDoc.getDocId());
+            }
+            if (docIdx > -1)
+                {contextNodes.add(node);}
+        }
+        join.run(docIdx, contextNodes);
+        return join.result;
+    }
+
+    public NodeProxy hasDescendantsInSet(DocumentImpl doc, NodeId ancestorId,
+            boolean includeSelf, int contextId, boolean copyMatches) {
+        if (nodes != null)
+            {return nodes.hasDescendantsInSet(doc, ancestorId, includeSelf, contextId, copyMatches);}
+        final int docIdx = findDoc(doc.getDocId());
+        if (docIdx < 0)
+            {return null;}
+        final int end = documentOffsets[docIdx] + documentLengths[docIdx];
+        NodeProxy ancestor = null;
+        for (int i = findFirst(docIdx, ancestorId); i < end; i++) {
+            final int relation = ancestorId.computeRelationOf(idUnits[i], idData, idOffsets[i]);
+            if (relation < 0)
+                {break;}
+            if (relation == NodeId.IS_SELF && !includeSelf)
+                {continue;}
+            if (ancestor == null)
+                {ancestor = new NodeProxy(documents[docIdx], ancestorId, Node.ELEMENT_NODE);}
+            // without a context id, further descendants would not change the ancestor
+            if (Expression.NO_CONTEXT_ID == contextId)
+                {break;}
+            ancestor.deepCopyContext(createProxy(docIdx, i), contextId);
+        }
+        return ancestor;
+    }
+
+    public NodeSet selectParentChild(NodeSet al, int mode, int contextId) {
+        if (al instanceof VirtualNodeSet)
+            {return super.selectParentChild(al, mode, contextId);}
+        return getDescendantsInSet(al, true, false, mode, contextId, true);
+    }
+
+    public NodeSet selectAncestorDescendant(NodeSet al, int mode, boolean includeSelf,
+            int contextId, boolean copyMatches) {
+        if (al instanceof VirtualNodeSet)
+            {return super.selectAncestorDescendant(al, mode, includeSelf, contextId, copyMatches);}
+        return getDescendantsInSet(al, false, includeSelf, mode, contextId, copyMatches);
+    }
+
+    public boolean contains(NodeProxy proxy) {
+        if (nodes != null)
+            {return nodes.contains(proxy);}
+        final int docIdx = findDoc(proxy.getDocument().getDocId());
+        if (docIdx < 0)
+            {return false;}
+        final int pos = findFirst(docIdx, proxy.getNodeId());
+        return pos < documentOffsets[docIdx] + documentLengths[docIdx] &&
+            proxy.getNodeId().compareTo(idUnits[pos], idData, idOffsets[pos]) == 0;
+    }
+
+    public int getLength() {
+        return nodes == null ? size : nodes.getLength();
+    }
+
+    public int getItemCount() {
+        return getLength();
+    }
+
+    public boolean isEmpty() {
+        return getLength() == 0;
+    }
+
+    public boolean hasOne() {
+        return getLength() == 1;
+    }
+
+    public int getItemType() {
+        if (nodes != null)
+            {return nodes.getItemType();}
+        if (size == 0)
+            {return Type.ANY_TYPE;}
+        return nodeType == Node.ATTRIBUTE_NODE ? Type.ATTRIBUTE : Type.ELEMENT;
+    }
+
+    public int getSizeHint(DocumentImpl doc) {
+        if (nodes != null)
+            {return nodes.getSizeHint(doc);}
+        final int docIdx = findDoc(doc.getDocId());
+        return docIdx < 0 ? Constants.NO_SIZE_HINT : documentLengths[docIdx];
+    }
+
+    public DocumentSet getDocumentSet() {
+        if (nodes != null)
+            {return nodes.getDocumentSet();}
+        if (documentSet == null) {
+            sortDocuments();
+            final DefaultDocumentSet docs = new DefaultDocumentSet(documentCount);
+            for (int i = 0; i < documentCount; i++) {
+                docs.add(documents[i], false);
+            }
+            documentSet = docs;
+        }
+        return documentSet;
+    }
+
+    public Iterator<Collection> getCollectionIterator() {
+        return getDocumentSet().getCollectionIterator();
+    }
+
+    public void setSorted(DocumentImpl document, boolean sorted) {
+        // the set is always sorted
+    }
+
+    public boolean isCacheable() {
+        return true;
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    public boolean hasChanged(int previousState) {
+        return state != previousState;
+    }
+
+    // the following methods are delegated to the set of proxies
+
+    public void add(NodeProxy proxy) {
+        realize().add(proxy);
+        ++state;
+    }
+
+    public void addAll(NodeSet other) {
+        realize().addAll(other);
+        ++state;
+    }
+
+    public NodeSetIterator iterator() {
+        return realize().iterator();
+    }
+
+    public SequenceIterator iterate() throws XPathException {
+        return realize().iterate();
+    }
+
+    public SequenceIterator unorderedIterator() throws XPathException {
+        return realize().unorderedIterator();
+    }
+
+    public ByDocumentIterator iterateByDocument() {
+        return realize().iterateByDocument();
+    }
+
+    public Node item(int pos) {
+        return realize().item(pos);
+    }
+
+    public NodeProxy get(int pos) {
+        return realize().get(pos);
+    }
+
+    public Item itemAt(int pos) {
+        return realize().itemAt(pos);
+    }
+
+    public NodeProxy get(NodeProxy proxy) {
+        return realize().get(proxy);
+    }
+
+    public NodeProxy get(DocumentImpl doc, NodeId nodeId) {
+        return realize().get(doc, nodeId);
+    }
+
+    public NodeSet selectPrecedingSiblings(NodeSet contextSet, int contextId) {
+        return realize().selectPrecedingSiblings(contextSet, contextId);
+    }
+
+    public NodeSet selectFollowingSiblings(NodeSet contextSet, int contextId) {
+        return realize().selectFollowingSiblings(contextSet, contextId);
+    }
+
+    public NodeSet selectFollowing(NodeSet fl, int contextId) throws XPathException {
+        return realize().selectFollowing(fl, contextId);
+    }
+
+    public NodeSet selectFollowing(NodeSet pl, int position, int contextId) throws XPathException {
+        return realize().selectFollowing(pl, position, contextId);
+    }
+
+    public NodeSet selectPreceding(NodeSet pl, int contextId) throws XPathException {
+        return realize().selectPreceding(pl, contextId);
+    }
+
+    public NodeSet selectPreceding(NodeSet pl, int position, int contextId) throws XPathException {
+        return realize().selectPreceding(pl, position, contextId);
+    }
+
+    public NodeSet selectAncestors(NodeSet al, boolean includeSelf, int contextId) {
+        return realize().selectAncestors(al, includeSelf, contextId);
+    }
+
+    public NodeProxy parentWithChild(DocumentImpl doc, NodeId nodeId, boolean directParent, boolean includeSelf) {
+        return realize().parentWithChild(doc, nodeId, directParent, includeSelf);
+    }
+
+    public NodeSet except(NodeSet other) {
+        return realize().except(other);
+    }
+
+    public NodeSet getContextNodes(int contextId) {
+        return realize().getContextNodes(contextId);
+    }
+
+    public int getIndexType() {
+        return realize().getIndexType();
+    }
+
+    public void clearContext(int contextId) throws XPathException {
+        realize().clearContext(contextId);
+    }
+
+    public void setSelfAsContext(int contextId) throws XPathException {
+        realize().setSelfAsContext(contextId);
+    }
+
+    /**
+     * Stack based merge join between the context nodes of one document and the
+     * nodes of this set. Both are read in document order, each of them only once.
+     * The stack holds the context nodes which are ancestors of the current node,
+     * every context node being an ancestor or self of the one above it. If the
+     * stack runs empty, the nodes up to the next context node are skipped by a
+     * binary search.
+     */
+    private class StructuralJoin {
+
+        final NodeSet result = new NewArrayNodeSet();
+
+        final boolean childOnly;
+        final boolean includeSelf;
+        final int mode;
+        final int contextId;
+        final boolean copyMatches;
+
+        NodeProxy stack[] = new NodeProxy[16];
+        boolean added[] = new boolean[16];
+        int top = 0;
+
+        StructuralJoin(boolean childOnly, boolean includeSelf, int mode, int contextId,
+                boolean copyMatches) {
+            this.childOnly = childOnly;
+            this.includeSelf = includeSelf;
+            this.mode = mode;
+            this.contextId = contextId;
+            this.copyMatches = copyMatches;
+        }
+
+        void run(int docIdx, List<NodeProxy> contextNodes) {
+            final int count = contextNodes.size();
+            if (count == 0)
+                {return;}
+            for (int i = 1; i < count; i++) {
+                if (contextNodes.get(i - 1).compareTo(contextNodes.get(i)) > 0) {
+                    Collections.sort(contextNodes);
+                    break;
+                }
+            }
+            final int end = documentOffsets[docIdx] + documentLengths[docIdx];
+            int pos = documentOffsets[docIdx];
+            int next = 0;
+            top = 0;
+            while (pos < end && (top > 0 || next < count)) {
+                if (top == 0) {
+                    final NodeProxy context = contextNodes.get(next++);
+                    push(context);
+                    pos = findFirst(docIdx, context.getNodeId(), pos);
+                } else if (next < count && contextNodes.get(next).getNodeId()
+                        .compareTo(idUnits[pos], idData, idOffsets[pos]) <= 0) {
+                    final NodeProxy context = contextNodes.get(next++);
+                    while (top > 0 && context.getNodeId().computeRelation(stack[top - 1].getNodeId()) < 0) {
+                        stack[--top] = null;
+                    }
+                    push(context);
+                } else {
+                    while (top > 0 && stack[top - 1].getNodeId()
+                            .computeRelationOf(idUnits[pos], idData, idOffsets[pos]) < 0) {
+                        stack[--top] = null;
+                    }
+                    if (top > 0)
+                        {match(docIdx, pos);}
+                    pos++;
+                }
+            }
+            while (top > 0) {
+                stack[--top] = null;
+            }
+        }
+
+        private void push(NodeProxy context) {
+            if (top == stack.length) {
+                stack = Arrays.copyOf(stack, top << 1);
+                added = Arrays.copyOf(added, top << 1);
+            }
+            added[top] = false;
+            stack[top++] = context;
+        }
+
+        /**
+         * Add the node at the given position, which is a descendant or self of
+         * all context nodes on the stack, to the result. Works like the corresponding
+         * method of {@link NewArrayNodeSet}, but the nodes of this set have no context
+         * and no matches yet.
+         */
+        private void match(int docIdx, int pos) {
+            int first = 0;
+            if (childOnly) {
+                // only the innermost context node, which may occur several times, can be the parent
+                first = top - 1;
+                while (first > 0 && stack[first - 1].getNodeId().equals(stack[top - 1].getNodeId())) {
+                    first--;
+                }
+            }
+            NodeProxy node = null;
+            for (int i = first; i < top; i++) {
+                final NodeProxy context = stack[i];
+                final int relation = context.getNodeId().computeRelationOf(idUnits[pos], idData, idOffsets[pos]);
+                if (childOnly) {
+                    if (relation != NodeId.IS_CHILD)
+                        {continue;}
+                } else if (relation == NodeId.IS_SELF && !includeSelf)
+                    {continue;}
+                switch (mode) {
+                case NodeSet.DESCENDANT :
+                    if (node == null)
+                        {node = createProxy(docIdx, pos);}
+                    if (Expression.NO_CONTEXT_ID != contextId) {
+                        node.deepCopyContext(context, contextId);
+                    } else {
+                        node.copyContext(context);
+                    }
+                    if (copyMatches)
+                        {node.addMatches(context);}
+                    break;
+                case NodeSet.ANCESTOR :
+                    // without a context id, further descendants would not change the context node
+                    if (added[i] && Expression.NO_CONTEXT_ID == contextId)
+                        {continue;}
+                    if (node == null)
+                        {node = createProxy(docIdx, pos);}
+                    if (Expression.NO_CONTEXT_ID != contextId) {
+                        context.deepCopyContext(node, contextId);
+                    } else {
+                        context.copyContext(node);
+                    }
+                    if (copyMatches)
+                        {context.addMatches(node);}
+                    if (!added[i]) {
+                        result.add(context, 1);
+                        added[i] = true;
+                    }
+                    break;
+                }
+            }
+            if (node != null && mode == NodeSet.DESCENDANT)
+                {result.add(node);}
+        }
+    }
+}
@@ -567,6 +567,9 @@ public class RESTServer {
                 //	response.setContentLength(resource.getContentLength());
                 // must be set so
                 response.addHeader("Content-Length", Long.toString(resource.getContentLength()));
+                if (resource.getResourceType() == DocumentImpl.BINARY_FILE) {
+                    response.addHeader("Accept-Ranges", "bytes");
+                }
                 setCreatedAndLastModifiedHeaders(response, metadata.getCreated(), metadata.getLastModified());
             } else {
                 final Collection col = broker.getCollection(pathUri);
@@ -1626,6 +1629,66 @@ public class RESTServer {
         response.addDateHeader("Created", created);
     }
 
+    /**
+     * HTTP 1.1 RFC 2616 Section 14.35: get the byte range requested by the
+     * Range header. Only a single range is supported, requests for several
+     * ranges get the whole content.
+     *
+     * @return the first and last byte position of the range, an empty array if
+     * the range cannot be satisfied or null if the whole content should be sent
+     */
+    private long[] getRange(final HttpServletRequest request, final long lastModified,
+        final long contentLength) {
+        final String header = request.getHeader("Range");
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') > -1) {
+            return null;
+        }
+
+        // Section 14.27: send the range only if the resource did not change
+        if (request.getHeader("If-Range") != null) {
+            try {
+                if (lastModified / 1000 > request.getDateHeader("If-Range") / 1000) {
+                    return null;
+                }
+            } catch (final IllegalArgumentException iae) {
+                // an entity tag, which never matches
+                return null;
+            }
+        }
+
+        final String spec = header.substring("bytes=".length()).trim();
+        final int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        long first;
+        long last;
+        try {
+            if (dash == 0) {
+                // suffix range: the last n bytes
+                final long suffix = Long.parseLong(spec.substring(1));
+                if (suffix == 0) {
+                    return new long[0];
+                }
+                first = Math.max(0, contentLength - suffix);
+                last = contentLength - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash));
+                last = dash == spec.length() - 1 ? contentLength - 1 :
+                    Math.min(contentLength - 1, Long.parseLong(spec.substring(dash + 1)));
+                if (last < first && first < contentLength) {
+                    return null;
+                }
+            }
+        } catch (final NumberFormatException nfe) {
+            return null;
+        }
+        if (first >= contentLength || contentLength == 0) {
+            return new long[0];
+        }
+        return new long[] { first, last };
+    }
+
     // writes out a resource, uses asMimeType as the specified mime-type or if
     // null uses the type of the resource
     private void writeResourceAs(final DocumentImpl resource, final DBBroker broker,
@@ -1692,14 +1755,31 @@ public class RESTServer {
                 response.setContentType(asMimeType);
             }
 
+            response.addHeader("Accept-Ranges", "bytes");
+            final long contentLength = resource.getContentLength();
+            final long[] range = getRange(request, lastModified, contentLength);
+            if (range != null && range.length == 0) {
+                response.addHeader("Content-Range", "bytes */" + contentLength);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            long offset = 0;
+            long length = contentLength;
+            if (range != null) {
+                offset = range[0];
+                length = range[1] - range[0] + 1;
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.addHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + contentLength);
+            }
+
             // As HttpServletResponse.setContentLength is limited to integers,
             // (see http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=4187336)
             // next sentence:
             //	response.setContentLength(resource.getContentLength());
             // must be set so
-            response.addHeader("Content-Length", Long.toString(resource.getContentLength()));
+            response.addHeader("Content-Length", Long.toString(length));
             final OutputStream os = response.getOutputStream();
-            broker.readBinaryResource((BinaryDocument) resource, os);
+            broker.readBinaryResource((BinaryDocument) resource, os, offset, length);
             os.flush();
         } else {
             // xml resource
@@ -30,6 +30,13 @@ public interface StructuralIndex {
     public NodeSet findAncestorsByTagName(byte type, QName qname, int axis,
             DocumentSet docs, NodeSet contextSet, int contextId);
 
+    /**
+     * Switch bulk-load mode on or off. In bulk-load mode, the index may defer writing
+     * the entries of stored documents and write them in larger, sorted batches. Entries
+     * still pending are written when bulk-load mode is switched off.
+     */
+    public void setBulkLoad(boolean bulkLoad);
+
     /**
      * Find all nodes matching a given node test, axis and type. Used to evaluate wildcard
      * expressions like //*, //pfx:*.
@@ -21,6 +21,8 @@
  */
 package org.exist.management;
 
+import org.exist.storage.cache.TwoQueueCache;
+
 public class Cache implements CacheMBean {
 
     private org.exist.storage.cache.Cache cache;
@@ -58,4 +60,16 @@ public class Cache implements CacheMBean {
     public String getFileName() {
         return cache.getFileName();
     }
+
+    @Override
+    public boolean isScanResistant() {
+        return cache instanceof TwoQueueCache;
+    }
+
+    @Override
+    public int getHot() {
+        if (cache instanceof TwoQueueCache)
+            {return ((TwoQueueCache) cache).getHotBuffers();}
+        return cache.getUsedBuffers();
+    }
 }
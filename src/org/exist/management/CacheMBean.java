@@ -38,4 +38,17 @@ public interface CacheMBean {
     public int getFails();
 
     public String getFileName();
+
+    /**
+     * Returns true if the cache uses the scan resistant
+     * {@link org.exist.storage.cache.TwoQueueCache} replacement policy.
+     */
+    public boolean isScanResistant();
+
+    /**
+     * The number of pages which have been accessed repeatedly. Only pages
+     * of a scan resistant cache are distinguished, otherwise all used pages
+     * are counted.
+     */
+    public int getHot();
 }
\ No newline at end of file
@@ -1,5 +1,8 @@
 package org.exist.management;
 
+import org.exist.storage.DefaultCacheManager;
+import org.exist.storage.cache.OffHeapPageStore;
+
 /**
  * Created by IntelliJ IDEA.
  * User: wolf
@@ -29,4 +32,34 @@ public class CacheManager implements CacheManagerMBean {
     public long getCurrentSize() {
         return manager.getCurrentSize();
     }
+
+    @Override
+    public long getOffHeapSize() {
+        final OffHeapPageStore store = getOffHeapStore();
+        return store == null ? 0 : store.getSize();
+    }
+
+    @Override
+    public long getOffHeapUsedPages() {
+        final OffHeapPageStore store = getOffHeapStore();
+        return store == null ? 0 : store.getUsedPages();
+    }
+
+    @Override
+    public long getOffHeapHits() {
+        final OffHeapPageStore store = getOffHeapStore();
+        return store == null ? 0 : store.getHits();
+    }
+
+    @Override
+    public long getOffHeapMisses() {
+        final OffHeapPageStore store = getOffHeapStore();
+        return store == null ? 0 : store.getMisses();
+    }
+
+    private OffHeapPageStore getOffHeapStore() {
+        if (manager instanceof DefaultCacheManager)
+            {return ((DefaultCacheManager) manager).getOffHeapStore();}
+        return null;
+    }
 }
@@ -14,4 +14,12 @@ public interface CacheManagerMBean {
     long getMaxSingle();
 
     long getCurrentSize();
+
+    long getOffHeapSize();
+
+    long getOffHeapUsedPages();
+
+    long getOffHeapHits();
+
+    long getOffHeapMisses();
 }
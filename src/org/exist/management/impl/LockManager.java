@@ -47,6 +47,22 @@ public class LockManager implements LockManagerMBean {
         }
     }
 
+    public int getWaitingThreadCount() {
+        return DeadlockDetection.getWaitingThreadCount();
+    }
+
+    public long getResourceLockWaits() {
+        return DeadlockDetection.getResourceWaits();
+    }
+
+    public long getCollectionLockWaits() {
+        return DeadlockDetection.getCollectionWaits();
+    }
+
+    public long getTotalLockWaitTime() {
+        return DeadlockDetection.getWaitTime();
+    }
+
     private static String[] itemNames = { "waitingThread", "lockType", "lockMode", "id", "owner", "waitingForRead", "waitingForWrite" };
     private static String[] itemDescriptions = {
             "Name of the thread waiting for the lock",
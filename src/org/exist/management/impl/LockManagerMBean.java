@@ -29,4 +29,12 @@ import javax.management.openmbean.TabularData;
 public interface LockManagerMBean {
 
     public TabularData getWaitingThreads();
+
+    public int getWaitingThreadCount();
+
+    public long getResourceLockWaits();
+
+    public long getCollectionLockWaits();
+
+    public long getTotalLockWaitTime();
 }
@@ -22,6 +22,8 @@
 package org.exist.numbering;
 
 import java.io.IOException;
+import java.util.Arrays;
+
 import org.exist.security.MessageDigester;
 import org.exist.storage.io.VariableByteInput;
 import org.exist.storage.io.VariableByteOutputStream;
@@ -245,12 +247,14 @@ public class DLN extends DLNBase implements NodeId {
             return null;
         }
         
-        final int last = lastLevelOffset();
-        if (last == 0) {
+        final int[] offsets = getLevelOffsets();
+        if (offsets.length == 1) {
             return DOCUMENT_NODE;
         }
         
-        return new DLN(bits, last - 1);
+        final DLN parent = new DLN(bits, offsets[offsets.length - 1] - 1);
+        parent.levelOffsets = Arrays.copyOf(offsets, offsets.length - 1);
+        return parent;
     }
 
     @Override
@@ -273,6 +277,9 @@ public class DLN extends DLNBase implements NodeId {
         if(!startsWith(other)) {
             return false;
         }
+        if (bitIndex > other.bitIndex && isLevelSeparator(other.bitIndex + 1)) {
+            return getTreeLevel() == other.getTreeLevel() + 1;
+        }
         final int levels = getLevelCount(other.bitIndex + 2);
         return levels == 1;
     }
@@ -289,7 +296,27 @@ public class DLN extends DLNBase implements NodeId {
                 return IS_SELF;
             }
             if (bitIndex > other.bitIndex && isLevelSeparator(other.bitIndex + 1)) {
-                if (getLevelCount(other.bitIndex + 2) == 1) {
+                if (getTreeLevel() == other.getTreeLevel() + 1) {
+                    return IS_CHILD;
+                }
+                return IS_DESCENDANT;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int computeRelationOf(final int units, final byte[] data, final int startOffset) {
+        if (this == NodeId.DOCUMENT_NODE) {
+            return getLevelCount(0, units - 1, data, startOffset) == 1 ? IS_CHILD : IS_DESCENDANT;
+        }
+
+        if (isPrefixOf(units, data, startOffset)) {
+            if (units - 1 == bitIndex) {
+                return IS_SELF;
+            }
+            if (units - 1 > bitIndex && isLevelSeparator(bitIndex + 1, data, startOffset)) {
+                if (getLevelCount(bitIndex + 2, units - 1, data, startOffset) == 1) {
                     return IS_CHILD;
                 }
                 return IS_DESCENDANT;
@@ -339,6 +366,25 @@ public class DLN extends DLNBase implements NodeId {
         return (a1len - a2len);
     }
 
+    @Override
+    public int compareTo(final int units, final byte[] data, final int startOffset) {
+        final int a1len = bits.length;
+        int a2len = units / 8;
+        if (units % 8 > 0) {
+            ++a2len;
+        }
+        final int limit = a1len <= a2len ? a1len : a2len;
+
+        for(int i = 0; i < limit; i++) {
+            final byte b1 = bits[i];
+            final byte b2 = data[startOffset + i];
+            if(b1 != b2) {
+                return (b1 & 0xFF) - (b2 & 0xFF);
+            }
+        }
+        return (a1len - a2len);
+    }
+
     @Override
     public boolean after(final NodeId other, final boolean isFollowing) {
         if (compareTo(other) > 0) {
@@ -97,6 +97,10 @@ public class DLNBase {
     // for appending new bits
     protected int bitIndex = -1;
 
+    // the start offsets of the levels, computed on demand.
+    // The array is never modified, so it can be shared by copies
+    protected volatile int[] levelOffsets = null;
+
     public DLNBase() {
         bits = new byte[1];
     }
@@ -105,6 +109,7 @@ public class DLNBase {
         this.bits = new byte[dln.bits.length];
         System.arraycopy(dln.bits, 0, this.bits, 0, dln.bits.length);
         this.bitIndex = dln.bitIndex;
+        this.levelOffsets = dln.levelOffsets;
     }
 
     public DLNBase(final int units, final byte[] data, final int startOffset) {
@@ -182,10 +187,24 @@ public class DLNBase {
      * @param levelId initial value
      */
     public void addLevelId(final int levelId, final boolean isSubLevel) {
-        if (bitIndex > -1){
+        final int[] offsets = levelOffsets;
+        final int start = bitIndex + 2;
+        final boolean empty = bitIndex == -1;
+        if (!empty){
             setNextBit(isSubLevel);
         }
         setCurrentLevelId(levelId);
+        // a sub level does not change the levels, a new level is appended.
+        // The first level of an empty id is already cached at offset 0
+        if (offsets != null) {
+            if (isSubLevel || empty) {
+                levelOffsets = offsets;
+            } else {
+                final int[] newOffsets = Arrays.copyOf(offsets, offsets.length + 1);
+                newOffsets[offsets.length] = start;
+                levelOffsets = newOffsets;
+            }
+        }
     }
 
     /**
@@ -290,15 +309,23 @@ public class DLNBase {
     }
 
     private static int unitsUsed(int startBit, final byte[] bits) {
+        return unitsUsed(startBit, bits, 0);
+    }
+
+    private static int unitsUsed(int startBit, final byte[] data, final int startOffset) {
         int units = 1;
-        while ((bits[startBit >> UNIT_SHIFT] & (1 << ((7 - startBit++) & 7))) != 0) {
+        while ((data[startOffset + (startBit >> UNIT_SHIFT)] & (1 << ((7 - startBit++) & 7))) != 0) {
             ++units;
         }
         return units;
     }
 
     public boolean isLevelSeparator(final int index) {
-        return (bits[index >> UNIT_SHIFT] & (1 << ((7 - index) & 7))) == 0;
+        return isLevelSeparator(index, bits, 0);
+    }
+
+    protected static boolean isLevelSeparator(final int index, final byte[] data, final int startOffset) {
+        return (data[startOffset + (index >> UNIT_SHIFT)] & (1 << ((7 - index) & 7))) == 0;
     }
     
     /**
@@ -308,14 +335,57 @@ public class DLNBase {
      * @return the number of levels in this id
      */
     public int getLevelCount(final int startOffset) {
-        int bit = startOffset;
+        if (startOffset == 0)
+            {return getLevelOffsets().length;}
+        return getLevelCount(startOffset, bitIndex, bits, 0);
+    }
+
+    /**
+     * Returns the start offsets of all levels in this id. The offsets
+     * are computed on the first call and cached until the id is modified.
+     *
+     * @return the start offset of every level
+     */
+    protected int[] getLevelOffsets() {
+        int[] offsets = levelOffsets;
+        if (offsets == null) {
+            offsets = new int[8];
+            int count = 1;
+            int bit = 0;
+            while (bit <= bitIndex) {
+                // check if the next bit starts a new level or just a sub-level component
+                if (bit > 0) {
+                    if ((bits[bit >> UNIT_SHIFT] & (1 << ((7 - bit) & 7))) == LEVEL_SEPARATOR) {
+                        if (count == offsets.length)
+                            {offsets = Arrays.copyOf(offsets, count << 1);}
+                        offsets[count++] = bit + 1;
+                    }
+                    ++bit;
+                }
+                final int units = unitsUsed(bit, bits);
+                bit += units;
+                bit += bitWidth(units);
+            }
+            offsets = Arrays.copyOf(offsets, count);
+            levelOffsets = offsets;
+        }
+        return offsets;
+    }
+
+    /**
+     * Returns the number of levels between startBit and lastBit of the id
+     * serialized in data at startOffset.
+     */
+    protected static int getLevelCount(final int startBit, final int lastBit, final byte[] data,
+            final int startOffset) {
+        int bit = startBit;
         int count = 0;
-        while (bit > -1 && bit <= bitIndex) {
-            final int units = unitsUsed(bit, bits);
+        while (bit > -1 && bit <= lastBit) {
+            final int units = unitsUsed(bit, data, startOffset);
             bit += units;
             bit += bitWidth(units);
-            if (bit < bitIndex) {
-                if ((bits[bit >> UNIT_SHIFT] & (1 << ((7 - bit++) & 7))) == LEVEL_SEPARATOR) {
+            if (bit < lastBit) {
+                if ((data[startOffset + (bit >> UNIT_SHIFT)] & (1 << ((7 - bit++) & 7))) == LEVEL_SEPARATOR) {
                     ++count;
                 }
             } else {
@@ -374,21 +444,8 @@ public class DLNBase {
      * @return start-offset of the last level id.
      */
     public int lastLevelOffset() {
-        int bit = 0;
-        int lastOffset = 0;
-        while (bit <= bitIndex) {
-            // check if the next bit starts a new level or just a sub-level component
-            if (bit > 0) {
-                if ((bits[bit >> UNIT_SHIFT] & (1 << ((7 - bit) & 7))) == LEVEL_SEPARATOR) {
-                    lastOffset = bit + 1;
-                }
-                ++bit;
-            }
-            final int units = unitsUsed(bit, bits);
-            bit += units;
-            bit += bitWidth(units);
-        }
-        return lastOffset;
+        final int[] offsets = getLevelOffsets();
+        return offsets[offsets.length - 1];
     }
 
     protected int lastFieldPosition() {
@@ -413,6 +470,8 @@ public class DLNBase {
      * @param value the value of the bit to set, i.e. 1 (true) or 0 (false)
      */
     private void setNextBit(final boolean value) {
+        if (levelOffsets != null)
+            {levelOffsets = null;}
         ++bitIndex;
         if ((bitIndex >> UNIT_SHIFT) >= bits.length) {
             final byte[] new_bits = new byte[bits.length + 1];
@@ -538,6 +597,29 @@ public class DLNBase {
         return (bits[bytes] & BIT_MASK[remaining]) == (other.bits[bytes] & BIT_MASK[remaining]);
     }
 
+    /**
+     * Checks if the id serialized in data at startOffset starts with the
+     * same bit sequence as the current DLN. Same as calling
+     * {@link #startsWith(DLNBase)} on the deserialized id.
+     *
+     * @param units the number of bits used by the serialized id
+     * @param data
+     * @param startOffset
+     */
+    protected boolean isPrefixOf(final int units, final byte[] data, final int startOffset) {
+        if (bitIndex > units - 1) {
+            return false;
+        }
+        final int bytes = bitIndex / 8;
+        final int remaining = bitIndex % 8;
+        for (int i = 0; i < bytes; i++) {
+            if (data[startOffset + i] != bits[i]) {
+                return false;
+            }
+        }
+        return (data[startOffset + bytes] & BIT_MASK[remaining]) == (bits[bytes] & BIT_MASK[remaining]);
+    }
+
     public String debug() {
         final StringBuilder buf = new StringBuilder();
         buf.append(toString());
@@ -165,6 +165,19 @@ public interface NodeId extends Comparable<NodeId> {
      */
     int computeRelation(NodeId ancestor);
 
+    /**
+     * Computes the relationship of the node id serialized in data to this node,
+     * i.e. the result is the same as calling {@link #computeRelation(NodeId)} on
+     * the deserialized node id with this node id as argument. No node id object
+     * is created for the serialized id.
+     *
+     * @param units the number of units used by the serialized id
+     * @param data the byte array to read from
+     * @param startOffset offset into the byte array
+     * @return an int value indicating the relation
+     */
+    int computeRelationOf(int units, byte[] data, int startOffset);
+
     boolean isSiblingOf(NodeId sibling);
 
     /**
@@ -177,6 +190,16 @@ public interface NodeId extends Comparable<NodeId> {
 
     int compareTo(NodeId other);
 
+    /**
+     * Compares this node id to the node id serialized in data, without
+     * deserializing it. Document order is the same as for {@link #compareTo(NodeId)}.
+     *
+     * @param units the number of units used by the serialized id
+     * @param data the byte array to read from
+     * @param startOffset offset into the byte array
+     */
+    int compareTo(int units, byte[] data, int startOffset);
+
     boolean equals(NodeId other);
 
     /**
@@ -0,0 +1,276 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.storage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.log4j.Logger;
+import org.exist.EXistException;
+import org.exist.storage.journal.Loggable;
+import org.exist.storage.txn.TransactionException;
+import org.exist.storage.txn.Txn;
+import org.exist.util.Configuration;
+
+/**
+ * Content addressed store for binary resources. Binary resources with the same
+ * content share a single file, which is named after the SHA-256 digest of the content.
+ * Copying a binary resource only adds a reference to the file.
+ *
+ * Every entry is a directory in fs.blob, containing the file with the content and
+ * an empty marker file for every reference to it. A document refers to the content
+ * by digest and marker name, see {@link org.exist.dom.BinaryDocument#getBlobReference()}.
+ * Markers are created and removed like binary resources, so the journal can undo
+ * the changes of uncommitted transactions: removed markers are moved to fs.journal
+ * until the next checkpoint. The content of an entry is removed together with its
+ * last marker.
+ *
+ * If deduplication is disabled, new binary resources are stored as plain files
+ * in the fs directory, but existing entries can still be read.
+ */
+public class BlobStore {
+
+    private final static Logger LOG = Logger.getLogger(BlobStore.class);
+
+    public final static String DEDUPLICATE_BINARIES_ATTRIBUTE = "deduplicateBinaries";
+    public final static String PROPERTY_DEDUPLICATE_BINARIES = "db-connection.deduplicate-binaries";
+
+    private final static String CONFIG_KEY = "db-connection.blob-store";
+
+    public final static String BLOB_DIR = "fs.blob";
+
+    final static String CONTENT_FILE = "content";
+
+    private final static String DIGEST_ALGORITHM = "SHA-256";
+
+    private final static char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File dir;
+
+    private final File tmpDir;
+
+    private final File journalDir;
+
+    private final boolean deduplicate;
+
+    private BlobStore(File dataDir, Configuration config) throws EXistException {
+        dir = new File(dataDir, BLOB_DIR);
+        tmpDir = new File(dir, "tmp");
+        journalDir = new File(dataDir, "fs.journal");
+        if (!tmpDir.exists() && !tmpDir.mkdirs())
+            {throw new EXistException("Cannot make binary store directory: " + tmpDir);}
+        final Boolean enabled = (Boolean) config.getProperty(PROPERTY_DEDUPLICATE_BINARIES);
+        deduplicate = enabled != null && enabled.booleanValue();
+        config.setProperty(CONFIG_KEY, this);
+    }
+
+    /**
+     * Returns the store shared by all brokers of the database, creating it if necessary.
+     */
+    public static BlobStore getInstance(File dataDir, Configuration config) throws EXistException {
+        synchronized (config) {
+            final BlobStore store = (BlobStore) config.getProperty(CONFIG_KEY);
+            if (store != null)
+                {return store;}
+            return new BlobStore(dataDir, config);
+        }
+    }
+
+    /**
+     * @return true if new binary resources should be stored in this store
+     */
+    public boolean isEnabled() {
+        return deduplicate;
+    }
+
+    public File getDirectory() {
+        return dir;
+    }
+
+    /**
+     * Returns the file holding the content the reference points to.
+     */
+    public File getFile(String reference) {
+        return new File(getEntry(getDigest(reference)), CONTENT_FILE);
+    }
+
+    /**
+     * Returns the digest of the content the reference points to.
+     */
+    public static String getDigest(String reference) {
+        return reference.substring(0, reference.indexOf('/'));
+    }
+
+    private File getEntry(String digest) {
+        return new File(new File(dir, digest.substring(0, 2)), digest);
+    }
+
+    /**
+     * Store the data read from the input stream and add a reference to it. If
+     * the store already contains the same content, the data is discarded.
+     *
+     * @return the new reference
+     */
+    public String store(DBBroker broker, Txn transaction, InputStream is) throws IOException {
+        final MessageDigest md;
+        try {
+            md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        final File tmp = File.createTempFile("blob", null, tmpDir);
+        try {
+            final byte[] buffer = new byte[65536];
+            final OutputStream os = new FileOutputStream(tmp);
+            try {
+                int len;
+                while ((len = is.read(buffer)) >= 0) {
+                    if (len > 0) {
+                        md.update(buffer, 0, len);
+                        os.write(buffer, 0, len);
+                    }
+                }
+            } finally {
+                os.close();
+            }
+            final String digest = toHex(md.digest());
+            synchronized (this) {
+                final File entry = getEntry(digest);
+                final File content = new File(entry, CONTENT_FILE);
+                if (!content.exists()) {
+                    if (!entry.exists()) {
+                        if (!entry.mkdirs())
+                            {throw new IOException("Cannot make binary store directory: " + entry);}
+                        writeToLog(broker, new CreateBlobLoggable(broker, transaction, entry));
+                    }
+                    if (!tmp.renameTo(content))
+                        {throw new IOException("Cannot move binary resource to " + content);}
+                    try {
+                        writeToLog(broker, new CreateBlobLoggable(broker, transaction, content));
+                    } catch (final IOException e) {
+                        undo(content);
+                        throw e;
+                    }
+                }
+                return createReference(broker, transaction, digest);
+            }
+        } finally {
+            if (tmp.exists() && !tmp.delete())
+                {LOG.warn("Cannot delete temporary file " + tmp);}
+        }
+    }
+
+    /**
+     * Add another reference to the content an existing reference points to.
+     *
+     * @return the new reference
+     */
+    public synchronized String addReference(DBBroker broker, Txn transaction, String reference)
+            throws IOException {
+        final String digest = getDigest(reference);
+        if (!new File(getEntry(digest), CONTENT_FILE).exists())
+            {throw new IOException("Binary content " + digest + " not found in " + dir);}
+        return createReference(broker, transaction, digest);
+    }
+
+    private String createReference(DBBroker broker, Txn transaction, String digest) throws IOException {
+        final File marker = File.createTempFile("ref", "", getEntry(digest));
+        try {
+            writeToLog(broker, new CreateBlobLoggable(broker, transaction, marker));
+        } catch (final IOException e) {
+            undo(marker);
+            throw e;
+        }
+        return digest + '/' + marker.getName();
+    }
+
+    private void undo(File created) {
+        if (!created.delete())
+            {LOG.warn("Cannot delete file " + created);}
+    }
+
+    /**
+     * Remove a reference. If it was the last reference to the content, the
+     * content is removed as well. Both are kept in fs.journal until the next
+     * checkpoint.
+     */
+    public synchronized void removeReference(DBBroker broker, Txn transaction, String reference)
+            throws IOException {
+        final String digest = getDigest(reference);
+        final File entry = getEntry(digest);
+        final File marker = new File(entry, reference.substring(digest.length() + 1));
+        if (!marker.exists()) {
+            LOG.warn("Binary content reference " + reference + " not found in " + dir);
+            return;
+        }
+        final File backupDir = new File(new File(journalDir, "txn." + transaction.getId()), BLOB_DIR);
+        if (!backupDir.exists() && !backupDir.mkdirs())
+            {throw new IOException("Cannot make transaction filesystem directory: " + backupDir);}
+        moveToJournal(broker, transaction, marker, backupDir, digest + "." + marker.getName());
+        final String[] names = entry.list();
+        if (names != null && names.length == 1 && CONTENT_FILE.equals(names[0]))
+            {moveToJournal(broker, transaction, new File(entry, CONTENT_FILE), backupDir, digest);}
+    }
+
+    private void moveToJournal(DBBroker broker, Txn transaction, File file, File backupDir, String name)
+            throws IOException {
+        File backup = new File(backupDir, name);
+        for (int i = 1; backup.exists(); i++) {
+            backup = new File(backupDir, name + "." + i);
+        }
+        if (!file.renameTo(backup))
+            {throw new IOException("Cannot move file " + file + " for delete journal to " + backup);}
+        try {
+            writeToLog(broker, new RenameBinaryLoggable(broker, transaction, file, backup));
+        } catch (final IOException e) {
+            if (!backup.renameTo(file))
+                {LOG.warn("Cannot move file " + backup + " back to " + file);}
+            throw e;
+        }
+    }
+
+    /**
+     * Journal a change of the store. If the journal cannot be written, the change
+     * could not be undone by recovery, so the caller has to abort the transaction.
+     */
+    private void writeToLog(DBBroker broker, Loggable loggable) throws IOException {
+        try {
+            broker.getBrokerPool().getTransactionManager().getJournal().writeToLog(loggable);
+        } catch (final TransactionException e) {
+            throw new IOException("Failed to journal binary store change: " + e.getMessage(), e);
+        }
+    }
+
+    private static String toHex(byte[] data) {
+        final char[] chars = new char[data.length * 2];
+        for (int i = 0; i < data.length; i++) {
+            chars[i * 2] = HEX[(data[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[data[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
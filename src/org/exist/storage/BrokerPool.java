@@ -1662,6 +1662,11 @@ public class BrokerPool implements Database {
 			//it is still in use and thus can't be marked as inactive
 			return;
 		}
+
+		if (broker.isBulkLoad()) {
+			LOG.warn("Broker " + broker.getId() + " released in bulk-load mode. Writing pending index entries.");
+			broker.stopBulkLoad();
+		}
 		
 		synchronized (this) {
 			//Broker is no more used : inactivate it
@@ -1808,6 +1813,16 @@ public class BrokerPool implements Database {
         broker.setSubject(user);
 	}
 	
+    /**
+     * Start a fuzzy checkpoint in the background instead of running a major sync, which
+     * would block all transactions until the caches have been flushed. See
+     * {@link TransactionManager#triggerFuzzyCheckpoint()}.
+     */
+    public void triggerFuzzyCheckpoint() {
+        if (transactionManager.triggerFuzzyCheckpoint())
+            {lastMajorSync = System.currentTimeMillis();}
+    }
+
 	/**
 	 * Schedules a cache synchronization for the database instance. If the database instance is idle,
 	 * the cache synchronization will be run immediately. Otherwise, the task will be deffered 
@@ -43,6 +43,17 @@ public class CreateBinaryLoggable extends AbstractLoggable {
       LOG.debug("CreateBinaryLoggable created");
       this.broker = broker;
    }
+
+   protected CreateBinaryLoggable(byte type,DBBroker broker,Txn txn,File original) {
+      super(type,txn.getId());
+      this.broker = broker;
+      this.original = original;
+   }
+
+   protected CreateBinaryLoggable(byte type,DBBroker broker,long transactionId) {
+      super(type,transactionId);
+      this.broker = broker;
+   }
    
    /* (non-Javadoc)
     * @see org.exist.storage.log.Loggable#write(java.nio.ByteBuffer)
@@ -0,0 +1,65 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.storage;
+
+import java.io.File;
+
+import org.exist.storage.journal.LogException;
+import org.exist.storage.txn.Txn;
+
+/**
+ * Logs the creation of an entry, its content or a reference marker in the
+ * {@link BlobStore}. Other transactions may have added references to an entry
+ * created by an uncommitted transaction. Undo thus only removes the content or the
+ * entry directory if no reference is left.
+ */
+public class CreateBlobLoggable extends CreateBinaryLoggable {
+
+    public CreateBlobLoggable(DBBroker broker, Txn txn, File original) {
+        super(NativeBroker.LOG_CREATE_BLOB, broker, txn, original);
+    }
+
+    public CreateBlobLoggable(DBBroker broker, long transactionId) {
+        super(NativeBroker.LOG_CREATE_BLOB, broker, transactionId);
+    }
+
+    @Override
+    public void undo() throws LogException {
+        if (!original.exists())
+            {return;}
+        if (original.isDirectory()) {
+            final String[] names = original.list();
+            if (names != null && names.length > 0)
+                {return;}
+        } else if (BlobStore.CONTENT_FILE.equals(original.getName())) {
+            final String[] names = original.getParentFile().list();
+            if (names != null && names.length > 1)
+                {return;}
+        }
+        super.undo();
+    }
+
+    @Override
+    public String dump() {
+        return super.dump() + " (binary store)";
+    }
+}
@@ -104,6 +104,9 @@ public abstract class DBBroker extends Observable {
 
     private int referenceCount = 0;
 
+    /** nesting level of {@link #beginBulkLoad()} */
+    private int bulkLoad = 0;
+
     protected String id;
 
     protected IndexController indexController;
@@ -197,6 +200,48 @@ public abstract class DBBroker extends Observable {
         // do nothing
     }
 
+    /**
+     * Switch to bulk-load mode, for storing a large number of documents.
+     * The structural index then collects the entries of stored documents and
+     * writes them in sorted batches. Documents stored in bulk-load mode may
+     * not be found by all queries until the storing transaction has ended.
+     * Calls may be nested: bulk-load mode ends with the outermost call to
+     * {@link #endBulkLoad()}, or when the broker is returned to the pool.
+     */
+    public void beginBulkLoad() {
+        if (bulkLoad++ == 0) {
+            final StructuralIndex index = getStructuralIndex();
+            if (index != null)
+                {index.setBulkLoad(true);}
+        }
+    }
+
+    /**
+     * Leave bulk-load mode, writing all pending index entries.
+     */
+    public void endBulkLoad() {
+        if (bulkLoad > 0 && --bulkLoad == 0) {
+            final StructuralIndex index = getStructuralIndex();
+            if (index != null)
+                {index.setBulkLoad(false);}
+        }
+    }
+
+    public boolean isBulkLoad() {
+        return bulkLoad > 0;
+    }
+
+    /**
+     * End bulk-load mode, whatever the nesting level. Called by the pool
+     * if the broker is released in bulk-load mode.
+     */
+    void stopBulkLoad() {
+        if (bulkLoad > 0) {
+            bulkLoad = 1;
+            endBulkLoad();
+        }
+    }
+
     /** Observer Design Pattern: List of ContentLoadingObserver objects */
     protected List<ContentLoadingObserver> contentLoadingObservers = new ArrayList<ContentLoadingObserver>();	
 
@@ -585,6 +630,18 @@ public abstract class DBBroker extends Observable {
     public abstract void readBinaryResource(final BinaryDocument blob,
         final OutputStream os) throws IOException;
 
+    /**
+     * Write length bytes of the binary resource, starting at offset,
+     * to the output stream.
+     *
+     * @param blob the binary resource
+     * @param os the output stream
+     * @param offset the position of the first byte to write
+     * @param length the number of bytes to write, or -1 to write all bytes up to the end
+     */
+    public abstract void readBinaryResource(final BinaryDocument blob,
+        final OutputStream os, final long offset, final long length) throws IOException;
+
     public abstract File getBinaryFile(final BinaryDocument blob) throws IOException;
 
 	public abstract InputStream getBinaryResource(final BinaryDocument blob)
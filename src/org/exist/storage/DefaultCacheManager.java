@@ -25,13 +25,20 @@ import org.apache.log4j.Logger;
 
 import org.exist.management.Agent;
 import org.exist.management.AgentFactory;
+import org.exist.storage.cache.BTreeCache;
 import org.exist.storage.cache.Cache;
+import org.exist.storage.cache.ConcurrentCache;
+import org.exist.storage.cache.LRUCache;
+import org.exist.storage.cache.OffHeapPageStore;
+import org.exist.storage.cache.TwoQueueCache;
 import org.exist.util.DatabaseConfigurationException;
 
 import java.text.NumberFormat;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 
 /**
@@ -74,6 +81,18 @@ public class DefaultCacheManager implements CacheManager
     public static final String  SHRINK_THRESHOLD_ATTRIBUTE     		 	= "cacheShrinkThreshold";
     public static final String  SHRINK_THRESHOLD_PROPERTY      			= "db-connection.cache-shrink-threshold";
 
+    /** Comma-separated list of files whose page caches use the scan resistant {@link TwoQueueCache}. */
+    public static final String  SCAN_RESISTANT_CACHES_ATTRIBUTE 			= "scanResistantCaches";
+    public static final String  PROPERTY_SCAN_RESISTANT_CACHES  			= "db-connection.scan-resistant-caches";
+
+    /** Comma-separated list of files whose page caches use the thread-safe {@link ConcurrentCache}. */
+    public static final String  CONCURRENT_CACHES_ATTRIBUTE     			= "concurrentCaches";
+    public static final String  PROPERTY_CONCURRENT_CACHES      			= "db-connection.concurrent-caches";
+
+    /** Size in megabytes of the {@link OffHeapPageStore} shared by all files. 0 disables it. */
+    public static final String  OFF_HEAP_CACHE_SIZE_ATTRIBUTE   			= "offHeapCacheSize";
+    public static final String  PROPERTY_OFF_HEAP_CACHE_SIZE    			= "db-connection.off-heap-cache-size";
+
     /** Caches maintained by this class. */
     private List<Cache>         caches                          = new ArrayList<Cache>();
 
@@ -105,6 +124,15 @@ public class DefaultCacheManager implements CacheManager
 
     private String              instanceName;
 
+    /** Names of the files whose page caches use the scan resistant {@link TwoQueueCache}. */
+    private Set<String>         scanResistantFiles              = new HashSet<String>();
+
+    /** Names of the files whose page caches use the thread-safe {@link ConcurrentCache}. */
+    private Set<String>         concurrentFiles                 = new HashSet<String>();
+
+    /** Second level cache for page images outside the Java heap, or null if disabled. */
+    private OffHeapPageStore    offHeapStore                    = null;
+
     public DefaultCacheManager( BrokerPool pool )
     {
         this.instanceName = pool.getId();
@@ -122,6 +150,16 @@ public class DefaultCacheManager implements CacheManager
 
         shrinkThreshold = pool.getConfiguration().getInteger( SHRINK_THRESHOLD_PROPERTY );
 
+        addFileNames( scanResistantFiles, (String)pool.getConfiguration().getProperty( PROPERTY_SCAN_RESISTANT_CACHES ) );
+        addFileNames( concurrentFiles, (String)pool.getConfiguration().getProperty( PROPERTY_CONCURRENT_CACHES ) );
+
+        final Integer offHeapSize = (Integer)pool.getConfiguration().getProperty( PROPERTY_OFF_HEAP_CACHE_SIZE );
+
+        if( offHeapSize != null && offHeapSize.intValue() > 0 ) {
+            offHeapStore = new OffHeapPageStore( offHeapSize.intValue() * 1024L * 1024L, pageSize );
+            LOG.info( "Off-heap page cache: " + offHeapSize + "m" );
+        }
+
         totalMem        = cacheSize * 1024L * 1024L;
         
         final Boolean checkMaxCache = (Boolean)pool.getConfiguration().getProperty( PROPERTY_CACHE_CHECK_MAX_SIZE );
@@ -156,6 +194,53 @@ public class DefaultCacheManager implements CacheManager
         registerMBean();
     }
 
+    private static void addFileNames( Set<String> files, String list )
+    {
+        if( list == null ) {
+            return;
+        }
+
+        for( final String fileName : list.split( "[,\\s]+" ) ) {
+
+            if( fileName.length() > 0 ) {
+                files.add( fileName );
+            }
+        }
+    }
+
+
+    /**
+     * Create a page cache for the given file. Files listed in the scanResistantCaches
+     * attribute of db-connection in conf.xml get a {@link TwoQueueCache}, files listed
+     * in concurrentCaches a {@link ConcurrentCache}. The cache still needs to be
+     * registered with {@link #registerCache(Cache)}.
+     *
+     * @param   fileName         name of the file the cache belongs to
+     * @param   type             one of {@link CacheManager#BTREE_CACHE} or {@link CacheManager#DATA_CACHE}
+     * @param   size             initial number of pages
+     * @param   growthFactor     see {@link Cache#getGrowthFactor()}
+     * @param   growthThreshold  the thrashing factor above which the cache requests to grow
+     *
+     * @return  the new cache
+     */
+    public Cache createCache( String fileName, String type, int size, double growthFactor, double growthThreshold )
+    {
+        final Cache cache;
+
+        if( scanResistantFiles.contains( fileName ) ) {
+            cache = new TwoQueueCache( size, growthFactor, growthThreshold, type );
+        } else if( concurrentFiles.contains( fileName ) ) {
+            cache = new ConcurrentCache( size, growthFactor, growthThreshold, type );
+        } else if( BTREE_CACHE.equals( type ) ) {
+            cache = new BTreeCache( size, growthFactor, growthThreshold, type );
+        } else {
+            cache = new LRUCache( size, growthFactor, growthThreshold, type );
+        }
+        cache.setFileName( fileName );
+        return( cache );
+    }
+
+
     @Override
     public void registerCache( Cache cache )
     {
@@ -343,6 +428,18 @@ public class DefaultCacheManager implements CacheManager
     }
 
 
+    /**
+     * Returns the page store shared by all files to keep page images
+     * outside the Java heap.
+     *
+     * @return  the store or null if offHeapCacheSize is not set
+     */
+    public OffHeapPageStore getOffHeapStore()
+    {
+        return( offHeapStore );
+    }
+
+
     /**
      * Returns the default initial size for all caches.
      *
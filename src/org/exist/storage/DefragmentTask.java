@@ -0,0 +1,193 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.storage;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.dom.DocumentImpl;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.util.Configuration;
+import org.exist.xmldb.XmldbURI;
+
+/**
+ * Defragments fragmented XML documents in the background. Updates split the pages
+ * of a document in dom.dbx, so its nodes get spread over more and more pages. A
+ * defragmented document is copied into new, contiguous pages, and the pages it
+ * used before are freed.
+ *
+ * Every run only processes a limited number of documents, since the database is
+ * blocked while a system task runs. The task remembers where it stopped and
+ * continues there in the next run. When it has walked through the whole collection
+ * tree, it starts again at the top.
+ *
+ * The following properties can be used to configure the task:
+ *
+ * <table>
+ *      <tr>
+ *          <td>collection</td>
+ *          <td>the collection to check, including its descendants. Default: /db</td>
+ *      </tr>
+ *      <tr>
+ *          <td>min-splits</td>
+ *          <td>documents are defragmented if their pages have been split more often
+ *          than this. Default: 10</td>
+ *      </tr>
+ *      <tr>
+ *          <td>max-documents</td>
+ *          <td>the maximum number of documents to defragment per run. Default: 20</td>
+ *      </tr>
+ *      <tr>
+ *          <td>max-time</td>
+ *          <td>no more documents are defragmented once a run took longer than
+ *          this (in milliseconds). Default: 2000</td>
+ *      </tr>
+ *  </table>
+ */
+public class DefragmentTask implements SystemTask {
+
+    public final static String COLLECTION_PROP_NAME = "collection";
+    public final static String MIN_SPLITS_PROP_NAME = "min-splits";
+    public final static String MAX_DOCUMENTS_PROP_NAME = "max-documents";
+    public final static String MAX_TIME_PROP_NAME = "max-time";
+
+    private XmldbURI collection;
+    private int minSplits;
+    private int maxDocuments;
+    private long maxTime;
+
+    /** the collections still to visit in the current pass */
+    private final LinkedList<XmldbURI> pending = new LinkedList<XmldbURI>();
+
+    /**
+     * the name of the last document checked in the first pending collection,
+     * which is processed in name order, or null if its child collections have not been queued yet
+     */
+    private String lastDocument = null;
+
+    @Override
+    public boolean afterCheckpoint() {
+        return false;
+    }
+
+    public void configure(Configuration config, Properties properties) throws EXistException {
+        collection = XmldbURI.create(properties.getProperty(COLLECTION_PROP_NAME, XmldbURI.ROOT_COLLECTION));
+        minSplits = getInt(properties, MIN_SPLITS_PROP_NAME, 10);
+        maxDocuments = getInt(properties, MAX_DOCUMENTS_PROP_NAME, 20);
+        maxTime = getInt(properties, MAX_TIME_PROP_NAME, 2000);
+    }
+
+    private static int getInt(Properties properties, String name, int defaultValue) throws EXistException {
+        final String value = properties.getProperty(name);
+        if (value == null)
+            {return defaultValue;}
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (final NumberFormatException e) {
+            throw new EXistException("Parameter '" + name + "' has to be an integer");
+        }
+    }
+
+    @Override
+    public void execute(DBBroker broker) throws EXistException {
+        final long start = System.currentTimeMillis();
+        if (pending.isEmpty())
+            {pending.add(collection);}
+        int defragmented = 0;
+        try {
+            while (!pending.isEmpty() && defragmented < maxDocuments &&
+                    System.currentTimeMillis() - start < maxTime) {
+                final XmldbURI uri = pending.getFirst();
+                final Collection current = broker.getCollection(uri);
+                if (current == null) {
+                    pending.removeFirst();
+                    lastDocument = null;
+                    continue;
+                }
+                if (lastDocument == null) {
+                    // first visit: queue the child collections
+                    final LinkedList<XmldbURI> children = new LinkedList<XmldbURI>();
+                    for (final Iterator<XmldbURI> i = current.collectionIteratorNoLock(broker); i.hasNext(); ) {
+                        children.add(uri.append(i.next()));
+                    }
+                    pending.addAll(1, children);
+                    lastDocument = "";
+                }
+                // the collection returns its documents in no particular order,
+                // so sort them by name to find the place where we stopped
+                final TreeMap<String, DocumentImpl> documents = new TreeMap<String, DocumentImpl>();
+                for (final Iterator<DocumentImpl> i = current.iteratorNoLock(broker); i.hasNext(); ) {
+                    final DocumentImpl doc = i.next();
+                    documents.put(doc.getFileURI().getRawCollectionPath(), doc);
+                }
+                boolean done = true;
+                for (final Map.Entry<String, DocumentImpl> entry : documents.tailMap(lastDocument, false).entrySet()) {
+                    final String name = entry.getKey();
+                    final DocumentImpl doc = entry.getValue();
+                    if (defragmented == maxDocuments || System.currentTimeMillis() - start >= maxTime) {
+                        done = false;
+                        break;
+                    }
+                    lastDocument = name;
+                    if (doc.getResourceType() == DocumentImpl.XML_FILE &&
+                            doc.getMetadata().getSplitCount() > minSplits) {
+                        defragment(broker, doc);
+                        defragmented++;
+                    }
+                }
+                if (done) {
+                    pending.removeFirst();
+                    lastDocument = null;
+                }
+            }
+        } catch (final PermissionDeniedException e) {
+            throw new EXistException(e.getMessage(), e);
+        }
+        if (defragmented > 0)
+            {LOG.info("Defragmented " + defragmented + " documents in " +
+                (System.currentTimeMillis() - start) + "ms");}
+    }
+
+    private void defragment(DBBroker broker, DocumentImpl doc) throws EXistException {
+        final TransactionManager transact = broker.getBrokerPool().getTransactionManager();
+        final Txn transaction = transact.beginTransaction();
+        try {
+            broker.defragXMLResource(transaction, doc);
+            transact.commit(transaction);
+        } catch (final EXistException e) {
+            transact.abort(transaction);
+            throw e;
+        } catch (final RuntimeException e) {
+            transact.abort(transaction);
+            throw e;
+        } finally {
+            transact.close(transaction);
+        }
+    }
+}
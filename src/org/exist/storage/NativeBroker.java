@@ -21,6 +21,7 @@
  */
 package org.exist.storage;
 
+import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
@@ -29,6 +30,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -136,11 +140,13 @@ public class NativeBroker extends DBBroker {
     public final static byte LOG_RENAME_BINARY = 0x40;
     public final static byte LOG_CREATE_BINARY = 0x41;
     public final static byte LOG_UPDATE_BINARY = 0x42;
+    public final static byte LOG_CREATE_BLOB = 0x43;
 
     static {
        LogEntryTypes.addEntryType(LOG_RENAME_BINARY, RenameBinaryLoggable.class);
        LogEntryTypes.addEntryType(LOG_CREATE_BINARY, CreateBinaryLoggable.class);
        LogEntryTypes.addEntryType(LOG_UPDATE_BINARY, UpdateBinaryLoggable.class);
+       LogEntryTypes.addEntryType(LOG_CREATE_BLOB, CreateBlobLoggable.class);
     }
 
     public static final byte PREPEND_DB_ALWAYS = 0;
@@ -156,6 +162,13 @@ public class NativeBroker extends DBBroker {
     public static final String INDEX_DEPTH_ATTRIBUTE = "index-depth"; 
 
     public static final String PROPERTY_INDEX_DEPTH = "indexer.index-depth";
+
+    public static final String REINDEX_THREADS_ATTRIBUTE = "reindex-threads";
+    public static final String PROPERTY_REINDEX_THREADS = "indexer.reindex-threads";
+    public static final String REINDEX_BATCH_SIZE_ATTRIBUTE = "reindex-batch-size";
+    public static final String PROPERTY_REINDEX_BATCH_SIZE = "indexer.reindex-batch-size";
+    public static final String SHADOW_REINDEX_ATTRIBUTE = "shadow-reindex";
+    public static final String PROPERTY_SHADOW_REINDEX = "indexer.shadow-reindex";
     private static final byte[] ALL_STORAGE_FILES = {
     	COLLECTIONS_DBX_ID, VALUES_DBX_ID, DOM_DBX_ID
     };
@@ -167,6 +180,7 @@ public class NativeBroker extends DBBroker {
     
     public static final String DEFAULT_DATA_DIR = "data";
     public static final int DEFAULT_INDEX_DEPTH = 1;
+    public static final int DEFAULT_REINDEX_BATCH_SIZE = 100;
     public static final int DEFAULT_MIN_MEMORY = 5000000;
     public static final long TEMP_FRAGMENT_TIMEOUT = 60000;
     /** default buffer size setting */
@@ -200,6 +214,7 @@ public class NativeBroker extends DBBroker {
     protected String dataDir;
     protected File fsDir;
     protected File fsBackupDir;
+    protected BlobStore blobStore;
     protected int pageSize;
 
     protected byte prepend;
@@ -245,6 +260,7 @@ public class NativeBroker extends DBBroker {
               throw new EXistException("Cannot make collection filesystem directory: "+fsBackupDir);
            }
         }
+        blobStore = BlobStore.getInstance(new File(dataDir), config);
 
         nodesCountThreshold = config.getInteger(BrokerPool.PROPERTY_NODES_BUFFER);
         if (nodesCountThreshold > 0)
@@ -515,6 +531,7 @@ public class NativeBroker extends DBBroker {
         }
         pool.getSymbols().backupToArchive(backup);
         backupBinary(backup, fsDir, "");
+        backupBinary(backup, blobStore.getDirectory(), "");
         pool.getIndexManager().backupToArchive(backup);
         //TODO backup counters
         //TODO USE zip64 or tar to create snapshots larger then 4Gb
@@ -1139,12 +1156,19 @@ public class NativeBroker extends DBBroker {
                 newDoc.copyOf(child);
                 newDoc.setDocId(getNextResourceId(transaction, destination));
                 
-                InputStream is = null;
-                try {
-                    is = getBinaryResource((BinaryDocument)child);
-                    storeBinaryResource(transaction,newDoc,is);
-                } finally {
-                    is.close();
+                if (((BinaryDocument) child).getBlobReference() != null) {
+                    // share the content in the binary store
+                    newDoc.setBlobReference(((BinaryDocument) child).getBlobReference());
+                    newDoc.setContentLength(child.getContentLength());
+                    storeBinaryResource(transaction, newDoc, (InputStream) null);
+                } else {
+                    InputStream is = null;
+                    try {
+                        is = getBinaryResource((BinaryDocument)child);
+                        storeBinaryResource(transaction,newDoc,is);
+                    } finally {
+                        is.close();
+                    }
                 }
                 storeXMLResource(transaction, newDoc);
                 destCollection.addDocument(transaction, this, newDoc);
@@ -1548,6 +1572,14 @@ public class NativeBroker extends DBBroker {
                                 final long page = ((BinaryDocument)doc).getPage();
                                 if (page > Page.NO_PAGE)
                                     {domDb.removeOverflowValue(transaction, page);}
+                                final String reference = ((BinaryDocument)doc).getBlobReference();
+                                if (reference != null) {
+                                    try {
+                                        blobStore.removeReference(NativeBroker.this, transaction, reference);
+                                    } catch (final IOException e) {
+                                        LOG.warn("io error while removing binary resource", e);
+                                    }
+                                }
                             } else {
                                 final StoredNode node = (StoredNode)doc.getFirstChild();
                                 domDb.removeAll(transaction, node.getInternalAddress());
@@ -1773,6 +1805,17 @@ public class NativeBroker extends DBBroker {
     }
 
     public void reindexCollection(Collection collection, int mode) throws PermissionDeniedException {
+        final int threads = pool.getConfiguration().getInteger(PROPERTY_REINDEX_THREADS);
+        final Boolean shadowProp = (Boolean) pool.getConfiguration().getProperty(PROPERTY_SHADOW_REINDEX);
+        final boolean shadow = mode == NodeProcessor.MODE_STORE && shadowProp != null && shadowProp.booleanValue();
+        if (threads > 1 || shadow) {
+            int batchSize = pool.getConfiguration().getInteger(PROPERTY_REINDEX_BATCH_SIZE);
+            if (batchSize < 1)
+                {batchSize = DEFAULT_REINDEX_BATCH_SIZE;}
+            new ParallelReindex(this, threads, batchSize).run(collection, mode,
+                mode == NodeProcessor.MODE_STORE && !shadow, shadow);
+            return;
+        }
         final TransactionManager transact = pool.getTransactionManager();
         final Txn transaction = transact.beginTransaction();
         long start = System.currentTimeMillis();
@@ -1780,7 +1823,12 @@ public class NativeBroker extends DBBroker {
         try {
             LOG.info(String.format("Start indexing collection %s", collection.getURI().toString()));
             pool.getProcessMonitor().startJob(ProcessMonitor.ACTION_REINDEX_COLLECTION, collection.getURI());
-            reindexCollection(transaction, collection, mode);
+            beginBulkLoad();
+            try {
+                reindexCollection(transaction, collection, mode);
+            } finally {
+                endBulkLoad();
+            }
             transact.commit(transaction);
             
         } catch (final Exception e) {
@@ -2057,7 +2105,18 @@ public class NativeBroker extends DBBroker {
     }
     
     public File getCollectionBinaryFileFsPath(XmldbURI uri) {
-        return new File(fsDir, uri.getURI().toString());
+        final File file = new File(fsDir, uri.getURI().toString());
+        if (!file.exists()) {
+            // the content may be kept in the binary store
+            try {
+                final Document doc = getXMLResource(uri);
+                if (doc instanceof BinaryDocument && ((BinaryDocument) doc).getBlobReference() != null)
+                    {return blobStore.getFile(((BinaryDocument) doc).getBlobReference());}
+            } catch (final PermissionDeniedException e) {
+                LOG.debug(e.getMessage());
+            }
+        }
+        return file;
     }
 
     private File getCollectionFile(File dir,Txn transaction,XmldbURI uri,boolean create)
@@ -2088,6 +2147,10 @@ public class NativeBroker extends DBBroker {
     @Override
     public void storeBinaryResource(final Txn transaction, final BinaryDocument blob, final byte[] data)
             throws IOException {
+       if (blobStore.isEnabled()) {
+          storeBinaryResource(transaction, blob, new ByteArrayInputStream(data));
+          return;
+       }
        blob.setPage(Page.NO_PAGE);
        final File binFile = getCollectionFile(fsDir,blob.getURI(),true);
        File backupFile = null;
@@ -2122,7 +2185,12 @@ public class NativeBroker extends DBBroker {
     public void storeBinaryResource(final Txn transaction, final BinaryDocument blob, final InputStream is)
     throws IOException {
        blob.setPage(Page.NO_PAGE);
-       final File binFile = getCollectionFile(fsDir,blob.getURI(),true);
+       if (blob.getBlobReference() != null) {
+          // a copy: share the content of the original document
+          blob.setBlobReference(blobStore.addReference(this, transaction, blob.getBlobReference()));
+          return;
+       }
+       final File binFile = getCollectionFile(fsDir,blob.getURI(),!blobStore.isEnabled());
        File backupFile = null;
        final boolean exists = binFile.exists();
        if (exists) {
@@ -2131,6 +2199,18 @@ public class NativeBroker extends DBBroker {
              throw new IOException("Cannot backup binary resource for journal to "+backupFile);
           }
        }
+       if (blobStore.isEnabled()) {
+          if (exists) {
+             final Loggable loggable = new RenameBinaryLoggable(this,transaction,binFile,backupFile);
+             try {
+                logManager.writeToLog(loggable);
+             } catch (final TransactionException e) {
+                LOG.warn(e.getMessage(), e);
+             }
+          }
+          blob.setBlobReference(blobStore.store(this, transaction, is));
+          return;
+       }
        final byte [] buffer = new byte[65536];
        final OutputStream os = new FileOutputStream(binFile);
        int len;
@@ -2256,36 +2336,56 @@ public class NativeBroker extends DBBroker {
     @Override
     public void readBinaryResource(final BinaryDocument blob, final OutputStream os) 
             throws IOException {
-       InputStream is = null;
-       try {
-           is = getBinaryResource(blob);
-           final byte [] buffer = new byte[655360];
-           int len;
-           while ((len=is.read(buffer))>=0) {
-              os.write(buffer,0,len);
-           }
-       } finally {
-           if(is != null)
-               {is.close();}
-       }
+        readBinaryResource(blob, os, 0, -1);
+    }
+
+    /**
+     * Write a range of the binary data to the output stream. If the stream writes
+     * to a file, the data is transferred by the operating system without copying it
+     * into the Java heap. Other streams are written through a small buffer.
+     */
+    @Override
+    public void readBinaryResource(final BinaryDocument blob, final OutputStream os,
+            final long offset, final long length) throws IOException {
+        final File binFile = getBinaryFile(blob);
+        final FileInputStream is = new FileInputStream(binFile);
+        try {
+            final FileChannel channel = is.getChannel();
+            final long size = channel.size();
+            final long end = length < 0 ? size : Math.min(size, offset + length);
+            // do not close the target channel: this would close the output stream
+            final WritableByteChannel target = os instanceof FileOutputStream ?
+                ((FileOutputStream) os).getChannel() : Channels.newChannel(os);
+            long position = offset;
+            while (position < end) {
+                final long count = channel.transferTo(position, end - position, target);
+                if (count <= 0)
+                    {throw new IOException("Failed to read binary resource " + blob.getURI());}
+                position += count;
+            }
+        } finally {
+            is.close();
+        }
     }
 
     @Override
     public long getBinaryResourceSize(final BinaryDocument blob) 
             throws IOException {
-        final File binFile = getCollectionFile(fsDir,blob.getURI(),false);
+        final File binFile = getBinaryFile(blob);
         return binFile.length();
     }
 
     @Override
     public File getBinaryFile(final BinaryDocument blob) throws IOException {
+        if (blob.getBlobReference() != null)
+            {return blobStore.getFile(blob.getBlobReference());}
         return getCollectionFile(fsDir, blob.getURI(), false);
     }
 
     @Override
     public InputStream getBinaryResource(final BinaryDocument blob) 
             throws IOException {
-        final File binFile = getCollectionFile(fsDir,blob.getURI(),false);
+        final File binFile = getBinaryFile(blob);
         return new FileInputStream(binFile);
     }
 
@@ -2496,7 +2596,14 @@ public class NativeBroker extends DBBroker {
                 triggersVisitor.beforeCopyDocument(this, transaction, doc, newURI);
                 
                 DocumentImpl newDocument = null;
-                if (doc.getResourceType() == DocumentImpl.BINARY_FILE) {
+                if (doc.getResourceType() == DocumentImpl.BINARY_FILE &&
+                        ((BinaryDocument) doc).getBlobReference() != null) {
+                    // share the content in the binary store
+                    final BinaryDocument blob = new BinaryDocument(pool, destination, newName);
+                    blob.setBlobReference(((BinaryDocument) doc).getBlobReference());
+                    newDocument = destination.addBinaryResource(transaction, this, blob, null,
+                        doc.getMetadata().getMimeType(), doc.getContentLength(), null, null);
+                } else if (doc.getResourceType() == DocumentImpl.BINARY_FILE) {
                     InputStream is = null;
                     try {
                         is = getBinaryResource((BinaryDocument) doc);
@@ -2667,21 +2774,24 @@ public class NativeBroker extends DBBroker {
                 // binary resource
             	doc.setCollection(destination);
                 destination.addDocument(transaction, this, doc);
-                final File colDir = getCollectionFile(fsDir,destination.getURI(),true);
-                final File binFile = new File(colDir,newName.lastSegment().toString());
-                final File sourceFile = getCollectionFile(fsDir,doc.getURI(),false);
-                /* Create required directories */
-                binFile.getParentFile().mkdirs();
-                /* Rename original file to new location */
-                if(fsOriginalDocument.renameTo(binFile)) {
-                   final Loggable loggable = new RenameBinaryLoggable(this,transaction,sourceFile,binFile);
-                   try {
-                      logManager.writeToLog(loggable);
-                   } catch (final TransactionException e) {
-                      LOG.warn(e.getMessage(), e);
-                   }
-                } else {
-                   LOG.fatal("Cannot rename "+sourceFile+" to "+binFile+" for journaling of binary resource move.");
+                // content kept in the binary store does not move
+                if (((BinaryDocument) doc).getBlobReference() == null) {
+                    final File colDir = getCollectionFile(fsDir,destination.getURI(),true);
+                    final File binFile = new File(colDir,newName.lastSegment().toString());
+                    final File sourceFile = getCollectionFile(fsDir,doc.getURI(),false);
+                    /* Create required directories */
+                    binFile.getParentFile().mkdirs();
+                    /* Rename original file to new location */
+                    if(fsOriginalDocument.renameTo(binFile)) {
+                       final Loggable loggable = new RenameBinaryLoggable(this,transaction,sourceFile,binFile);
+                       try {
+                          logManager.writeToLog(loggable);
+                       } catch (final TransactionException e) {
+                          LOG.warn(e.getMessage(), e);
+                       }
+                    } else {
+                       LOG.fatal("Cannot rename "+sourceFile+" to "+binFile+" for journaling of binary resource move.");
+                    }
                 }
             }
             storeXMLResource(transaction, doc);
@@ -2780,7 +2890,9 @@ public class NativeBroker extends DBBroker {
         }
         
         final File binFile = getCollectionFile(fsDir,blob.getURI(),false);
-        if (binFile.exists()) {
+        if (blob.getBlobReference() != null) {
+            blobStore.removeReference(this, transaction, blob.getBlobReference());
+        } else if (binFile.exists()) {
             final File binBackupFile = getCollectionFile(fsBackupDir, transaction, blob.getURI(), true);
             final Loggable loggable = new RenameBinaryLoggable(this, transaction, binFile, binBackupFile);
             if (!binFile.renameTo(binBackupFile)) {
@@ -2954,7 +3066,7 @@ public class NativeBroker extends DBBroker {
      * descendant nodes of the passed node, or all nodes below some level of
      * the document if node is null.
      */
-    private void reindexXMLResource(Txn transaction, DocumentImpl doc, int mode) {
+    void reindexXMLResource(Txn transaction, DocumentImpl doc, int mode) {
         if(doc.isCollectionConfig())
             {doc.getCollection().setCollectionConfigEnabled(false);}
         indexController.setDocument(doc, StreamListener.STORE);
@@ -2971,6 +3083,77 @@ public class NativeBroker extends DBBroker {
             {doc.getCollection().setCollectionConfigEnabled(true);}
     }
 
+    /**
+     * Reindex a document while queries keep using its existing index entries.
+     * The nodes are copied into a new document with a new id, which is indexed
+     * using the current configuration. The new document then replaces the old one
+     * in the collection and the old document and its index entries are removed.
+     *
+     * The copy is made while holding a read lock on the document. If the document
+     * has been modified before the lock on the collection could be acquired, the copy
+     * is discarded and made again while the collection is locked.
+     */
+    void shadowReindexXMLResource(Txn transaction, DocumentImpl doc)
+            throws PermissionDeniedException, LockException, EXistException {
+        if (doc.getResourceType() == DocumentImpl.BINARY_FILE)
+            {return;}
+        final Collection collection = doc.getCollection();
+        final long lastModified = doc.getMetadata().getLastModified();
+        DocumentImpl newDoc;
+        doc.getUpdateLock().acquire(Lock.READ_LOCK);
+        try {
+            newDoc = createShadowDocument(transaction, doc);
+        } finally {
+            doc.getUpdateLock().release(Lock.READ_LOCK);
+        }
+        collection.getLock().acquire(Lock.WRITE_LOCK);
+        try {
+            doc.getUpdateLock().acquire(Lock.WRITE_LOCK);
+            try {
+                if (collection.getDocumentNoLock(this, doc.getFileURI().getRawCollectionPath()) != doc) {
+                    // removed or replaced in the meantime
+                    discardShadowDocument(transaction, newDoc);
+                    return;
+                }
+                if (doc.getMetadata().getLastModified() != lastModified) {
+                    discardShadowDocument(transaction, newDoc);
+                    newDoc = createShadowDocument(transaction, doc);
+                }
+                collection.addDocument(transaction, this, newDoc);
+                removeXMLResource(transaction, doc, false);
+                freeResourceId(transaction, doc.getDocId());
+            } finally {
+                doc.getUpdateLock().release(Lock.WRITE_LOCK);
+            }
+        } finally {
+            collection.getLock().release(Lock.WRITE_LOCK);
+        }
+    }
+
+    private DocumentImpl createShadowDocument(Txn transaction, DocumentImpl doc) throws EXistException {
+        final Collection collection = doc.getCollection();
+        final DocumentImpl newDoc = new DocumentImpl(pool, collection, doc.getFileURI());
+        newDoc.copyOf(doc);
+        newDoc.getMetadata().setCreated(doc.getMetadata().getCreated());
+        newDoc.getMetadata().setLastModified(doc.getMetadata().getLastModified());
+        newDoc.setDocId(getNextResourceId(transaction, collection));
+        if (doc.isCollectionConfig())
+            {collection.setCollectionConfigEnabled(false);}
+        try {
+            copyXMLResource(transaction, doc, newDoc);
+            storeXMLResource(transaction, newDoc);
+        } finally {
+            if (doc.isCollectionConfig())
+                {collection.setCollectionConfigEnabled(true);}
+        }
+        return newDoc;
+    }
+
+    private void discardShadowDocument(Txn transaction, DocumentImpl newDoc) throws PermissionDeniedException {
+        removeXMLResource(transaction, newDoc, false);
+        freeResourceId(transaction, newDoc.getDocId());
+    }
+
     @Override
     public void defragXMLResource(final Txn transaction, final DocumentImpl doc) {
         //TODO : use dedicated function in XmldbURI
@@ -0,0 +1,287 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.storage;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.dom.DocumentImpl;
+import org.exist.security.Permission;
+import org.exist.security.PermissionDeniedException;
+import org.exist.security.Subject;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.xmldb.XmldbURI;
+
+/**
+ * Reindexes a collection and its descendants on several threads.
+ *
+ * The documents to reindex are collected first. The existing index entries of
+ * each collection are dropped while its documents are collected, see
+ * {@link #collect(Collection, List, boolean)}. The documents are split into batches, which
+ * are processed by a fixed number of threads, each using its own broker. Every batch
+ * is reindexed and committed in its own transaction, so the journal does not have to
+ * keep the entries for the whole collection. If a batch fails, its transaction is
+ * aborted and the remaining batches are skipped.
+ *
+ * Unless in shadow mode, the workers store the structural index entries in
+ * bulk-load mode (see {@link DBBroker#beginBulkLoad()}).
+ *
+ * In shadow mode, the existing index entries are not dropped. Every document is
+ * copied and indexed under a new id instead, and replaces the old document only
+ * when its new index entries are complete, see
+ * {@link NativeBroker#shadowReindexXMLResource(Txn, DocumentImpl)}. Queries
+ * running during the reindex thus always find all index entries of a document.
+ *
+ * The job is registered with the {@link ProcessMonitor}, which reports the
+ * number of documents processed so far. It is stopped after the current batches
+ * if the database shuts down.
+ */
+class ParallelReindex {
+
+    private final static Logger LOG = Logger.getLogger(ParallelReindex.class);
+
+    private final NativeBroker broker;
+
+    private final BrokerPool pool;
+
+    private final int threads;
+
+    private final int batchSize;
+
+    private final Queue<List<DocumentImpl>> batches = new ConcurrentLinkedQueue<List<DocumentImpl>>();
+
+    private final AtomicInteger processed = new AtomicInteger();
+
+    private final ProcessMonitor.Monitor monitor = new ProcessMonitor.Monitor();
+
+    private XmldbURI collectionURI;
+
+    private int total = 0;
+
+    private volatile Exception failure = null;
+
+    ParallelReindex(NativeBroker broker, int threads, int batchSize) {
+        this.broker = broker;
+        this.pool = broker.getBrokerPool();
+        this.threads = Math.max(1, Math.min(threads, pool.getMax() - 1));
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Reindex the collection and all its descendants.
+     *
+     * @param collection
+     * @param mode the mode passed to {@link NativeBroker#reindexXMLResource(Txn, DocumentImpl, int)}
+     * @param dropIndexes true if the existing index entries should be removed first
+     * @param shadow true to replace every document by a reindexed copy
+     */
+    void run(Collection collection, int mode, boolean dropIndexes, boolean shadow) {
+        collectionURI = collection.getURI();
+        final long start = System.currentTimeMillis();
+        LOG.info(String.format("Start indexing collection %s using %d threads", collectionURI, threads));
+        pool.getProcessMonitor().startJob(ProcessMonitor.ACTION_REINDEX_COLLECTION, this, monitor);
+        try {
+            final List<DocumentImpl> documents = new ArrayList<DocumentImpl>();
+            collect(collection, documents, dropIndexes);
+            total = documents.size();
+            for (int i = 0; i < documents.size(); i += batchSize) {
+                batches.add(new ArrayList<DocumentImpl>(documents.subList(i,
+                    Math.min(documents.size(), i + batchSize))));
+            }
+
+            final Worker[] workers = new Worker[Math.min(threads, batches.size())];
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = new Worker(i, broker.getSubject(), mode, shadow);
+                workers[i].start();
+            }
+            for (int i = 0; i < workers.length; i++) {
+                try {
+                    workers[i].join();
+                } catch (final InterruptedException e) {
+                    monitor.stop();
+                }
+            }
+            if (failure != null)
+                {LOG.warn("An error occurred during reindex: " + failure.getMessage(), failure);}
+            else if (!monitor.proceed())
+                {LOG.warn("Reindex of collection " + collectionURI + " stopped after " + processed.get() +
+                    " of " + total + " documents");}
+        } catch (final Exception e) {
+            LOG.warn("An error occurred during reindex: " + e.getMessage(), e);
+        } finally {
+            pool.getProcessMonitor().endJob();
+            LOG.info(String.format("Finished indexing collection %s in %s msec.",
+                collectionURI, System.currentTimeMillis() - start));
+        }
+    }
+
+    /**
+     * Collect the documents of the collection and its descendants. If dropIndexes is
+     * true, the index entries of every collection are dropped while the collection is
+     * still locked: a document stored concurrently is thus either collected and reindexed
+     * later, or added after the index entries of its collection have been dropped and
+     * indexed by the store itself.
+     *
+     * The collection cache must not be locked here: a store locks the collection
+     * before the cache.
+     */
+    private void collect(Collection collection, List<DocumentImpl> documents, boolean dropIndexes)
+            throws Exception {
+        if (!collection.getPermissionsNoLock().validate(broker.getSubject(), Permission.WRITE))
+            {throw new PermissionDeniedException("Account " + broker.getSubject().getName() +
+                " have insufficient privileges on collection " + collection.getURI());}
+        final Iterator<XmldbURI> children;
+        collection.getLock().acquire(Lock.WRITE_LOCK);
+        try {
+            for (final Iterator<DocumentImpl> i = collection.iteratorNoLock(broker); i.hasNext(); ) {
+                documents.add(i.next());
+            }
+            if (dropIndexes)
+                {dropCollectionIndex(collection);}
+            children = collection.collectionIteratorNoLock(broker);
+        } finally {
+            collection.getLock().release(Lock.WRITE_LOCK);
+        }
+        for (final Iterator<XmldbURI> i = children; i.hasNext(); ) {
+            final XmldbURI next = i.next();
+            final Collection child = broker.getCollection(collection.getURI().append(next));
+            if (child == null)
+                {LOG.warn("Collection '" + next + "' not found");}
+            else
+                {collect(child, documents, dropIndexes);}
+        }
+    }
+
+    private void dropCollectionIndex(Collection collection) throws Exception {
+        final TransactionManager transact = pool.getTransactionManager();
+        final Txn transaction = transact.beginTransaction();
+        try {
+            LOG.debug("Reindexing collection " + collection.getURI());
+            broker.dropCollectionIndex(transaction, collection);
+            transact.commit(transaction);
+        } catch (final Exception e) {
+            transact.abort(transaction);
+            throw e;
+        } finally {
+            transact.close(transaction);
+        }
+    }
+
+    private synchronized void failed(Exception e) {
+        if (failure == null)
+            {failure = e;}
+    }
+
+    /**
+     * Reports the progress of the job to the {@link ProcessMonitor}.
+     */
+    @Override
+    public String toString() {
+        return collectionURI + " (" + processed.get() + " of " + total + " documents)";
+    }
+
+    private class Worker extends Thread {
+
+        private final Subject subject;
+
+        private final int mode;
+
+        private final boolean shadow;
+
+        Worker(int id, Subject subject, int mode, boolean shadow) {
+            super("exist-reindex-" + id);
+            this.subject = subject;
+            this.mode = mode;
+            this.shadow = shadow;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            DBBroker workerBroker = null;
+            try {
+                workerBroker = pool.get(subject);
+                // shadow copies must be complete before they replace the old documents
+                if (!shadow)
+                    {workerBroker.beginBulkLoad();}
+                try {
+                    List<DocumentImpl> batch;
+                    while (failure == null && monitor.proceed() && (batch = batches.poll()) != null) {
+                        reindex((NativeBroker) workerBroker, batch);
+                    }
+                } finally {
+                    if (!shadow)
+                        {workerBroker.endBulkLoad();}
+                }
+            } catch (final EXistException e) {
+                failed(e);
+            } finally {
+                pool.release(workerBroker);
+            }
+        }
+
+        private void reindex(NativeBroker workerBroker, List<DocumentImpl> batch) {
+            final TransactionManager transact = pool.getTransactionManager();
+            final Txn transaction = transact.beginTransaction();
+            try {
+                for (final DocumentImpl doc : batch) {
+                    if (shadow) {
+                        workerBroker.shadowReindexXMLResource(transaction, doc);
+                        continue;
+                    }
+                    final Collection collection = doc.getCollection();
+                    final Lock lock = doc.getUpdateLock();
+                    collection.getLock().acquire(Lock.READ_LOCK);
+                    try {
+                        lock.acquire(Lock.WRITE_LOCK);
+                    } finally {
+                        collection.getLock().release(Lock.READ_LOCK);
+                    }
+                    try {
+                        // the document may have been removed since the batch was collected
+                        if (collection.getDocumentNoLock(workerBroker, doc.getFileURI().getRawCollectionPath()) != doc)
+                            {continue;}
+                        workerBroker.reindexXMLResource(transaction, doc, mode);
+                    } finally {
+                        lock.release(Lock.WRITE_LOCK);
+                    }
+                }
+                transact.commit(transaction);
+                processed.addAndGet(batch.size());
+            } catch (final Exception e) {
+                transact.abort(transaction);
+                failed(e);
+            } finally {
+                transact.close(transaction);
+            }
+        }
+    }
+}
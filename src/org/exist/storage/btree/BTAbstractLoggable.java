@@ -27,13 +27,14 @@ import java.nio.ByteBuffer;
 import org.exist.storage.DBBroker;
 import org.exist.storage.NativeBroker;
 import org.exist.storage.journal.AbstractLoggable;
+import org.exist.storage.journal.FileLoggable;
 import org.exist.storage.txn.Txn;
 
 /**
  * @author wolf
  *
  */
-public abstract class BTAbstractLoggable extends AbstractLoggable {
+public abstract class BTAbstractLoggable extends AbstractLoggable implements FileLoggable {
 
 	protected byte fileId;
     protected NativeBroker broker;
@@ -52,6 +53,10 @@ public abstract class BTAbstractLoggable extends AbstractLoggable {
 		this.broker = (NativeBroker) broker;
 	}
     
+    public byte getFileId() {
+        return fileId;
+    }
+
     protected BTree getStorage() {
         return broker.getStorage(fileId);
     }
@@ -121,6 +121,12 @@ public class BTree extends Paged {
 
     protected final static int MIN_SPACE_PER_KEY = 32;
 
+    /**
+     * The maximum length of the prefix a key on a leaf page may share with
+     * the previous key. The length is stored in a single unsigned byte.
+     */
+    protected final static int MAX_PREFIX_LEN = 0xFF;
+
     /** Log entry type for an insert value operation */
     public final static byte LOG_INSERT_VALUE = 0x20;
     /** Log entry type for creation of a new BTree node */
@@ -151,6 +157,12 @@ public class BTree extends Paged {
     /** Cache of BTreeNode(s) */
     protected Cache cache;
 
+    /** the number of stripes guarding nodes being loaded into a thread-safe cache */
+    private final static int LOAD_GUARDS = 16;
+
+    /** readers loading nodes whose page numbers map to the same stripe wait for each other */
+    private final Object[] loadGuards = createLoadGuards();
+
     protected double growthThreshold;
 
     /** Size of BTreeNode cache */
@@ -231,9 +243,8 @@ public class BTree extends Paged {
     }
 
     protected void initCache() {
-        cache = new BTreeCache(cacheManager.getDefaultInitialSize(), 1.5,
-            0, CacheManager.BTREE_CACHE);
-        cache.setFileName(getFile().getName());
+        cache = cacheManager.createCache(getFile().getName(), CacheManager.BTREE_CACHE,
+            cacheManager.getDefaultInitialSize(), 1.5, 0);
         cacheManager.registerCache(cache);
     }
 
@@ -446,21 +457,59 @@ public class BTree extends Paged {
      */
     private BTreeNode getBTreeNode(long pageNum) {
         try {
-            BTreeNode node = (BTreeNode) cache.get(pageNum);
-            if (node == null) {
-                final Page page = getPage(pageNum);
-                node = new BTreeNode(page, false);
-                node.read();
-            }
-            final int increment = node.pageHeader.getStatus() == BRANCH ? 2 : 1;
-            cache.add(node, increment);
-            return node;
+            return loadNode(pageNum, false);
         } catch (final IOException e) {
             LOG.error("Failed to get BTree node on page " + pageNum, e);
             return null;
         }
     }
 
+    /**
+     * Get a node from the cache or read it from the file. Readers holding a shared
+     * lock may load the same node at the same time. A thread-safe cache is only
+     * locked while a node is read, and only for pages guarded by the same stripe.
+     * Other caches are not safe for concurrent use and are locked as a whole.
+     * 
+     * @param pageNum
+     * @param root true if the node is the root node
+     * @return The BTree node
+     * @throws IOException
+     */
+    private BTreeNode loadNode(long pageNum, boolean root) throws IOException {
+        if (!(cache instanceof ConcurrentCache)) {
+            synchronized (cache) {
+                return readNode(pageNum, root);
+            }
+        }
+        final BTreeNode node = (BTreeNode) cache.get(pageNum);
+        if (node == null) {
+            synchronized (loadGuards[(int) (pageNum % LOAD_GUARDS)]) {
+                return readNode(pageNum, root);
+            }
+        }
+        cache.add(node, root || node.pageHeader.getStatus() == BRANCH ? 2 : 1);
+        return node;
+    }
+
+    private static Object[] createLoadGuards() {
+        final Object[] guards = new Object[LOAD_GUARDS];
+        for (int i = 0; i < LOAD_GUARDS; i++) {
+            guards[i] = new Object();
+        }
+        return guards;
+    }
+
+    private BTreeNode readNode(long pageNum, boolean root) throws IOException {
+        BTreeNode node = (BTreeNode) cache.get(pageNum);
+        if (node == null) {
+            final Page page = getPage(pageNum);
+            node = new BTreeNode(page, false);
+            node.read();
+        }
+        cache.add(node, root || node.pageHeader.getStatus() == BRANCH ? 2 : 1);
+        return node;
+    }
+
     /**
      * Set the root node of the tree.
      * 
@@ -491,14 +540,7 @@ public class BTree extends Paged {
      */
     protected BTreeNode getRootNode() {
         try {
-            BTreeNode node = (BTreeNode) cache.get(fileHeader.getRootPage());
-            if (node == null) {
-                final Page page = getPage(fileHeader.getRootPage());
-                node = new BTreeNode(page, false);
-                node.read();
-            }
-            cache.add(node, 2);
-            return node;
+            return loadNode(fileHeader.getRootPage(), true);
         } catch (final IOException e) {
             LOG.warn("Failed to get root btree node", e);
             return null;
@@ -943,9 +985,7 @@ public class BTree extends Paged {
                 if (pageHeader.getStatus() == LEAF && i > 0) {
                     // if this is a leaf page, we use prefix compression to store the keys,
                     // so subtract the size of the prefix
-                    int prefix = keys[i].commonPrefix(keys[i - 1]);
-                    if (prefix < 0 || prefix > Byte.MAX_VALUE)
-                        {prefix = 0;}
+                    final int prefix = calculatePrefixLen(i, i - 1);
                     currentDataLen += keys[i].getLength() - prefix;
                 } else
                     {currentDataLen += keys[i].getLength();}
@@ -990,12 +1030,15 @@ public class BTree extends Paged {
             }
         }
 
+        /**
+         * Returns the length of the prefix stored for the key at idx0 if it follows
+         * the key at idx1 on a leaf page.
+         */
         private int calculatePrefixLen(int idx0, int idx1) {
-            int prefix;
-            prefix = keys[idx0].commonPrefix(keys[idx1]);
-            if (prefix < 0 || prefix > Byte.MAX_VALUE)
-                {prefix = 0;}
-            return prefix;
+            final int prefix = keys[idx0].commonPrefix(keys[idx1]);
+            if (prefix < 0)
+                {return 0;}
+            return prefix > MAX_PREFIX_LEN ? MAX_PREFIX_LEN : prefix;
         }
 
         /**
@@ -1014,9 +1057,7 @@ public class BTree extends Paged {
                 if (pageHeader.getStatus() == LEAF && i > 0) {
                     // if this is a leaf page, we use prefix compression to store the keys,
                     // so subtract the size of the prefix
-                    int prefix = keys[i].commonPrefix(keys[i - 1]);
-                    if (prefix < 0 || prefix > Byte.MAX_VALUE)
-                        prefix = 0;
+                    final int prefix = calculatePrefixLen(i, i - 1);
                     currentLen += keys[i].getLength() - prefix;
                 } else
                     currentLen += keys[i].getLength();
@@ -1034,9 +1075,7 @@ public class BTree extends Paged {
                 if (pageHeader.getStatus() == LEAF && i > 0) {
                     // if this is a leaf page, we use prefix compression to store the keys,
                     // so subtract the size of the prefix
-                    int prefix = keys[i].commonPrefix(keys[i - 1]);
-                    if (prefix < 0 || prefix > Byte.MAX_VALUE)
-                        prefix = 0;
+                    final int prefix = calculatePrefixLen(i, i - 1);
                     totalLen += keys[i].getLength() - prefix;
                 } else {
                     totalLen += keys[i].getLength();
@@ -1074,32 +1113,14 @@ public class BTree extends Paged {
             }
             nKeys = pageHeader.getValueCount();
             keys = new Value[(nKeys * 3) / 2 + 1];
-            for (int i = 0; i < nKeys; i++) {
-                if (keyLen < 0) {
-                    valSize = ByteConversion.byteToShort(data, p);
-                    p += 2;
-                }
-                if (pageHeader.getStatus() == LEAF && i > 0) {
-                    // for leaf pages, we use prefix compression to increase the number of
-                    // keys that can be stored on one page. Each key is stored as follows:
-                    // [valSize, prefixLen, value], where prefixLen specifies the number of
-                    // leading bytes the key has in common with the previous key.
-                    final int prefixLen = (data[p++] & 0xFF);
-                    try {
-                        final byte[] t = new byte[valSize];
-                        if (prefixLen > 0)
-                            // copy prefixLen leading bytes from the previous key
-                            {System.arraycopy(keys[i - 1].data(), keys[i - 1].start(), t, 0, prefixLen);}
-                        // read the remaining bytes
-                        System.arraycopy(data, p, t, prefixLen, valSize - prefixLen);
-                        p += valSize - prefixLen;
-                        keys[i] = new Value(t);
-                    } catch (final Exception e) {
-                        e.printStackTrace();
-                        LOG.error("prefixLen = " + prefixLen + "; i = " + i + "; nKeys = " + nKeys);
-                        throw new IOException(e.getMessage());
+            if (pageHeader.getStatus() == LEAF) {
+                p = readLeafKeys(data, p, keyLen);
+            } else {
+                for (int i = 0; i < nKeys; i++) {
+                    if (keyLen < 0) {
+                        valSize = ByteConversion.byteToShort(data, p);
+                        p += 2;
                     }
-                } else {
                     keys[i] = new Value(data, p, valSize);
                     p += valSize;
                 }
@@ -1113,6 +1134,59 @@ public class BTree extends Paged {
             }
         }
 
+        /**
+         * Read the keys of a leaf page. For leaf pages, we use prefix compression to
+         * increase the number of keys that can be stored on one page. Each key is stored
+         * as follows: [valSize, prefixLen, value], where prefixLen specifies the number of
+         * leading bytes the key has in common with the previous key. The first key has no
+         * prefixLen.
+         *
+         * The keys are expanded into a single byte array, which is shared by the
+         * {@link Value} objects, instead of allocating an array for every key.
+         *
+         * @return the position following the keys
+         */
+        private int readLeafKeys(byte[] data, int start, short keyLen) throws IOException {
+            // compute the space needed for the expanded keys
+            int total = 0;
+            int p = start;
+            for (int i = 0; i < nKeys; i++) {
+                int valSize = keyLen;
+                if (keyLen < 0) {
+                    valSize = ByteConversion.byteToShort(data, p);
+                    p += 2;
+                }
+                final int prefixLen = i > 0 ? (data[p++] & 0xFF) : 0;
+                p += valSize - prefixLen;
+                total += valSize;
+            }
+            final byte[] expanded = new byte[total];
+            int offset = 0;
+            p = start;
+            for (int i = 0; i < nKeys; i++) {
+                int valSize = keyLen;
+                if (keyLen < 0) {
+                    valSize = ByteConversion.byteToShort(data, p);
+                    p += 2;
+                }
+                final int prefixLen = i > 0 ? (data[p++] & 0xFF) : 0;
+                try {
+                    if (prefixLen > 0)
+                        // copy prefixLen leading bytes from the previous key
+                        {System.arraycopy(keys[i - 1].data(), keys[i - 1].start(), expanded, offset, prefixLen);}
+                    // read the remaining bytes
+                    System.arraycopy(data, p, expanded, offset + prefixLen, valSize - prefixLen);
+                } catch (final RuntimeException e) {
+                    LOG.error("prefixLen = " + prefixLen + "; i = " + i + "; nKeys = " + nKeys, e);
+                    throw new IOException(e.getMessage());
+                }
+                p += valSize - prefixLen;
+                keys[i] = new Value(expanded, offset, valSize);
+                offset += valSize;
+            }
+            return p;
+        }
+
         /**
          * Write the node to the underlying page.
          * 
@@ -1121,7 +1195,6 @@ public class BTree extends Paged {
         private void write() throws IOException {
             final byte[] temp = new byte[fileHeader.getWorkSize()];
             int p = 0;
-            byte[] data;
             if (nKeys != pageHeader.getValueCount())
                 {throw new RuntimeException("nkeys: " + nKeys + " valueCount: " + pageHeader.getValueCount());}
             // if this is a branch node, write out the common prefix
@@ -1144,9 +1217,7 @@ public class BTree extends Paged {
                     // keys that can be stored on one page. Each key is stored as follows:
                     // [valSize, prefixLen, value], where prefixLen specifies the number of
                     // leading bytes the key has in common with the previous key.
-                    int prefixLen = keys[i].commonPrefix(keys[i - 1]); // determine the common prefix
-                    if (prefixLen < 0 || prefixLen > Byte.MAX_VALUE)
-                        {prefixLen = 0;}
+                    final int prefixLen = calculatePrefixLen(i, i - 1); // determine the common prefix
                     // store the length of the prefix
                     temp[p++] = (byte) prefixLen;
                     // copy the remaining bytes, starting at prefixLen
@@ -1154,12 +1225,12 @@ public class BTree extends Paged {
                             temp, p, keys[i].getLength() - prefixLen);
                     p += keys[i].getLength() - prefixLen;
                 } else {
-                    data = keys[i].getData();
-                    if(p + data.length > temp.length)
+                    final int len = keys[i].getLength();
+                    if(p + len > temp.length)
                         {throw new IOException("calculated: " + getDataLen() +
-                            "; required: " + (p + data.length));}
-                    System.arraycopy(data, 0, temp, p, data.length);
-                    p += data.length;
+                            "; required: " + (p + len));}
+                    System.arraycopy(keys[i].data(), keys[i].start(), temp, p, len);
+                    p += len;
                 }
             }
             for (int i = 0; i < nPtrs; i++) {
@@ -2303,15 +2374,18 @@ public class BTree extends Paged {
                     {return -1;}
                 if (pfxCmp > 0)
                     {return -(nKeys + 1);}
-                key = new Value(key.data(), key.start() + prefix.getLength(), 
-                    key.getLength() - prefix.getLength());
             }
+            // compare the keys to the remainder of the key, without copying it
+            final int skip = pageHeader.getStatus() == BRANCH && prefix != null ? prefix.getLength() : 0;
+            final byte[] keyData = key.data();
+            final int keyStart = key.start() + skip;
+            final int keyLen = key.getLength() - skip;
             int low = 0;
             int high = nKeys - 1;
             while (low <= high) {
                 final int mid = (low + high) >> 1;
                 final Value  midVal = keys[mid];
-                final int cmp = midVal.compareTo(key);
+                final int cmp = midVal.compareTo(keyData, keyStart, keyLen);
                 if (cmp < 0)
                     {low = mid + 1;}
                 else if (cmp > 0)
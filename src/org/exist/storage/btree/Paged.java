@@ -74,6 +74,10 @@ package org.exist.storage.btree;
 
 import org.apache.log4j.Logger;
 import org.exist.storage.BrokerPool;
+import org.exist.storage.DefaultCacheManager;
+import org.exist.storage.cache.OffHeapPageStore;
+import org.exist.storage.io.MappedPageIO;
+import org.exist.storage.io.PageIO;
 import org.exist.storage.journal.Lsn;
 import org.exist.util.ByteConversion;
 import org.exist.xquery.Constants;
@@ -81,15 +85,18 @@ import org.exist.xquery.Constants;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.RandomAccessFile;
-import java.nio.channels.FileChannel;
-import java.nio.channels.FileLock;
 import java.nio.channels.NonWritableChannelException;
-import java.util.Arrays;
 
 /**
  *  Paged is a paged file foundation that is used by the BTree class and
  *  its subclasses.
+ *
+ *  All page reads and writes go through a {@link PageIO}, which uses positional
+ *  I/O on a FileChannel. Page and header buffers are allocated per call, so
+ *  independent pages can be read concurrently by several threads.
+ *
+ *  Files listed in the mmapFiles attribute of db-connection in conf.xml are
+ *  read through a {@link MappedPageIO} instead.
  */
 
 public abstract class Paged {
@@ -125,19 +132,28 @@ public abstract class Paged {
 
     protected static int PAGE_SIZE = 4096;
 
-    private RandomAccessFile raf;
+    public static final String MMAP_FILES_ATTRIBUTE = "mmapFiles";
+    public static final String PROPERTY_MMAP_FILES = "db-connection.mmap-files";
+
+    private PageIO io;
     private File file;
     private FileHeader fileHeader;
     private boolean readOnly = false;
     private boolean fileIsNew = false;
 
-    private byte[] tempPageData = null;
-    private byte[] tempHeaderData = null;
-	
+    private final String mmapFiles;
+
+    /** second level cache for page images, may be null */
+    private final OffHeapPageStore offHeapStore;
+
+    /** the id of this file in offHeapStore, 0 if the store is not used */
+    private int offHeapFileId = 0;
+
     public Paged(BrokerPool pool) {
         fileHeader = createFileHeader(pool.getPageSize());
-        tempPageData = new byte[fileHeader.pageSize];
-        tempHeaderData = new byte[fileHeader.pageHeaderSize];
+        mmapFiles = (String) pool.getConfiguration().getProperty(PROPERTY_MMAP_FILES);
+        final DefaultCacheManager cacheManager = pool.getCacheManager();
+        offHeapStore = cacheManager == null ? null : cacheManager.getOffHeapStore();
     }
 
     public abstract short getFileVersion();
@@ -161,8 +177,9 @@ public abstract class Paged {
      * @throws DBException
      */
     public boolean close() throws DBException {
+        offHeapFileId = 0;
         try {
-            raf.close();
+            io.close();
         } catch (final IOException e) {
             throw new DBException("an error occurred while closing database file: " + e.getMessage());
         }
@@ -225,12 +242,7 @@ public abstract class Paged {
      * @throws IOException
      */
     public void backupToStream(OutputStream os) throws IOException {
-        raf.seek(0);
-        final byte[] buf = new byte[4096];
-        int len;
-        while ((len = raf.read(buf)) > 0) {
-            os.write(buf, 0, len);
-        }
+        io.copyTo(os);
     }
 
     /**
@@ -257,8 +269,9 @@ public abstract class Paged {
      *
      */
     public void closeAndRemove() {
+        offHeapFileId = 0;
         try {
-            raf.close();
+            io.close();
         } catch (final IOException e) {
             //TODO : forward the exception ? -pb
             LOG.error("Failed to close data file: " + file.getAbsolutePath());
@@ -385,28 +398,49 @@ public abstract class Paged {
         try {
             if ((!file.exists()) || file.canWrite()) {
                 try {
-                    raf = new RandomAccessFile(file, "rw");
-                    final FileChannel channel = raf.getChannel();   
-                    final FileLock lock = channel.tryLock();
-                    if (lock == null)
+                    io = openPageIO(file, false);
+                    // the lock is released when io is closed
+                    if (!io.tryLock())
                         {readOnly = true;}
-                //TODO : who will release the lock ? -pb
                 } catch (final NonWritableChannelException e) {
                     //No way : switch to read-only mode
                     readOnly = true;
-                    raf = new RandomAccessFile(file, "r");
+                    if (io != null)
+                        {io.close();}
+                    io = openPageIO(file, true);
                     LOG.warn(e);
                 }
             } else {
                 readOnly = true;
-                raf = new RandomAccessFile(file, "r");
+                io = openPageIO(file, true);
             }
+            // memory mapped files are cached by the operating system
+            if (offHeapStore != null && !(io instanceof MappedPageIO))
+                {offHeapFileId = offHeapStore.registerFile();}
         } catch (final IOException e) {
             LOG.warn("An exception occured while opening database file " +
                 file.getAbsolutePath() + ": " + e.getMessage(), e);
         }
     }
 
+    private PageIO openPageIO(File file, boolean readOnly) throws IOException {
+        if (isMemoryMapped(file)) {
+            LOG.info("Using memory mapped reads for " + file.getName());
+            return new MappedPageIO(file, readOnly);
+        }
+        return new PageIO(file, readOnly);
+    }
+
+    private boolean isMemoryMapped(File file) {
+        if (mmapFiles == null)
+            {return false;}
+        for (final String name : mmapFiles.split("[,\\s]+")) {
+            if (name.equals(file.getName()))
+                {return true;}
+        }
+        return false;
+    }
+
     /**
      *  Unlinks a set of pages starting at the specified page.
      *
@@ -683,8 +717,7 @@ public abstract class Paged {
         }
 
         public final synchronized void read() throws IOException {
-            raf.seek(0);
-            raf.read(buf);
+            io.read(0, buf, 0, buf.length);
             read(buf);
             calculateWorkSize();
             dirty = false;
@@ -820,9 +853,8 @@ public abstract class Paged {
         }
 
         public final synchronized void write() throws IOException {
-            raf.seek(0);
             write(buf);
-            raf.write(buf);
+            io.write(0, buf, 0, buf.length);
             dirty = false;
         }
 
@@ -916,17 +948,38 @@ public abstract class Paged {
         }
 
         public byte[] read() throws IOException {
+            if (offHeapFileId != 0)
+                {return readCached();}
             try {
-                if (raf.getFilePointer() != offset) {
-                    raf.seek(offset);
-                }
-                Arrays.fill(tempHeaderData, (byte)0);
-                raf.read(tempHeaderData);
+                final byte[] headerData = new byte[fileHeader.pageHeaderSize];
+                io.read(offset, headerData, 0, headerData.length);
                 // Read in the header
-                header.read(tempHeaderData, 0);
+                header.read(headerData, 0);
                 // Read the working data
                 final byte[] workData = new byte[header.dataLen];
-                raf.read(workData);
+                io.read(offset + headerData.length, workData, 0, workData.length);
+                return workData;
+            } catch(final Exception e) {
+                LOG.warn("error while reading page: " + getPageInfo(), e);
+                throw new IOException(e.getMessage());
+            }
+        }
+
+        /**
+         * Read the page from the off-heap store if possible. Otherwise read the
+         * whole page from the file and add it to the store.
+         */
+        private byte[] readCached() throws IOException {
+            try {
+                final byte[] pageData = new byte[fileHeader.pageSize];
+                if (!offHeapStore.read(offHeapFileId, pageNum, pageData)) {
+                    // do not cache pages beyond the end of the file
+                    if (io.read(offset, pageData, 0, pageData.length) == pageData.length)
+                        {offHeapStore.write(offHeapFileId, pageNum, pageData);}
+                }
+                header.read(pageData, 0);
+                final byte[] workData = new byte[header.dataLen];
+                System.arraycopy(pageData, fileHeader.pageHeaderSize, workData, 0, workData.length);
                 return workData;
             } catch(final Exception e) {
                 LOG.warn("error while reading page: " + getPageInfo(), e);
@@ -944,25 +997,25 @@ public abstract class Paged {
         }
 
         private final void write(byte[] data) throws IOException {
+            final byte[] pageData = new byte[fileHeader.pageSize];
             if(data == null) {
-                // Removed page: fill with 0
-                Arrays.fill(tempPageData, (byte)0);
+                // Removed page
                 header.setLsn(Lsn.LSN_INVALID);
             }
             // Write out the header
-            header.write(tempPageData, 0);
+            header.write(pageData, 0);
             header.dirty = false;
             if (data != null) {
                 if (data.length > fileHeader.workSize)
                     {throw new IOException("page: " + getPageInfo() +
                     ": data length too large: " + data.length);}
                 else {
-                    System.arraycopy(data, 0, tempPageData, fileHeader.pageHeaderSize, data.length);
+                    System.arraycopy(data, 0, pageData, fileHeader.pageHeaderSize, data.length);
                 }
             }
-            if (raf.getFilePointer() != offset)
-                {raf.seek(offset);}
-            raf.write(tempPageData);
+            io.write(offset, pageData, 0, pageData.length);
+            if (offHeapFileId != 0)
+                {offHeapStore.write(offHeapFileId, pageNum, pageData);}
         }
 
         /* (non-Javadoc)
@@ -985,10 +1038,8 @@ public abstract class Paged {
         }
 
         public void dumpPage() throws IOException {
-            if (raf.getFilePointer() != offset)
-                {raf.seek(offset);}
             final byte[] data = new byte[fileHeader.pageSize];
-            raf.read(data);
+            io.read(offset, data, 0, data.length);
             LOG.debug("Contents of page " + pageNum + ": " + hexDump(data));
         }
     }
@@ -163,20 +163,33 @@ public class Value implements Comparable<Object> {
     }
 
     public final int compareTo(Value value) {
-        final int stop = len > value.len ? value.len : len;
+        return compareTo(value.data, value.pos, value.len);
+    }
+
+    /**
+     * Compare this value to a range of bytes in the given array.
+     *
+     * @param otherData the array
+     * @param otherPos the start of the range
+     * @param otherLen the length of the range
+     * @return 0 if equal, a negative or positive value if this value sorts before
+     * or after the range. Its absolute value minus one gives the length of the common prefix.
+     */
+    public final int compareTo(byte[] otherData, int otherPos, int otherLen) {
+        final int stop = len > otherLen ? otherLen : len;
         for (int i = 0; i < stop; i++) {
             final byte b1 = data[pos + i];
-            final byte b2 = value.data[value.pos + i];
+            final byte b2 = otherData[otherPos + i];
             if (b1 != b2){
                 final short s1 = (short) (b1 & 0xFF);
                 final short s2 = (short) (b2 & 0xFF);
                 return s1 > s2 ? (i + 1) : - (i + 1);
             }
         }
-        if (len == value.len)
+        if (len == otherLen)
             {return 0;}
         else
-            {return len > value.len ? stop + 1 : - (stop + 1);}
+            {return len > otherLen ? stop + 1 : - (stop + 1);}
     }
 
     public final int compareTo(Object obj) {
@@ -0,0 +1,359 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.storage.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.exist.storage.CacheManager;
+
+/**
+ * A thread-safe cache which can be used by several threads at the same time.
+ *
+ * Lookups do not lock: the pages are kept in a {@link ConcurrentHashMap}, and a hit
+ * only sets the reference bit of the page. Adding and removing pages locks one of
+ * several stripes, selected by the page number, so threads working on different
+ * pages rarely wait for each other.
+ *
+ * Each stripe manages a fixed share of the buffers in a ring, which is swept by a
+ * clock hand to select the page to replace: a page whose reference bit is set gets a
+ * second chance. Inner btree pages are only replaced if the hand did not find another
+ * page during a full turn, as in {@link BTreeCache}.
+ */
+public class ConcurrentCache implements Cache {
+
+    /** the number of stripes */
+    public final static int STRIPES = 16;
+
+    private final ConcurrentHashMap<Long, Slot> map;
+
+    private volatile Stripe[] stripes;
+
+    private volatile int max;
+
+    private final AtomicInteger hits = new AtomicInteger();
+
+    private final AtomicInteger fails = new AtomicInteger();
+
+    /** only used to track thrashing; access is synchronized on the object */
+    private final Accounting accounting;
+
+    private int hitsOld = -1;
+
+    private final double growthFactor;
+
+    private final String type;
+
+    private String fileName;
+
+    private CacheManager cacheManager = null;
+
+    public ConcurrentCache(int size, double growthFactor, double growthThreshold, String type) {
+        this.max = size;
+        this.growthFactor = growthFactor;
+        this.type = type;
+        map = new ConcurrentHashMap<Long, Slot>(size * 2, 0.75f, STRIPES);
+        stripes = createStripes(size);
+        accounting = new Accounting(growthThreshold);
+        accounting.setTotalSize(size);
+    }
+
+    private Stripe[] createStripes(int size) {
+        final int capacity = Math.max(1, (size + STRIPES - 1) / STRIPES);
+        final Stripe[] newStripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            newStripes[i] = new Stripe(capacity);
+        }
+        return newStripes;
+    }
+
+    private static int stripeIndex(long key) {
+        final int h = (int) (key ^ (key >>> 32));
+        return (h & 0x7fffffff) % STRIPES;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void add(Cacheable item, int initialRefCount) {
+        add(item);
+    }
+
+    public void add(Cacheable item) {
+        final long key = item.getKey();
+        final Long mapKey = Long.valueOf(key);
+        boolean replaced = false;
+        final Stripe stripe = stripes[stripeIndex(key)];
+        synchronized (stripe) {
+            if (stripe != stripes[stripeIndex(key)]) {
+                // the cache has been resized in the meantime
+                add(item);
+                return;
+            }
+            final Slot slot = map.get(mapKey);
+            if (slot != null) {
+                slot.item = item;
+                slot.referenced = true;
+                return;
+            }
+            int index = stripe.findFree();
+            if (index < 0) {
+                index = stripe.evict(item);
+                replaced = true;
+            }
+            final Slot newSlot = new Slot(item, index);
+            stripe.ring[index] = newSlot;
+            stripe.count++;
+            map.put(mapKey, newSlot);
+        }
+        if (replaced) {
+            final boolean resize;
+            synchronized (accounting) {
+                accounting.replacedPage(item);
+                resize = growthFactor > 1.0 && accounting.resizeNeeded();
+            }
+            if (resize && cacheManager != null)
+                {cacheManager.requestMem(this);}
+        }
+    }
+
+    public Cacheable get(Cacheable item) {
+        return get(item.getKey());
+    }
+
+    public Cacheable get(long key) {
+        final Slot slot = map.get(Long.valueOf(key));
+        if (slot == null) {
+            fails.incrementAndGet();
+            return null;
+        }
+        slot.referenced = true;
+        hits.incrementAndGet();
+        return slot.item;
+    }
+
+    public void remove(Cacheable item) {
+        final long key = item.getKey();
+        final Stripe stripe = stripes[stripeIndex(key)];
+        synchronized (stripe) {
+            if (stripe != stripes[stripeIndex(key)]) {
+                remove(item);
+                return;
+            }
+            final Slot slot = map.remove(Long.valueOf(key));
+            if (slot != null) {
+                stripe.ring[slot.index] = null;
+                stripe.count--;
+            }
+        }
+    }
+
+    public boolean hasDirtyItems() {
+        for (final Slot slot : map.values()) {
+            if (slot.item.isDirty())
+                {return true;}
+        }
+        return false;
+    }
+
+    public boolean flush() {
+        boolean flushed = false;
+        for (final Slot slot : map.values()) {
+            final Cacheable cacheable = slot.item;
+            if (cacheable.isDirty())
+                {flushed = flushed | cacheable.sync(false);}
+        }
+        return flushed;
+    }
+
+    public int getBuffers() {
+        return max;
+    }
+
+    public int getUsedBuffers() {
+        return map.size();
+    }
+
+    public double getGrowthFactor() {
+        return growthFactor;
+    }
+
+    /**
+     * Resize the cache. All stripes are locked while the buffers are redistributed.
+     * As in {@link LRUCache}, shrinking the cache writes and drops all pages.
+     */
+    public void resize(int newSize) {
+        final Stripe[] oldStripes = stripes;
+        lockAndResize(oldStripes, 0, newSize);
+    }
+
+    private void lockAndResize(Stripe[] oldStripes, int i, int newSize) {
+        if (i < oldStripes.length) {
+            synchronized (oldStripes[i]) {
+                lockAndResize(oldStripes, i + 1, newSize);
+            }
+            return;
+        }
+        final Stripe[] newStripes = createStripes(newSize);
+        if (newSize < max) {
+            flush();
+            map.clear();
+        } else {
+            for (final Slot slot : map.values()) {
+                final Stripe stripe = newStripes[stripeIndex(slot.item.getKey())];
+                int index = stripe.findFree();
+                if (index < 0)
+                    {index = stripe.grow();}
+                slot.index = index;
+                stripe.ring[index] = slot;
+                stripe.count++;
+            }
+        }
+        max = newSize;
+        stripes = newStripes;
+        synchronized (accounting) {
+            accounting.reset();
+            accounting.setTotalSize(newSize);
+        }
+    }
+
+    public void setCacheManager(CacheManager manager) {
+        this.cacheManager = manager;
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getFails() {
+        return fails.get();
+    }
+
+    public synchronized int getLoad() {
+        final int current = hits.get();
+        if (hitsOld == 0) {
+            hitsOld = current;
+            return Integer.MAX_VALUE;
+        }
+        final int load = current - hitsOld;
+        hitsOld = current;
+        return load;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * A page in the cache, together with its reference bit and
+     * its position in the ring of its stripe.
+     */
+    private final static class Slot {
+
+        volatile Cacheable item;
+        volatile boolean referenced = false;
+        int index;
+
+        Slot(Cacheable item, int index) {
+            this.item = item;
+            this.index = index;
+        }
+    }
+
+    private final class Stripe {
+
+        Slot[] ring;
+        int count = 0;
+        int hand = 0;
+        /** where to start looking for an unused position */
+        int nextFree = 0;
+
+        Stripe(int capacity) {
+            ring = new Slot[capacity];
+        }
+
+        /**
+         * Returns the index of an unused position in the ring, or -1 if the
+         * stripe is full.
+         */
+        int findFree() {
+            if (count < ring.length) {
+                for (int i = 0; i < ring.length; i++) {
+                    final int index = (nextFree + i) % ring.length;
+                    if (ring[index] == null) {
+                        nextFree = (index + 1) % ring.length;
+                        return index;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Add a position to the ring and return its index.
+         */
+        int grow() {
+            final Slot[] newRing = new Slot[ring.length + 1];
+            System.arraycopy(ring, 0, newRing, 0, ring.length);
+            ring = newRing;
+            return ring.length - 1;
+        }
+
+        /**
+         * Sweep the clock hand to find a page to replace. The page is written
+         * and removed from the cache. If no page can be unloaded, the ring
+         * grows by one position.
+         */
+        int evict(Cacheable item) {
+            final int steps = ring.length * 3;
+            for (int i = 0; i < steps; i++) {
+                final int index = hand;
+                hand = (hand + 1) % ring.length;
+                final Slot slot = ring[index];
+                if (slot == null)
+                    {return index;}
+                if (slot.referenced) {
+                    slot.referenced = false;
+                    continue;
+                }
+                final Cacheable cached = slot.item;
+                if (!cached.allowUnload() || cached.getKey() == item.getKey())
+                    {continue;}
+                if (i < ring.length && cached instanceof BTreeCacheable &&
+                        ((BTreeCacheable) cached).isInnerPage())
+                    {continue;}
+                cached.sync(true);
+                map.remove(Long.valueOf(cached.getKey()));
+                ring[index] = null;
+                count--;
+                return index;
+            }
+            LOG.debug("Unable to remove entry");
+            return grow();
+        }
+    }
+}
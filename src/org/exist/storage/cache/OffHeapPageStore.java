@@ -0,0 +1,259 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.storage.cache;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A second level cache holding the raw images of database pages in memory
+ * outside the Java heap. It is shared by all paged files.
+ *
+ * The page caches ({@link Cache}) hold the deserialized pages on the heap. When
+ * they drop a page, the image kept here can still be read without going to
+ * the file. Pages are written through: every page written to a file is also
+ * copied into the store, so it never contains stale pages.
+ *
+ * The memory is split into frames of one page. Frames are allocated lazily in
+ * slabs of direct buffers. Pages are assigned to one of {@link #STRIPES} stripes
+ * by file and page number; each stripe owns an equal share of the frames, has its
+ * own lock and replaces pages with a clock sweep. Since all files compete for the
+ * same frames, the memory goes to the files whose pages are read most often.
+ */
+public class OffHeapPageStore {
+
+    private final static Logger LOG = Logger.getLogger(OffHeapPageStore.class);
+
+    public final static int STRIPES = 64;
+
+    /** the size of a direct buffer allocated at once */
+    public final static int SLAB_SIZE = 4 * 1024 * 1024;
+
+    private final int pageSize;
+
+    private final int framesPerSlab;
+
+    private final Stripe[] stripes;
+
+    private final AtomicInteger nextFileId = new AtomicInteger(0);
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param size the memory to use, in bytes
+     * @param pageSize the page size of the database files
+     */
+    public OffHeapPageStore(long size, int pageSize) {
+        this.pageSize = pageSize;
+        this.framesPerSlab = Math.max(1, SLAB_SIZE / pageSize);
+        final int framesPerStripe = (int) Math.max(1, Math.min(Integer.MAX_VALUE, size / pageSize / STRIPES));
+        stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(framesPerStripe);
+        }
+    }
+
+    /**
+     * Returns a new id identifying a file in the store. Ids are never reused,
+     * so pages of a file which has been closed or deleted are never returned
+     * for another file and simply age out of the store.
+     *
+     * @return new file id
+     */
+    public int registerFile() {
+        return nextFileId.incrementAndGet();
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Copy the image of the given page into buf.
+     *
+     * @param fileId the id returned by {@link #registerFile()}
+     * @param pageNum the page number
+     * @param buf buffer of at least {@link #getPageSize()} bytes
+     * @return false if the page is not in the store
+     */
+    public boolean read(int fileId, long pageNum, byte[] buf) {
+        final long key = key(fileId, pageNum);
+        final Stripe stripe = stripes[stripeIndex(key)];
+        final boolean found;
+        synchronized (stripe) {
+            found = stripe.read(key, buf);
+        }
+        if (found)
+            {hits.incrementAndGet();}
+        else
+            {misses.incrementAndGet();}
+        return found;
+    }
+
+    /**
+     * Store the image of the given page, replacing an older image of the page.
+     *
+     * @param fileId the id returned by {@link #registerFile()}
+     * @param pageNum the page number
+     * @param buf buffer of at least {@link #getPageSize()} bytes
+     */
+    public void write(int fileId, long pageNum, byte[] buf) {
+        final long key = key(fileId, pageNum);
+        final Stripe stripe = stripes[stripeIndex(key)];
+        synchronized (stripe) {
+            stripe.write(key, buf);
+        }
+    }
+
+    /**
+     * Returns the amount of memory the store may use, in bytes.
+     */
+    public long getSize() {
+        return (long) stripes.length * stripes[0].keys.length * pageSize;
+    }
+
+    /**
+     * Returns the number of pages currently held by the store.
+     */
+    public int getUsedPages() {
+        int used = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            synchronized (stripes[i]) {
+                used += stripes[i].frames.size();
+            }
+        }
+        return used;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private static long key(int fileId, long pageNum) {
+        return ((long) fileId << 40) | (pageNum & 0xFFFFFFFFFFL);
+    }
+
+    private static int stripeIndex(long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) ((h >>> 32) & 0x7fffffff) % STRIPES;
+    }
+
+    private final class Stripe {
+
+        /** maps page keys to frames */
+        final Map<Long, Integer> frames = new HashMap<Long, Integer>();
+
+        /** the key of the page held by each frame, or -1 */
+        final long[] keys;
+
+        final boolean[] referenced;
+
+        ByteBuffer[] slabs;
+
+        int hand = 0;
+
+        /** the number of frames used so far; frames are handed out in order */
+        int allocated = 0;
+
+        Stripe(int size) {
+            keys = new long[size];
+            referenced = new boolean[size];
+            slabs = new ByteBuffer[(size + framesPerSlab - 1) / framesPerSlab];
+        }
+
+        boolean read(long key, byte[] buf) {
+            final Integer frame = frames.get(Long.valueOf(key));
+            if (frame == null)
+                {return false;}
+            final int f = frame.intValue();
+            referenced[f] = true;
+            final ByteBuffer slab = slabs[f / framesPerSlab];
+            slab.position((f % framesPerSlab) * pageSize);
+            slab.get(buf, 0, pageSize);
+            return true;
+        }
+
+        void write(long key, byte[] buf) {
+            final Long mapKey = Long.valueOf(key);
+            final Integer frame = frames.get(mapKey);
+            final int f;
+            if (frame != null) {
+                f = frame.intValue();
+            } else {
+                f = nextFrame();
+                if (f < 0)
+                    {return;}
+                keys[f] = key;
+                frames.put(mapKey, Integer.valueOf(f));
+            }
+            final ByteBuffer slab = slabs[f / framesPerSlab];
+            slab.position((f % framesPerSlab) * pageSize);
+            slab.put(buf, 0, pageSize);
+        }
+
+        /**
+         * Returns a free frame, allocating a new slab or evicting
+         * a page if necessary. Returns -1 if no memory can be allocated.
+         */
+        private int nextFrame() {
+            if (allocated < keys.length) {
+                final int f = allocated;
+                final int slab = f / framesPerSlab;
+                if (slabs[slab] == null) {
+                    final int frameCount = Math.min(framesPerSlab, keys.length - slab * framesPerSlab);
+                    try {
+                        slabs[slab] = ByteBuffer.allocateDirect(frameCount * pageSize);
+                    } catch (final OutOfMemoryError e) {
+                        LOG.warn("Failed to allocate off-heap page cache memory: " + e.getMessage() +
+                            ". Check -XX:MaxDirectMemorySize.");
+                        return -1;
+                    }
+                }
+                allocated++;
+                return f;
+            }
+            if (allocated == 0)
+                {return -1;}
+            while (true) {
+                final int f = hand;
+                hand = (hand + 1) % allocated;
+                if (referenced[f]) {
+                    referenced[f] = false;
+                } else {
+                    frames.remove(Long.valueOf(keys[f]));
+                    return f;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.storage.cache;
+
+import org.exist.util.hashtable.SequencedLongHashMap;
+
+/**
+ * A scan resistant cache implementing the 2Q replacement policy.
+ *
+ * Pages added for the first time enter a small FIFO queue. Repeated accesses
+ * while the page is in this queue do not change its position. When a page is
+ * evicted from the FIFO queue, its key is remembered in a queue of "ghost" entries.
+ * Only a page which is added again while its key is still remembered is
+ * considered hot and moves into the main queue, which is managed in LRU order.
+ *
+ * A page read only once, e.g. by a sequential scan over all pages of a file,
+ * thus never replaces a page in the main queue. As in {@link BTreeCache}, inner
+ * btree pages are the last pages to be removed from the main queue.
+ */
+public class TwoQueueCache extends LRUCache {
+
+    /** the fraction of the buffers used for pages accessed once */
+    public final static double IN_QUEUE_FACTOR = 0.25;
+
+    /** the number of keys of evicted pages to remember, as a fraction of the buffers */
+    public final static double OUT_QUEUE_FACTOR = 0.5;
+
+    /** pages accessed once, in FIFO order. The hot pages are kept in {@link #map}. */
+    protected SequencedLongHashMap<Cacheable> in;
+
+    /** keys of the pages recently evicted from the FIFO queue */
+    protected SequencedLongHashMap<Boolean> out;
+
+    public TwoQueueCache(int size, double growthFactor, double growthThreshold, String type) {
+        super(size, growthFactor, growthThreshold, type);
+        in = new SequencedLongHashMap<Cacheable>(size * 2);
+        out = new SequencedLongHashMap<Boolean>(size * 2);
+    }
+
+    public void add(Cacheable item) {
+        final long key = item.getKey();
+        if (map.get(key) != null) {
+            map.put(key, item);
+            return;
+        }
+        final Cacheable cached = in.get(key);
+        if (cached != null) {
+            if (cached != item)
+                {in.put(key, item);}
+            return;
+        }
+        final boolean hot = out.remove(key) != null;
+        if (map.size() + in.size() >= max)
+            {removeOne(item);}
+        if (hot)
+            {map.put(key, item);}
+        else
+            {in.put(key, item);}
+    }
+
+    public Cacheable get(long key) {
+        Cacheable obj = map.get(key);
+        if (obj == null)
+            {obj = in.get(key);}
+        if (obj == null)
+            {accounting.missesIncrement();}
+        else
+            {accounting.hitIncrement();}
+        return obj;
+    }
+
+    public void remove(Cacheable item) {
+        if (map.remove(item.getKey()) == null)
+            {in.remove(item.getKey());}
+    }
+
+    public boolean flush() {
+        boolean flushed = flush(in);
+        flushed = flushed | flush(map);
+        return flushed;
+    }
+
+    private boolean flush(SequencedLongHashMap<Cacheable> queue) {
+        boolean flushed = false;
+        SequencedLongHashMap.Entry<Cacheable> next = queue.getFirstEntry();
+        while (next != null) {
+            final Cacheable cacheable = next.getValue();
+            if (cacheable.isDirty()) {
+                flushed = flushed | cacheable.sync(false);
+            }
+            next = next.getNext();
+        }
+        return flushed;
+    }
+
+    public boolean hasDirtyItems() {
+        return hasDirtyItems(in) || hasDirtyItems(map);
+    }
+
+    private boolean hasDirtyItems(SequencedLongHashMap<Cacheable> queue) {
+        SequencedLongHashMap.Entry<Cacheable> next = queue.getFirstEntry();
+        while (next != null) {
+            if (next.getValue().isDirty())
+                {return true;}
+            next = next.getNext();
+        }
+        return false;
+    }
+
+    public int getUsedBuffers() {
+        return map.size() + in.size();
+    }
+
+    /**
+     * Returns the number of pages in the main queue, i.e. the pages which
+     * have been accessed again after they were evicted once.
+     *
+     * @return number of hot pages
+     */
+    public int getHotBuffers() {
+        return map.size();
+    }
+
+    protected void removeOne(Cacheable item) {
+        boolean removed;
+        if (in.size() > (int) (max * IN_QUEUE_FACTOR) || map.size() == 0)
+            {removed = removeFromIn(item) || removeFromMain(item);}
+        else
+            {removed = removeFromMain(item) || removeFromIn(item);}
+        if (!removed)
+            {LOG.debug("Unable to remove entry");}
+        accounting.replacedPage(item);
+        if (growthFactor > 1.0 && accounting.resizeNeeded()) {
+            cacheManager.requestMem(this);
+        }
+    }
+
+    private boolean removeFromIn(Cacheable item) {
+        SequencedLongHashMap.Entry<Cacheable> next = in.getFirstEntry();
+        while (next != null) {
+            final Cacheable cached = next.getValue();
+            if (cached.allowUnload() && cached.getKey() != item.getKey()) {
+                cached.sync(true);
+                in.remove(next.getKey());
+                out.put(cached.getKey(), Boolean.TRUE);
+                if (out.size() > (int) (max * OUT_QUEUE_FACTOR))
+                    {out.removeFirst();}
+                return true;
+            }
+            next = next.getNext();
+        }
+        return false;
+    }
+
+    private boolean removeFromMain(Cacheable item) {
+        boolean mustRemoveInner = false;
+        SequencedLongHashMap.Entry<Cacheable> next = map.getFirstEntry();
+        while (next != null) {
+            final Cacheable cached = next.getValue();
+            if (cached.allowUnload() && cached.getKey() != item.getKey() &&
+                    (mustRemoveInner || !isInnerPage(cached))) {
+                cached.sync(true);
+                map.remove(next.getKey());
+                return true;
+            }
+            next = next.getNext();
+            if (next == null && !mustRemoveInner) {
+                next = map.getFirstEntry();
+                mustRemoveInner = true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isInnerPage(Cacheable cached) {
+        return cached instanceof BTreeCacheable && ((BTreeCacheable) cached).isInnerPage();
+    }
+
+    public void resize(int newSize) {
+        if (newSize < max) {
+            shrink(newSize);
+        } else {
+            map = copy(map, newSize);
+            in = copy(in, newSize);
+            final SequencedLongHashMap<Boolean> newOut = new SequencedLongHashMap<Boolean>(newSize * 2);
+            SequencedLongHashMap.Entry<Boolean> next = out.getFirstEntry();
+            while (next != null) {
+                newOut.put(next.getKey(), Boolean.TRUE);
+                next = next.getNext();
+            }
+            out = newOut;
+            max = newSize;
+            accounting.reset();
+            accounting.setTotalSize(max);
+        }
+    }
+
+    private static SequencedLongHashMap<Cacheable> copy(SequencedLongHashMap<Cacheable> queue, int newSize) {
+        final SequencedLongHashMap<Cacheable> newQueue = new SequencedLongHashMap<Cacheable>(newSize * 2);
+        SequencedLongHashMap.Entry<Cacheable> next = queue.getFirstEntry();
+        while (next != null) {
+            newQueue.put(next.getKey(), next.getValue());
+            next = next.getNext();
+        }
+        return newQueue;
+    }
+
+    protected void shrink(int newSize) {
+        flush();
+        this.map = new SequencedLongHashMap<Cacheable>(newSize);
+        this.in = new SequencedLongHashMap<Cacheable>(newSize);
+        this.out = new SequencedLongHashMap<Boolean>(newSize);
+        this.max = newSize;
+        accounting.reset();
+        accounting.setTotalSize(max);
+    }
+}
@@ -26,6 +26,7 @@ import java.nio.ByteBuffer;
 import org.exist.storage.DBBroker;
 import org.exist.storage.NativeBroker;
 import org.exist.storage.journal.AbstractLoggable;
+import org.exist.storage.journal.FileLoggable;
 import org.exist.storage.journal.LogException;
 import org.exist.storage.txn.Txn;
 
@@ -33,7 +34,7 @@ import org.exist.storage.txn.Txn;
  * @author wolf
  *
  */
-public class AddLinkLoggable extends AbstractLoggable {
+public class AddLinkLoggable extends AbstractLoggable implements FileLoggable {
 
     protected long pageNum;
     protected short tid;
@@ -76,6 +77,10 @@ public class AddLinkLoggable extends AbstractLoggable {
         link = in.getLong();
     }
 
+    public byte getFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
+
     /* (non-Javadoc)
      * @see org.exist.storage.log.Loggable#getLogSize()
      */
@@ -27,10 +27,11 @@ import java.nio.ByteBuffer;
 import org.exist.storage.DBBroker;
 import org.exist.storage.NativeBroker;
 import org.exist.storage.journal.AbstractLoggable;
+import org.exist.storage.journal.FileLoggable;
 import org.exist.storage.journal.LogException;
 import org.exist.storage.txn.Txn;
 
-public class AddValueLoggable extends AbstractLoggable {
+public class AddValueLoggable extends AbstractLoggable implements FileLoggable {
 
 	protected DOMFile domDb;
 	protected long pageNum;
@@ -82,6 +83,10 @@ public class AddValueLoggable extends AbstractLoggable {
 		in.get(value);
 	}
 
+	public byte getFileId() {
+		return NativeBroker.DOM_DBX_ID;
+	}
+
 	public int getLogSize() {
 		return 8 + value.length;
 	}
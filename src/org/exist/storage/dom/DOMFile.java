@@ -59,7 +59,6 @@ import org.exist.storage.btree.IndexQuery;
 import org.exist.storage.btree.Value;
 import org.exist.storage.cache.Cache;
 import org.exist.storage.cache.Cacheable;
-import org.exist.storage.cache.LRUCache;
 import org.exist.storage.journal.LogEntryTypes;
 import org.exist.storage.journal.Loggable;
 import org.exist.storage.journal.Lsn;
@@ -193,8 +192,7 @@ public class DOMFile extends BTree implements Lockable {
         fileHeader = (BTreeFileHeader)getFileHeader();
         fileHeader.setPageCount(0);
         fileHeader.setTotalCount(0);
-        dataCache = new LRUCache(256, 0.0, 1.0, CacheManager.DATA_CACHE);
-        dataCache.setFileName(getFileName());
+        dataCache = cacheManager.createCache(getFileName(), CacheManager.DATA_CACHE, 256, 0.0, 1.0);
         cacheManager.registerCache(dataCache);
         final File file = new File(dataDir + File.separatorChar + getFileName());
         setFile(file);
@@ -26,6 +26,7 @@ import java.nio.ByteBuffer;
 import org.exist.storage.DBBroker;
 import org.exist.storage.NativeBroker;
 import org.exist.storage.journal.AbstractLoggable;
+import org.exist.storage.journal.FileLoggable;
 import org.exist.storage.journal.LogException;
 import org.exist.storage.txn.Txn;
 
@@ -34,7 +35,7 @@ import org.exist.storage.txn.Txn;
  * 
  * @author wolf
  */
-public class InsertValueLoggable extends AbstractLoggable {
+public class InsertValueLoggable extends AbstractLoggable implements FileLoggable {
 
     protected DOMFile domDb;
     protected byte isOverflow;
@@ -93,6 +94,10 @@ public class InsertValueLoggable extends AbstractLoggable {
         in.get(value);
     }
 
+    public byte getFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
+
     /* (non-Javadoc)
      * @see org.exist.storage.log.Loggable#getLogSize()
      */
@@ -26,13 +26,14 @@ import java.nio.ByteBuffer;
 import org.exist.storage.DBBroker;
 import org.exist.storage.NativeBroker;
 import org.exist.storage.journal.AbstractLoggable;
+import org.exist.storage.journal.FileLoggable;
 import org.exist.storage.journal.LogException;
 import org.exist.storage.txn.Txn;
 
 /**
  * @author wolf
  */
-public class UpdateValueLoggable extends AbstractLoggable {
+public class UpdateValueLoggable extends AbstractLoggable implements FileLoggable {
 
     protected DOMFile domDb;
     protected long pageNum;
@@ -75,6 +76,10 @@ public class UpdateValueLoggable extends AbstractLoggable {
         in.get(oldValue);
     }
 
+    public byte getFileId() {
+        return NativeBroker.DOM_DBX_ID;
+    }
+
     public int getLogSize() {
         return 10 + (value.length * 2);
     }
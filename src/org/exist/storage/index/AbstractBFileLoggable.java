@@ -26,13 +26,14 @@ import java.nio.ByteBuffer;
 import org.exist.storage.DBBroker;
 import org.exist.storage.NativeBroker;
 import org.exist.storage.journal.AbstractLoggable;
+import org.exist.storage.journal.FileLoggable;
 import org.exist.storage.txn.Txn;
 
 /**
  * @author wolf
  *
  */
-public abstract class AbstractBFileLoggable extends AbstractLoggable {
+public abstract class AbstractBFileLoggable extends AbstractLoggable implements FileLoggable {
 
     protected NativeBroker broker;
     protected byte fileId;
@@ -75,6 +76,10 @@ public abstract class AbstractBFileLoggable extends AbstractLoggable {
         return 1;
     }
     
+    public byte getFileId() {
+        return fileId;
+    }
+
     protected BFile getIndexFile() {
         return (BFile) broker.getStorage(fileId);
     }
@@ -36,7 +36,6 @@ import org.exist.storage.btree.IndexQuery;
 import org.exist.storage.btree.Value;
 import org.exist.storage.cache.Cache;
 import org.exist.storage.cache.Cacheable;
-import org.exist.storage.cache.LRUCache;
 import org.exist.storage.io.VariableByteArrayInput;
 import org.exist.storage.io.VariableByteInput;
 import org.exist.storage.io.VariableByteOutputStream;
@@ -66,6 +65,7 @@ import java.io.UnsupportedEncodingException;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 
 /**
@@ -106,6 +106,9 @@ public class BFile extends BTree {
     public final static byte FREE_LIST = 22;
 
     public final static byte MULTI_PAGE = 23;
+
+    /** marks a file header which contains the first page of the free space records */
+    private final static int FREE_SPACE_MAP_MARKER = 0x46534D50;
     
     public static final int LENGTH_RECORDS_COUNT = 2; //sizeof short
     public static final int LENGTH_NEXT_TID = 2; //sizeof short
@@ -154,8 +157,7 @@ public class BFile extends BTree {
             double cacheGrowth, double thresholdBTree, double thresholdData) throws DBException {
         super(pool, fileId, transactional, cacheManager, file, thresholdBTree);
         fileHeader = (BFileHeader) getFileHeader();
-        dataCache = new LRUCache(64, cacheGrowth, thresholdData, CacheManager.DATA_CACHE);
-        dataCache.setFileName(file.getName());
+        dataCache = cacheManager.createCache(file.getName(), CacheManager.DATA_CACHE, 64, cacheGrowth, thresholdData);
         cacheManager.registerCache(dataCache);
         minFree = PAGE_MIN_FREE;
         lock = new ReentrantReadWriteLock(file.getName());
@@ -399,10 +401,86 @@ public class BFile extends BTree {
         if (isTransactional)
             {logManager.flushToLog(true);}
         flushed = flushed | dataCache.flush();
+        if (fileHeader.isDirty() && !isReadOnly()) {
+            try {
+                writeFreeSpaceMap();
+            } catch (final IOException e) {
+                LOG.warn("Failed to write free space list of " + getFile().getName() + ": " + e.getMessage(), e);
+            }
+        }
         flushed = flushed | super.flush();
         return flushed;
     }
 
+    /**
+     * Read the records of the free space list which did not fit into
+     * the file header. They are stored in a chain of pages with status
+     * {@link #FREE_LIST}. The chain ends at the first page which does not
+     * have this status: the pages are not journalled, so a crash may leave
+     * a broken chain behind. Since {@link #storeValue(Txn, ByteArray)} checks
+     * every page it gets from the list, outdated records do no harm.
+     */
+    private void readFreeSpaceMap() {
+        long pageNum = fileHeader.getFreeSpaceMap();
+        long count = 0;
+        try {
+            while (pageNum != Page.NO_PAGE && count++ < fileHeader.getTotalCount()) {
+                final Page page = getPage(pageNum);
+                final byte[] data = page.read();
+                if (page.getPageHeader().getStatus() != FREE_LIST) {
+                    LOG.warn(getFile().getName() + ": page " + pageNum + " does not belong to the free space list");
+                    break;
+                }
+                fileHeader.readFreeSpace(data);
+                pageNum = page.getPageHeader().getNextPage();
+            }
+        } catch (final IOException e) {
+            LOG.warn("Failed to read free space list of " + getFile().getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Write the records of the free space list which do not fit into the
+     * file header. Pages of the existing chain are reused, surplus pages
+     * are freed.
+     */
+    private void writeFreeSpaceMap() throws IOException {
+        final FreeSpace[] entries = fileHeader.getFreeSpaceEntries();
+        int start = Math.min(entries.length, FreeList.MAX_FREE_LIST_LEN);
+        if (start == entries.length && fileHeader.getFreeSpaceMap() == Page.NO_PAGE)
+            {return;}
+        final int perPage = (fileHeader.getWorkSize() - 4) / 12;
+        final int needed = (entries.length - start + perPage - 1) / perPage;
+        final List<Page> pages = new ArrayList<Page>(needed);
+        long pageNum = fileHeader.getFreeSpaceMap();
+        long count = 0;
+        while (pageNum != Page.NO_PAGE && count++ < fileHeader.getTotalCount()) {
+            final Page page = getPage(pageNum);
+            page.read();
+            if (page.getPageHeader().getStatus() != FREE_LIST)
+                {break;}
+            pageNum = page.getPageHeader().getNextPage();
+            if (pages.size() < needed)
+                {pages.add(page);}
+            else
+                {unlinkPages(page);}
+        }
+        while (pages.size() < needed) {
+            pages.add(getFreePage());
+        }
+        for (int i = 0; i < needed; i++) {
+            final Page page = pages.get(i);
+            final int n = Math.min(perPage, entries.length - start);
+            final byte[] data = new byte[fileHeader.getWorkSize()];
+            FreeList.write(data, 0, entries, start, n);
+            start += n;
+            page.getPageHeader().setStatus(FREE_LIST);
+            page.getPageHeader().setNextPage(i + 1 < needed ? pages.get(i + 1).getPageNum() : Page.NO_PAGE);
+            writeValue(page, data);
+        }
+        fileHeader.setFreeSpaceMap(needed > 0 ? pages.get(0).getPageNum() : Page.NO_PAGE);
+    }
+
     public BufferStats getDataBufferStats() {
         if (dataCache == null)
             {return null;}
@@ -610,7 +688,10 @@ public class BFile extends BTree {
     }
 
     public boolean open() throws DBException {
-        return super.open(FILE_FORMAT_VERSION_ID);
+        if (!super.open(FILE_FORMAT_VERSION_ID))
+            {return false;}
+        readFreeSpaceMap();
+        return true;
     }
 
     /**
@@ -786,7 +867,7 @@ public class BFile extends BTree {
                     free = new FreeSpace(page.getPageNum(), newFree);
                     fileHeader.addFreeSpace(free);
                 } else {
-                    free.setFree(newFree);
+                    fileHeader.setFreeSpace(free, newFree);
                 }
             }
             dataCache.add(page, 2);
@@ -795,7 +876,7 @@ public class BFile extends BTree {
 
     private final void saveFreeSpace(FreeSpace space, DataPage page) {
         final int free = fileHeader.getWorkSize() - page.getPageHeader().getDataLength();
-        space.setFree(free);
+        fileHeader.setFreeSpace(space, free);
         if(free < minFree)
         	{fileHeader.removeFreeSpace(space);}
     }
@@ -852,7 +933,7 @@ public class BFile extends BTree {
                 if (realSpace < 6 + vlen) {
                     // not correct: adjust and continue
                     LOG.warn("Wrong data length in list of free pages: adjusting to " + realSpace);
-                    free.setFree(realSpace);
+                    fileHeader.setFreeSpace(free, realSpace);
                     continue;
                 }
             }
@@ -1385,7 +1466,7 @@ public class BFile extends BTree {
                     free = new FreeSpace(page.getPageNum(), newFree);
                     fileHeader.addFreeSpace(free);
                 } else {
-                    free.setFree(newFree);
+                    fileHeader.setFreeSpace(free, newFree);
                 }
             }
             dataCache.add(page, 2);
@@ -1424,7 +1505,8 @@ public class BFile extends BTree {
 
     /**
      * The file header. Most important, the file header stores the list of
-     * data pages containing unused space.
+     * data pages containing unused space. Records which do not fit into the
+     * header are written to the pages starting at {@link #getFreeSpaceMap()}.
      * 
      * @author wolf
      */
@@ -1434,6 +1516,9 @@ public class BFile extends BTree {
         
         //public final static int MAX_FREE_LIST_LEN = 128;
 
+        /** the first page of the free space records not stored in the header */
+        private long freeSpaceMap = Page.NO_PAGE;
+
         public BFileHeader(int pageSize) {
             super(pageSize);
         }
@@ -1457,6 +1542,30 @@ public class BFile extends BTree {
             setDirty(true);
         }
 
+        public void setFreeSpace(FreeSpace space, int free) {
+            freeList.setFree(space, free);
+            setDirty(true);
+        }
+
+        public FreeSpace[] getFreeSpaceEntries() {
+            return freeList.toArray();
+        }
+
+        public void readFreeSpace(byte[] data) throws IOException {
+            freeList.read(data, 0);
+        }
+
+        public long getFreeSpaceMap() {
+            return freeSpaceMap;
+        }
+
+        public void setFreeSpaceMap(long pageNum) {
+            if (pageNum != freeSpaceMap) {
+                freeSpaceMap = pageNum;
+                setDirty(true);
+            }
+        }
+
         public void debugFreeList() {
         	LOG.debug(getFile().getName() + ": " + freeList.toString());
         }
@@ -1464,13 +1573,28 @@ public class BFile extends BTree {
         @Override
         public int read(byte[] buf) throws IOException {
             final int offset = super.read(buf);
-            return freeList.read(buf, offset);
+            final int end = freeList.read(buf, offset);
+            // files written by older versions do not have the marker
+            final int mapOffset = offset + FreeList.MAX_FREE_LIST_SIZE;
+            if (mapOffset + 12 <= buf.length &&
+                    ByteConversion.byteToInt(buf, mapOffset) == FREE_SPACE_MAP_MARKER) {
+                freeSpaceMap = ByteConversion.byteToLong(buf, mapOffset + 4);
+                return mapOffset + 12;
+            }
+            freeSpaceMap = Page.NO_PAGE;
+            return end;
         }
 
         @Override
         public int write(byte[] buf) throws IOException {
             final int offset = super.write(buf);
-            return freeList.write(buf, offset);
+            final int end = freeList.write(buf, offset);
+            final int mapOffset = offset + FreeList.MAX_FREE_LIST_SIZE;
+            if (mapOffset + 12 > buf.length)
+                {return end;}
+            ByteConversion.intToByte(FREE_SPACE_MAP_MARKER, buf, mapOffset);
+            ByteConversion.longToByte(freeSpaceMap, buf, mapOffset + 4);
+            return mapOffset + 12;
         }
     }
 
@@ -5,6 +5,7 @@ import org.exist.storage.DefaultCacheManager;
 import org.exist.storage.btree.BTree;
 import org.exist.storage.btree.DBException;
 import org.exist.storage.lock.Lock;
+import org.exist.storage.lock.MultiReadReentrantLock;
 import org.exist.storage.lock.ReentrantReadWriteLock;
 
 import java.io.File;
@@ -13,11 +14,21 @@ public class BTreeStore extends BTree {
 
     public final static short FILE_FORMAT_VERSION_ID = 2;
 
+    /**
+     * Comma-separated list of files whose lock can be shared by readers. Writers
+     * still lock the file exclusively.
+     */
+    public final static String SHARED_READ_LOCKS_ATTRIBUTE = "sharedReadLocks";
+    public final static String PROPERTY_SHARED_READ_LOCKS = "db-connection.shared-read-locks";
+
     protected Lock lock = null;
 
     public BTreeStore(BrokerPool pool, byte fileId, boolean transactional, File file, DefaultCacheManager cacheManager, double growthThreshold) throws DBException {
         super(pool, fileId, transactional, cacheManager, file, growthThreshold);
-        lock = new ReentrantReadWriteLock(file.getName());
+        if (isSharedReadLock(pool, file.getName()))
+            {lock = new MultiReadReentrantLock(file.getName());}
+        else
+            {lock = new ReentrantReadWriteLock(file.getName());}
 
         if(exists()) {
             open(FILE_FORMAT_VERSION_ID);
@@ -30,6 +41,17 @@ public class BTreeStore extends BTree {
         setSplitFactor(0.7);
     }
 
+    private static boolean isSharedReadLock(BrokerPool pool, String fileName) {
+        final String files = (String) pool.getConfiguration().getProperty(PROPERTY_SHARED_READ_LOCKS);
+        if (files == null)
+            {return false;}
+        for (final String next : files.split("[,\\s]+")) {
+            if (next.equals(fileName))
+                {return true;}
+        }
+        return false;
+    }
+
     public Lock getLock() {
         return lock;
     }
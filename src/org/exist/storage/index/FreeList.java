@@ -22,6 +22,8 @@ package org.exist.storage.index;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.exist.util.ByteConversion;
@@ -35,8 +37,15 @@ import org.exist.util.ByteConversion;
  * {@link org.exist.storage.index.BFile} will always check if FreeList has a page
  * that can be filled before creating a new page.
  * 
- * FreeList implements a linked list of {@link FreeSpace} objects. Each object
- * in the list describes a page and the unused space in this page.
+ * The {@link FreeSpace} objects describing a page and the unused space in this
+ * page are sorted into buckets by the amount of free space, each bucket covering
+ * {@link #BUCKET_SIZE} bytes. Every bucket is a linked list. A page with enough
+ * space can thus be found without walking through all pages, and the pages are
+ * also indexed by page number.
+ * 
+ * The list is not limited in size. Only the first {@link #MAX_FREE_LIST_LEN}
+ * entries fit into the file header, the others are stored by {@link BFile} in
+ * pages of its own.
  * 
  * @see FreeList
  * @author wolf
@@ -47,30 +56,38 @@ public class FreeList {
 
     public final static int MAX_FREE_LIST_LEN = 128;
 
-    protected FreeSpace header = null;
-    protected FreeSpace last = null;
-    protected int size = 0;
+    /** the number of bytes needed to store {@link #MAX_FREE_LIST_LEN} entries */
+    public final static int MAX_FREE_LIST_SIZE = 4 + MAX_FREE_LIST_LEN * 12;
+
+    public final static int BUCKET_SIZE = 32;
+
+    private final static int BUCKET_SHIFT = 5;
+
+    /** the first entry of each bucket */
+    protected FreeSpace[] buckets = new FreeSpace[128];
+
+    protected final Map<Long, FreeSpace> pages = new HashMap<Long, FreeSpace>();
 
     public FreeList() {
         //Nothing to do
     }
 
+    public int size() {
+        return pages.size();
+    }
+
     /**
-     * Append a new {@link FreeSpace} object to the list,
+     * Add a new {@link FreeSpace} object to the list,
      * describing the amount of free space available on a page.
+     * An existing record for the same page is replaced.
      *  
      * @param free
      */
     public void add( FreeSpace free ) {
-        if(header == null) {
-            header = free;
-            last = free;
-        } else {
-            last.next = free;
-            free.previous = last;
-            last = free;
-        }
-        ++size;
+        final FreeSpace old = pages.put(Long.valueOf(free.page), free);
+        if (old != null)
+            {unlink(old);}
+        link(free);
     }
 
     /**
@@ -79,20 +96,57 @@ public class FreeList {
      * @param node
      */
     public void remove(FreeSpace node) {
-        --size;
-        if (node.previous == null) {
-            if (node.next != null) {
-                node.next.previous = null;
-                header = node.next;
-            } else
-                {header = null;}
-        } else {
-            node.previous.next = node.next;
-            if (node.next != null)
-                {node.next.previous = node.previous;}
-            else
-                {last = node.previous;}
+        final Long key = Long.valueOf(node.page);
+        if (pages.get(key) != node)
+            {return;}
+        pages.remove(key);
+        unlink(node);
+    }
+
+    /**
+     * Change the amount of free space recorded for a page.
+     * 
+     * @param node
+     * @param free
+     */
+    public void setFree(FreeSpace node, int free) {
+        if (pages.get(Long.valueOf(node.page)) != node) {
+            node.setFree(free);
+            return;
+        }
+        unlink(node);
+        node.setFree(free);
+        link(node);
+    }
+
+    private static int bucket(int free) {
+        return Math.max(0, free) >>> BUCKET_SHIFT;
+    }
+
+    private void link(FreeSpace node) {
+        final int b = bucket(node.free);
+        if (b >= buckets.length) {
+            final FreeSpace[] newBuckets = new FreeSpace[b + 1];
+            System.arraycopy(buckets, 0, newBuckets, 0, buckets.length);
+            buckets = newBuckets;
         }
+        node.bucket = b;
+        node.previous = null;
+        node.next = buckets[b];
+        if (node.next != null)
+            {node.next.previous = node;}
+        buckets[b] = node;
+    }
+
+    private void unlink(FreeSpace node) {
+        if (node.previous == null)
+            {buckets[node.bucket] = node.next;}
+        else
+            {node.previous.next = node.next;}
+        if (node.next != null)
+            {node.next.previous = node.previous;}
+        node.next = null;
+        node.previous = null;
     }
 
     /**
@@ -101,44 +155,60 @@ public class FreeList {
      * @param pageNum
      */
     public FreeSpace retrieve(long pageNum) {
-        FreeSpace next = header;
-        while(next != null) {
-            if(next.page == pageNum)
-                {return next;}
-            next = next.next;
-        }
-        return null;
+        return pages.get(Long.valueOf(pageNum));
     }
 
     /**
      * Try to find a page that has at least requiredSize bytes
-     * available. This method selects the page with the smallest
-     * possible space. This guarantees that all pages will be filled before
-     * creating a new page. 
+     * available. This method selects a page with the smallest
+     * possible space, give or take {@link #BUCKET_SIZE} bytes. This
+     * guarantees that all pages will be filled before creating a new page. 
      * 
      * @param requiredSize
      */
     public FreeSpace find(int requiredSize) {
-        FreeSpace next = header;
-        FreeSpace found = null;
-        while(next != null) {
-            if(next.free >= requiredSize) {
-                if(found == null || next.free < found.free)
+        final int first = bucket(requiredSize);
+        if (first < buckets.length) {
+            // the bucket may contain pages with less space than required
+            FreeSpace found = null;
+            for (FreeSpace next = buckets[first]; next != null; next = next.next) {
+                if (next.free >= requiredSize && (found == null || next.free < found.free))
                     {found = next;}
             }
-            next = next.next;
+            if (found != null)
+                {return found;}
+        }
+        for (int i = first + 1; i < buckets.length; i++) {
+            for (FreeSpace next = buckets[i]; next != null; next = next.next) {
+                if (next.free >= requiredSize)
+                    {return next;}
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns all records, starting with the pages which have
+     * the most free space.
+     */
+    public FreeSpace[] toArray() {
+        final FreeSpace[] entries = new FreeSpace[pages.size()];
+        int count = 0;
+        for (int i = buckets.length - 1; i >= 0; i--) {
+            for (FreeSpace next = buckets[i]; next != null; next = next.next) {
+                entries[count++] = next;
+            }
         }
-        return found;
+        return entries;
     }
 
     @Override
     public String toString() {
         final StringBuilder buf = new StringBuilder();
-        FreeSpace next = header;
-        while(next != null) {
-            buf.append("[").append(next.page).append(", ");
-            buf.append(next.free).append("] ");
-            next = next.next;
+        final FreeSpace[] entries = toArray();
+        for (int i = 0; i < entries.length; i++) {
+            buf.append("[").append(entries[i].page).append(", ");
+            buf.append(entries[i].free).append("] ");
         }
         return buf.toString();
     }
@@ -161,7 +231,8 @@ public class FreeList {
             offset += 8;
             space = ByteConversion.byteToInt(buf, offset);
             offset += 4;
-            add(new FreeSpace(page, space));
+            if (retrieve(page) == null)
+                {add(new FreeSpace(page, space));}
         }
         return offset;
     }
@@ -170,35 +241,31 @@ public class FreeList {
      * Write the list to a {@link RandomAccessFile}.
      * 
      * As the list is written to the file header, its maximum length
-     * has to be restricted. The method will thus only store
-     * {@link #MAX_FREE_LIST_LEN} entries and throw away the 
-     * rest. Usually, this should not happen very often, so it is ok to
-     * waste some space.
+     * has to be restricted. The method will thus only store the first
+     * {@link #MAX_FREE_LIST_LEN} entries returned by {@link #toArray()}.
+     * The remaining entries have to be written by {@link #write(byte[], int, FreeSpace[], int, int)}.
      * 
      * @param buf 
      * @param offset 
      * @throws IOException 
      */
     public int write(byte[] buf, int offset) throws IOException {
-        //does the free-space list fit into the file header?
-        int skip = 0;
-        if (size > MAX_FREE_LIST_LEN) {
-            //LOG.warn("removing " + (size - MAX_FREE_LIST_LEN) + " free pages.");
-            // no: remove some smaller entries to make it fit
-            skip = size - MAX_FREE_LIST_LEN;
-        }
-        ByteConversion.intToByte(size - skip, buf, offset);
+        final FreeSpace[] entries = toArray();
+        return write(buf, offset, entries, 0, Math.min(entries.length, MAX_FREE_LIST_LEN));
+    }
+
+    /**
+     * Write count entries, starting at entries[start], in the format
+     * read by {@link #read(byte[], int)}.
+     */
+    public static int write(byte[] buf, int offset, FreeSpace[] entries, int start, int count) {
+        ByteConversion.intToByte(count, buf, offset);
         offset += 4;
-        FreeSpace next = header;
-        while(next != null) {
-            if(skip == 0) {
-                ByteConversion.longToByte(next.page, buf, offset);
-                offset += 8;
-                ByteConversion.intToByte(next.free, buf, offset);
-                offset += 4;
-            } else
-                {--skip;}
-            next = next.next;
+        for (int i = start; i < start + count; i++) {
+            ByteConversion.longToByte(entries[i].page, buf, offset);
+            offset += 8;
+            ByteConversion.intToByte(entries[i].free, buf, offset);
+            offset += 4;
         }
         return offset;
     }
@@ -39,6 +39,9 @@ public class FreeSpace {
     protected FreeSpace next = null;
     protected FreeSpace previous = null;
 
+    /** the bucket of the {@link FreeList} this object is linked into */
+    protected int bucket = 0;
+
     public FreeSpace(long pageNum, int space) {
         page = pageNum;
         free = space;
@@ -75,6 +78,12 @@ public class FreeSpace {
         return page;
     }
 
+    /**
+     * Set the amount of unused space. If this object has been added to a
+     * {@link FreeList}, use {@link FreeList#setFree(FreeSpace, int)} instead.
+     *
+     * @param space
+     */
     public void setFree(int space) {
         free = space;
     }
@@ -0,0 +1,149 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.storage.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A {@link PageIO} which serves reads from read-only memory mapped
+ * segments of the file. Writes still go through the file channel:
+ * the mapping and the channel share the operating system's page cache,
+ * so written pages are visible through the mapping without remapping.
+ *
+ * Segments are mapped lazily when first read. A segment covering the end of
+ * the file is remapped only after the file has grown by at least
+ * {@link #REMAP_THRESHOLD} bytes; until then, pages beyond the mapped
+ * region are read through the channel. The file size is tracked from the
+ * writes passing through this object, so no system call is needed to decide
+ * whether a page is mapped.
+ *
+ * Intended for read-mostly files which fit into physical memory. Mapped
+ * segments are only released by the garbage collector.
+ */
+public class MappedPageIO extends PageIO {
+
+    private final static Logger LOG = Logger.getLogger(MappedPageIO.class);
+
+    public final static int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    public final static int REMAP_THRESHOLD = 1024 * 1024;
+
+    private final int segmentSize;
+
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    /** The file size, tracked locally since all writes go through this object */
+    private volatile long fileSize;
+
+    public MappedPageIO(File file, boolean readOnly) throws IOException {
+        this(file, readOnly, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param segmentSize the size of a mapped segment. Should be a multiple of
+     * the page size, so a page never spans two segments.
+     */
+    public MappedPageIO(File file, boolean readOnly, int segmentSize) throws IOException {
+        super(file, readOnly);
+        this.segmentSize = segmentSize;
+        this.fileSize = size();
+    }
+
+    @Override
+    public int read(long position, byte[] buf, int off, int len) throws IOException {
+        final int segment = (int) (position / segmentSize);
+        final int segmentOffset = (int) (position % segmentSize);
+        if (segmentOffset + len <= segmentSize) {
+            final ByteBuffer mapped = getSegment(segment, segmentOffset + len);
+            if (mapped != null) {
+                // duplicate, so concurrent readers do not share the buffer position
+                final ByteBuffer view = mapped.duplicate();
+                view.position(segmentOffset);
+                view.get(buf, off, len);
+                return len;
+            }
+        }
+        return super.read(position, buf, off, len);
+    }
+
+    /**
+     * Return the mapping for the given segment if it covers at least
+     * <code>required</code> bytes, mapping or remapping the segment if necessary.
+     * Returns null if the range is not yet worth mapping.
+     */
+    private ByteBuffer getSegment(int segment, int required) {
+        MappedByteBuffer[] current = segments;
+        MappedByteBuffer mapped = segment < current.length ? current[segment] : null;
+        if (mapped != null && mapped.capacity() >= required)
+            {return mapped;}
+        final long start = (long) segment * segmentSize;
+        final long available = Math.min(segmentSize, fileSize - start);
+        if (available < required)
+            {return null;}
+        if (mapped != null && available < segmentSize &&
+                available - mapped.capacity() < REMAP_THRESHOLD)
+            {return null;}
+        synchronized (this) {
+            current = segments;
+            mapped = segment < current.length ? current[segment] : null;
+            if (mapped != null && mapped.capacity() >= available)
+                {return mapped;}
+            final MappedByteBuffer[] grown = segment < current.length ?
+                current.clone() : Arrays.copyOf(current, segment + 1);
+            try {
+                grown[segment] = getChannel().map(FileChannel.MapMode.READ_ONLY, start, available);
+            } catch (final IOException e) {
+                // out of address space or similar: keep reading through the channel
+                LOG.warn("Failed to map segment " + segment + " of " + getFile().getName() +
+                    ": " + e.getMessage());
+                return null;
+            }
+            segments = grown;
+            return grown[segment];
+        }
+    }
+
+    @Override
+    public void write(long position, byte[] buf, int off, int len) throws IOException {
+        super.write(position, buf, off, len);
+        final long end = position + len;
+        if (end > fileSize) {
+            synchronized (this) {
+                if (end > fileSize)
+                    {fileSize = end;}
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        segments = new MappedByteBuffer[0];
+        super.close();
+    }
+}
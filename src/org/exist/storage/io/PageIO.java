@@ -0,0 +1,280 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.storage.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Positional page I/O on top of a {@link FileChannel}.
+ *
+ * Every read and write passes its own file offset (pread/pwrite) and
+ * never moves the shared file pointer, so independent pages of the same
+ * file can be read by several threads at the same time. This replaces
+ * the seek()/read() sequence on a single RandomAccessFile, which forced
+ * all brokers accessing a .dbx file to queue on the file pointer.
+ *
+ * A FileChannel is closed if a thread is interrupted during an I/O
+ * operation, e.g. a query thread stopped by the debugger. The file is then
+ * reopened and the operation retried, see {@link #reopen(FileChannel, ClosedChannelException)}.
+ */
+public class PageIO {
+
+    private final static Logger LOG = Logger.getLogger(PageIO.class);
+
+    private final File file;
+    private final boolean readOnly;
+
+    private volatile RandomAccessFile raf;
+    private volatile FileChannel channel;
+
+    private FileLock lock = null;
+
+    private boolean closed = false;
+
+    public PageIO(File file, boolean readOnly) throws IOException {
+        this.file = file;
+        this.readOnly = readOnly;
+        this.raf = new RandomAccessFile(file, readOnly ? "r" : "rw");
+        this.channel = raf.getChannel();
+    }
+
+    /**
+     * Try to acquire an exclusive lock on the file. The lock is kept
+     * until {@link #close()} is called.
+     *
+     * @return false if the file is locked by another process
+     * @throws IOException
+     */
+    public synchronized boolean tryLock() throws IOException {
+        lock = channel.tryLock();
+        return lock != null;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    public long size() throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                final FileChannel current = channel;
+                try {
+                    return current.size();
+                } catch (final ClosedChannelException e) {
+                    interrupted |= reopen(current, e);
+                }
+            }
+        } finally {
+            if (interrupted)
+                {Thread.currentThread().interrupt();}
+        }
+    }
+
+    /**
+     * Read len bytes starting at the given file position into buf.
+     * If the end of the file is reached, the remaining bytes are set
+     * to 0, which is what callers expect for pages not yet written.
+     *
+     * @return the number of bytes actually read from the file
+     * @throws IOException
+     */
+    public int read(long position, byte[] buf, int off, int len) throws IOException {
+        final ByteBuffer bb = ByteBuffer.wrap(buf, off, len);
+        int total = 0;
+        boolean interrupted = false;
+        try {
+            while (bb.hasRemaining()) {
+                final FileChannel current = channel;
+                final int read;
+                try {
+                    read = current.read(bb, position + total);
+                } catch (final ClosedChannelException e) {
+                    interrupted |= reopen(current, e);
+                    continue;
+                }
+                if (read < 0)
+                    {break;}
+                total += read;
+            }
+        } finally {
+            if (interrupted)
+                {Thread.currentThread().interrupt();}
+        }
+        if (total < len)
+            {Arrays.fill(buf, off + total, off + len, (byte) 0);}
+        return total;
+    }
+
+    /**
+     * Write len bytes from buf at the given file position.
+     *
+     * @throws IOException
+     */
+    public void write(long position, byte[] buf, int off, int len) throws IOException {
+        final ByteBuffer bb = ByteBuffer.wrap(buf, off, len);
+        int total = 0;
+        boolean interrupted = false;
+        try {
+            while (bb.hasRemaining()) {
+                final FileChannel current = channel;
+                try {
+                    total += current.write(bb, position + total);
+                } catch (final ClosedChannelException e) {
+                    interrupted |= reopen(current, e);
+                }
+            }
+        } finally {
+            if (interrupted)
+                {Thread.currentThread().interrupt();}
+        }
+    }
+
+    /**
+     * Copy the entire file to the output stream. Does not modify
+     * the channel position.
+     *
+     * @throws IOException
+     */
+    public void copyTo(OutputStream os) throws IOException {
+        final byte[] buf = new byte[4096];
+        final long size = channel.size();
+        long position = 0;
+        while (position < size) {
+            final int len = (int) Math.min(buf.length, size - position);
+            read(position, buf, 0, len);
+            os.write(buf, 0, len);
+            position += len;
+        }
+    }
+
+    /**
+     * Force pending writes to the storage device.
+     *
+     * @param metaData also write file metadata
+     * @throws IOException
+     */
+    public void force(boolean metaData) throws IOException {
+        if (readOnly)
+            {return;}
+        boolean interrupted = false;
+        try {
+            while (true) {
+                final FileChannel current = channel;
+                try {
+                    current.force(metaData);
+                    return;
+                } catch (final ClosedChannelException e) {
+                    interrupted |= reopen(current, e);
+                }
+            }
+        } finally {
+            if (interrupted)
+                {Thread.currentThread().interrupt();}
+        }
+    }
+
+    /**
+     * Reopen the file after an I/O operation failed because the channel has been
+     * closed. This happens if a thread is interrupted while using the channel: the
+     * channel is closed for all threads, the interrupted one gets a
+     * ClosedByInterruptException, the others an AsynchronousCloseException.
+     *
+     * The interrupt status of the current thread is cleared, so the operation can be
+     * retried without closing the new channel again. The caller has to restore it
+     * once the operation is complete.
+     *
+     * @param closedChannel the channel the operation failed on
+     * @param e the exception thrown by the operation, rethrown if the file has been closed
+     * @return true if the current thread had been interrupted
+     * @throws IOException
+     */
+    private boolean reopen(FileChannel closedChannel, ClosedChannelException e) throws IOException {
+        final boolean interrupted = Thread.interrupted();
+        try {
+            synchronized (this) {
+                if (closed)
+                    {throw e;}
+                // another thread may have reopened the file already
+                if (channel != closedChannel)
+                    {return interrupted;}
+                LOG.info("Channel of " + file.getName() + " has been closed by an interrupt. Reopening the file.");
+                try {
+                    raf.close();
+                } catch (final IOException ioe) {
+                    LOG.debug(ioe.getMessage(), ioe);
+                }
+                final RandomAccessFile newRaf = new RandomAccessFile(file, readOnly ? "r" : "rw");
+                final FileChannel newChannel = newRaf.getChannel();
+                // the file lock has been released with the old channel
+                if (lock != null) {
+                    lock = newChannel.tryLock();
+                    if (lock == null) {
+                        newRaf.close();
+                        throw new IOException("Lost the lock on " + file.getAbsolutePath());
+                    }
+                }
+                raf = newRaf;
+                channel = newChannel;
+            }
+            return interrupted;
+        } catch (final IOException ioe) {
+            if (interrupted)
+                {Thread.currentThread().interrupt();}
+            throw ioe;
+        }
+    }
+
+    /**
+     * Release the file lock (if any) and close the channel.
+     *
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        closed = true;
+        try {
+            if (lock != null && lock.isValid())
+                {lock.release();}
+        } finally {
+            lock = null;
+            raf.close();
+        }
+    }
+}
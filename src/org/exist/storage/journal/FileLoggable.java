@@ -0,0 +1,40 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.storage.journal;
+
+/**
+ * A {@link Loggable} which only changes pages of a single paged file.
+ *
+ * Entries for different files are independent of each other, so the
+ * {@link org.exist.storage.recovery.RecoveryManager} may redo them
+ * in parallel, as long as the entries for one file are redone in LSN order.
+ */
+public interface FileLoggable extends Loggable {
+
+    /**
+     * Returns the id of the paged file changed by the entry, as used
+     * by {@link org.exist.storage.NativeBroker#getStorage(byte)}.
+     *
+     * @return the file id
+     */
+    public byte getFileId();
+}
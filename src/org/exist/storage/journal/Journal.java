@@ -30,6 +30,12 @@ import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.text.DateFormat;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
 import org.apache.log4j.Logger;
 import org.exist.EXistException;
@@ -55,14 +61,17 @@ import org.exist.util.sanity.SanityCheck;
  * 
  * Each entry has the structure:
  * 
- * <pre>[byte: entryType, long: transactionId, short length, byte[] data, short backLink]</pre>
+ * <pre>[byte: entryType, long: transactionId, short length, int checksum, byte[] data, short backLink]</pre>
  * 
  * <ul>
  *  <li>entryType is a unique id that identifies the log record. Entry types are registered via the 
- * {@link org.exist.storage.journal.LogEntryTypes} class.</li>
+ * {@link org.exist.storage.journal.LogEntryTypes} class. If the highest bit ({@link #COMPRESSED_ENTRY}) 
+ * is set, the data is compressed.</li>
  *  <li>transactionId: the id of the transaction that created the record.</li>
  *  <li>length: the length of the log entry data.</li>
- *  <li>data: the payload data provided by the {@link org.exist.storage.journal.Loggable} object.</li>
+ *  <li>checksum: CRC32 of the data. Used to detect incomplete or corrupted entries during recovery.</li>
+ *  <li>data: the payload data provided by the {@link org.exist.storage.journal.Loggable} object. A compressed
+ *  payload starts with a short giving the uncompressed length, followed by the deflated data.</li>
  *  <li>backLink: offset to the start of the record. Used when scanning the log file backwards.</li>
  * </ul>
  * 
@@ -79,22 +88,32 @@ public class Journal {
     public final static String RECOVERY_SYNC_ON_COMMIT_ATTRIBUTE = "sync-on-commit";
     public final static String RECOVERY_JOURNAL_DIR_ATTRIBUTE = "journal-dir";
     public final static String RECOVERY_SIZE_LIMIT_ATTRIBUTE = "size"; 
+    public final static String RECOVERY_GROUP_COMMIT_DELAY_ATTRIBUTE = "group-commit-delay";
+    public final static String RECOVERY_COMPRESS_ATTRIBUTE = "compress";
 
     public final static String PROPERTY_RECOVERY_SIZE_LIMIT = "db-connection.recovery.size-limit";
     public final static String PROPERTY_RECOVERY_JOURNAL_DIR = "db-connection.recovery.journal-dir";
     public final static String PROPERTY_RECOVERY_SYNC_ON_COMMIT = "db-connection.recovery.sync-on-commit";
+    public final static String PROPERTY_RECOVERY_GROUP_COMMIT_DELAY = "db-connection.recovery.group-commit-delay";
+    public final static String PROPERTY_RECOVERY_COMPRESS = "db-connection.recovery.compress";
 
     public final static String LOG_FILE_SUFFIX = "log";
     public final static String BAK_FILE_SUFFIX = ".bak";
 
     public final static String LCK_FILE = "journal.lck";
     
-    /** the length of the header of each entry: entryType + transactionId + length */
-    public final static int LOG_ENTRY_HEADER_LEN = 11;
+    /** the length of the header of each entry: entryType + transactionId + length + checksum */
+    public final static int LOG_ENTRY_HEADER_LEN = 15;
 
     /** header length + trailing back link */
     public final static int LOG_ENTRY_BASE_LEN = LOG_ENTRY_HEADER_LEN + 2;
 
+    /** flag set in the entry type if the entry data is compressed */
+    public final static byte COMPRESSED_ENTRY = (byte) 0x80;
+
+    /** entries with less data are never compressed */
+    private final static int COMPRESS_MIN_SIZE = 256;
+
     /** default maximum journal size */
     public final static int DEFAULT_MAX_SIZE = 10 * 1024 * 1024;
 
@@ -127,19 +146,29 @@ public class Journal {
     private FileLock fileLock;
 
     /** the current file number */
-    private int currentFile = 0;
+    private volatile int currentFile = 0;
 
     /** used to keep track of the current position in the file */
-    private int inFilePos = 0;
+    private volatile int inFilePos = 0;
 
     /** temp buffer */
     private ByteBuffer currentBuffer;
 
+    /** 
+     * end of the space reserved in currentBuffer. Writers reserve space for a log
+     * record by atomically advancing this offset. While the buffer is being flushed,
+     * the offset is set to the buffer capacity, so no more space can be reserved.
+     */
+    private final AtomicInteger bufferReserved = new AtomicInteger(0);
+
+    /** number of bytes in currentBuffer for which the log record has been completely written */
+    private final AtomicInteger bufferCompleted = new AtomicInteger(0);
+
     /** the last LSN written by the JournalManager */
-    private long currentLsn = Lsn.LSN_INVALID;
+    private final AtomicLong currentLsn = new AtomicLong(Lsn.LSN_INVALID);
 
     /** the last LSN actually written to the file */
-    private long lastLsnWritten = Lsn.LSN_INVALID;
+    private volatile long lastLsnWritten = Lsn.LSN_INVALID;
 
     /** stores the current LSN of the last file sync on the file */ 
     private long lastSyncLsn = Lsn.LSN_INVALID;
@@ -155,6 +184,39 @@ public class Journal {
     //TODO: conf.xml refactoring <recovery sync-on-commit=""> => <journal sync-on-commit="">
     private boolean syncOnCommit = true;
 
+    /** if set to true, the data of larger log entries is compressed */
+    @ConfigurationFieldAsAttribute("compress")
+    private boolean compress = false;
+
+    /** per thread buffers used to serialize, checksum and compress a log entry before it is copied into the journal buffer */
+    private final ThreadLocal<EntryEncoder> encoders = new ThreadLocal<EntryEncoder>() {
+        @Override
+        protected EntryEncoder initialValue() {
+            final EntryEncoder encoder = new EntryEncoder();
+            allEncoders.add(encoder);
+            return encoder;
+        }
+    };
+
+    /** all encoders created, so their native compression memory can be released on shutdown */
+    private final Queue<EntryEncoder> allEncoders = new ConcurrentLinkedQueue<EntryEncoder>();
+
+    /** 
+     * time (in milliseconds) the leader of a commit group waits for other
+     * transactions to join the group before flushing. 
+     */
+    @ConfigurationFieldAsAttribute("group-commit-delay")
+    private long groupCommitDelay = 0;
+
+    /** monitor used by transactions waiting for a group commit */
+    private final Object groupCommitMonitor = new Object();
+
+    /** true while a thread flushes the log on behalf of a commit group. Guarded by groupCommitMonitor */
+    private boolean groupFlushInProgress = false;
+
+    /** the last LSN which has been flushed (and synced, if required) by a group commit. Guarded by groupCommitMonitor */
+    private long lastGroupLsn = Lsn.LSN_INVALID;
+
     private File fsJournalDir;
 
     public Journal(BrokerPool pool, File directory) throws EXistException {
@@ -174,6 +236,20 @@ public class Journal {
                 {LOG.debug("SyncOnCommit = " + syncOnCommit);}
         }
 
+        final Boolean compressOpt = (Boolean) pool.getConfiguration().getProperty(PROPERTY_RECOVERY_COMPRESS);
+        if (compressOpt != null) {
+            compress = compressOpt.booleanValue();
+            if (LOG.isDebugEnabled())
+                {LOG.debug("Compress = " + compress);}
+        }
+
+        final Long delayOpt = (Long) pool.getConfiguration().getProperty(PROPERTY_RECOVERY_GROUP_COMMIT_DELAY);
+        if (delayOpt != null) {
+            groupCommitDelay = delayOpt.longValue();
+            if (LOG.isDebugEnabled())
+                {LOG.debug("GroupCommitDelay = " + groupCommitDelay);}
+        }
+
         final String logDir = (String) pool.getConfiguration().getProperty(PROPERTY_RECOVERY_JOURNAL_DIR);
         if (logDir != null) {
             File f = new File(logDir);
@@ -224,27 +300,56 @@ public class Journal {
     /**
      * Write a log entry to the journalling log.
      * 
+     * The method does not lock the journal: the writer reserves space for the entry
+     * by atomically advancing the reserved offset in the current buffer and
+     * serializes the entry into its own range of the buffer. Concurrent writers thus
+     * fill the buffer in parallel. The buffer is only locked if it is full and needs
+     * to be flushed, see {@link #flushBuffer()}.
+     * 
      * @param loggable
      * @throws TransactionException
      */
-    public synchronized void writeToLog(Loggable loggable) throws TransactionException {
-        if (currentBuffer == null)
+    public void writeToLog(Loggable loggable) throws TransactionException {
+        final ByteBuffer buffer = currentBuffer;
+        if (buffer == null)
             {throw new TransactionException("Database is shut down.");}
         SanityCheck.ASSERT(!inRecovery, "Write to log during recovery. Should not happen!");
-        final int size = loggable.getLogSize();
+        final EntryEncoder encoder = encoders.get();
+        encoder.prepare(loggable);
+        final int size = encoder.length;
         final int required = size + LOG_ENTRY_BASE_LEN;
-        if (required > currentBuffer.remaining())
-            {flushToLog(false);}
-        currentLsn = Lsn.create(currentFile, inFilePos + currentBuffer.position() + 1);
-        loggable.setLsn(currentLsn);
+        int offset;
+        while (true) {
+            offset = bufferReserved.get();
+            if (offset + required > buffer.capacity()) {
+                if (offset == 0 || inRecovery || channel == null)
+                    {throw new TransactionException("Buffer overflow while writing log record: " + loggable.dump());}
+                flushToLog(false);
+            } else if (bufferReserved.compareAndSet(offset, offset + required))
+                {break;}
+        }
         try {
-            currentBuffer.put(loggable.getLogType());
-            currentBuffer.putLong(loggable.getTransactionId());
-            currentBuffer.putShort((short) loggable.getLogSize());
-            loggable.write(currentBuffer);
-            currentBuffer.putShort((short) (size + LOG_ENTRY_HEADER_LEN));
+            // the file position cannot change before this entry is completed
+            final long lsn = Lsn.create(currentFile, inFilePos + offset + 1);
+            loggable.setLsn(lsn);
+            long last;
+            do {
+                last = currentLsn.get();
+            } while (lsn > last && !currentLsn.compareAndSet(last, lsn));
+            encoder.encode(loggable);
+            final ByteBuffer out = buffer.duplicate();
+            out.limit(offset + required);
+            out.position(offset);
+            out.put(encoder.type);
+            out.putLong(loggable.getTransactionId());
+            out.putShort((short) size);
+            out.putInt(encoder.checksum);
+            out.put(encoder.data, 0, size);
+            out.putShort((short) (size + LOG_ENTRY_HEADER_LEN));
         } catch (final BufferOverflowException e) {
             throw new TransactionException("Buffer overflow while writing log record: " + loggable.dump(), e);
+        } finally {
+            bufferCompleted.addAndGet(required);
         }
         pool.getTransactionManager().trackOperation(loggable.getTransactionId());
     }
@@ -279,10 +384,15 @@ public class Journal {
         if (inRecovery)
             {return;}
         flushBuffer();
-        if (forceSync || (fsync && syncOnCommit && currentLsn > lastSyncLsn)) {
+        final long lsn = currentLsn.get();
+        if (forceSync || (fsync && syncOnCommit && lsn > lastSyncLsn)) {
             syncThread.triggerSync();
-            lastSyncLsn = currentLsn;
+            lastSyncLsn = lsn;
         }
+        checkSizeLimit();
+    }
+
+    private void checkSizeLimit() {
         try {
             if (channel != null && channel.size() >= journalSizeLimit)
                 {pool.triggerCheckpoint();}
@@ -292,29 +402,198 @@ public class Journal {
     }
 
     /**
+     * Group commit: wait until the log record with the given LSN has been written
+     * to the journal file and - if sync-on-commit is enabled - forced to disk.
      * 
+     * Only one thread at a time flushes the log. Transactions committing while a
+     * flush is in progress queue up and are handled together by the next flush, so
+     * concurrent commits share a single write and force. All transactions covered by
+     * a flush are released at the same time.
+     * 
+     * @param lsn the LSN of the commit record
+     * @throws TransactionException if the journal could not be forced to disk
      */
-    private void flushBuffer() {
-        if (currentBuffer == null || channel == null)
-            {return;} // the db has probably been shut down already or not fully initialized
-        synchronized (latch) {
+    public void flushGroupCommit(long lsn) throws TransactionException {
+        if (inRecovery || lsn == Lsn.LSN_INVALID)
+            {return;}
+        while (true) {
+            synchronized (groupCommitMonitor) {
+                while (groupFlushInProgress && lastGroupLsn < lsn) {
+                    try {
+                        groupCommitMonitor.wait();
+                    } catch (final InterruptedException e) {
+                        //Nothing to do
+                    }
+                }
+                if (lastGroupLsn >= lsn)
+                    {return;}
+                groupFlushInProgress = true;
+            }
+            // this thread is the leader of the group
+            long flushedLsn = Lsn.LSN_INVALID;
             try {
-                if (currentBuffer.position() > 0) {
-                    currentBuffer.flip();
-                    int size = currentBuffer.remaining();
-                    while (currentBuffer.hasRemaining()) {
-                        channel.write(currentBuffer);
+                if (groupCommitDelay > 0) {
+                    // give other transactions the chance to join the group
+                    try {
+                        Thread.sleep(groupCommitDelay);
+                    } catch (final InterruptedException e) {
+                        //Nothing to do
                     }
-                    
-                    inFilePos += size;
-                    lastLsnWritten = currentLsn;
                 }
-            } catch (final IOException e) {
-                LOG.warn("Flushing log file failed!", e);
+                flushedLsn = flushAndForce();
+                if (flushedLsn < lsn)
+                    {throw new TransactionException("Failed to write commit record " + Lsn.dump(lsn) + " to the journal");}
             } finally {
-                currentBuffer.clear();
+                synchronized (groupCommitMonitor) {
+                    if (flushedLsn > lastGroupLsn)
+                        {lastGroupLsn = flushedLsn;}
+                    groupFlushInProgress = false;
+                    groupCommitMonitor.notifyAll();
+                }
+            }
+            checkSizeLimit();
+        }
+    }
+
+    /**
+     * Write the current buffer to the file and force it to disk if sync-on-commit is
+     * enabled. The buffer is released before the force, so other threads can continue
+     * to write log records while the force is in progress.
+     * 
+     * @return the last LSN written
+     * @throws TransactionException if the buffer could not be written or forced to disk
+     */
+    private long flushAndForce() throws TransactionException {
+        final long lsn;
+        synchronized (this) {
+            try {
+                writeCurrentBuffer();
+            } catch (final IOException e) {
+                throw new TransactionException("Failed to write journal: " + e.getMessage(), e);
+            }
+            lsn = lastLsnWritten;
+        }
+        if (syncOnCommit) {
+            synchronized (latch) {
+                if (channel != null) {
+                    try {
+                        channel.force(false);
+                    } catch (final IOException e) {
+                        throw new TransactionException("Failed to sync journal: " + e.getMessage(), e);
+                    }
+                }
+            }
+        }
+        return lsn;
+    }
+
+    /**
+     * Write the completed log entries in the current buffer to the file.
+     * 
+     * The buffer is sealed first, so writers cannot reserve new space. After all
+     * writers which already reserved space have completed their entries, the
+     * contiguous range of entries is written and the buffer is reopened.
+     */
+    private synchronized void flushBuffer() {
+        try {
+            writeCurrentBuffer();
+        } catch (final IOException e) {
+            LOG.warn("Flushing log file failed!", e);
+        }
+    }
+
+    /**
+     * Same as {@link #flushBuffer()}, but passes a write error on to the caller.
+     */
+    private synchronized void writeCurrentBuffer() throws IOException {
+        if (currentBuffer == null || channel == null)
+            {return;} // the db has probably been shut down already or not fully initialized
+        final int end = sealBuffer();
+        try {
+            writeBuffer(end);
+        } finally {
+            reopenBuffer();
+        }
+    }
+
+    /**
+     * Write the first end bytes of the sealed buffer to the file.
+     * 
+     * @param end
+     */
+    private void writeBuffer(int end) throws IOException {
+        if (end == 0)
+            {return;}
+        synchronized (latch) {
+            final ByteBuffer out = currentBuffer.duplicate();
+            out.limit(end);
+            out.position(0);
+            while (out.hasRemaining()) {
+                channel.write(out);
             }
+
+            inFilePos += end;
+            lastLsnWritten = currentLsn.get();
+        }
+    }
+
+    /**
+     * Prevent writers from reserving space in the current buffer and wait
+     * until all entries in the reserved range have been completed.
+     * 
+     * @return the end of the reserved range
+     */
+    private int sealBuffer() {
+        final int end = bufferReserved.getAndSet(currentBuffer.capacity());
+        while (bufferCompleted.get() < end) {
+            Thread.yield();
         }
+        return end;
+    }
+
+    /**
+     * Discard the contents of the current buffer and allow writers to
+     * reserve space again.
+     */
+    private void reopenBuffer() {
+        bufferCompleted.set(0);
+        bufferReserved.set(0);
+    }
+
+    /**
+     * Returns the LSN from which a fuzzy checkpoint started now would have to redo
+     * the journal: the last LSN assigned in the current file or, if nothing has been
+     * written to the current file yet, its start.
+     * 
+     * @return the redo LSN
+     */
+    public long getCheckpointRedoLsn() {
+        final int file = currentFile;
+        final long lsn = currentLsn.get();
+        if (lsn == Lsn.LSN_INVALID || Lsn.getFileNumber(lsn) != file)
+            {return Lsn.create(file, 1);}
+        return lsn;
+    }
+
+    /**
+     * Write a fuzzy checkpoint record to the journal and sync it. Fuzzy checkpoints
+     * never switch files, since the journal still contains entries of the active
+     * transactions and the redo LSN.
+     * 
+     * The record is not written if the journal file has been switched after the redo
+     * LSN was determined: a sharp checkpoint has been written in the meantime.
+     * 
+     * @param checkpoint
+     * @return true if the checkpoint has been written
+     * @throws TransactionException
+     */
+    public synchronized boolean checkpoint(Checkpoint checkpoint) throws TransactionException {
+        if (Lsn.getFileNumber(checkpoint.getRedoLsn()) != currentFile)
+            {return false;}
+        LOG.debug("Fuzzy checkpoint reached");
+        writeToLog(checkpoint);
+        flushToLog(true, true);
+        return true;
     }
 
     /**
@@ -381,7 +660,25 @@ public class Journal {
      * 
      * @throws LogException
      */
-    public void switchFiles() throws LogException {
+    public synchronized void switchFiles() throws LogException {
+        // log entries written while the file is switched must not use the old file number
+        final boolean seal = currentBuffer != null && channel != null;
+        try {
+            if (seal) {
+                try {
+                    writeBuffer(sealBuffer());
+                } catch (final IOException e) {
+                    LOG.warn("Flushing log file failed!", e);
+                }
+            }
+            openNextFile();
+        } finally {
+            if (seal)
+                {reopenBuffer();}
+        }
+    }
+
+    private void openNextFile() throws LogException {
         ++currentFile;
         final String fname = getFileName(currentFile);
         File file = new File(dir, fname);
@@ -498,6 +795,10 @@ public class Journal {
             //Nothing to do
         }
         currentBuffer = null;
+        EntryEncoder encoder;
+        while ((encoder = allEncoders.poll()) != null) {
+            encoder.release();
+        }
     }
 
     /**
@@ -544,4 +845,114 @@ public class Journal {
             file.delete();
         }
     }
+
+    /**
+     * Serializes the data of a log entry into a heap buffer, compresses it if
+     * compression is enabled and computes the checksum of the stored data.
+     * 
+     * The size of a compressed entry is only known after the data has been
+     * serialized, so entries which may be compressed are serialized before their
+     * LSN is assigned. All other entries are serialized afterwards. Checkpoint
+     * records store their own LSN and are thus never compressed.
+     */
+    private final class EntryEncoder {
+
+        private ByteBuffer buffer = ByteBuffer.allocate(8192);
+        private byte[] compressed = new byte[8192];
+        /** created when the first entry is compressed; null once released */
+        private Deflater deflater = null;
+        private boolean released = false;
+        private final CRC32 crc = new CRC32();
+
+        /** the entry type, with {@link Journal#COMPRESSED_ENTRY} set if the data is compressed */
+        byte type;
+        /** the data to store */
+        byte[] data;
+        /** length of the data to store */
+        int length;
+        /** checksum of the data to store */
+        int checksum;
+
+        /** true if the data has already been serialized by {@link #prepare(Loggable)} */
+        private boolean encoded;
+
+        /**
+         * Determine the type and length of the entry. Serializes and compresses
+         * the data if the entry may be compressed.
+         */
+        void prepare(Loggable loggable) throws TransactionException {
+            type = loggable.getLogType();
+            length = loggable.getLogSize();
+            encoded = false;
+            if (compress && length >= COMPRESS_MIN_SIZE && type != LogEntryTypes.CHECKPOINT) {
+                serialize(loggable);
+                compress();
+                computeChecksum();
+                encoded = true;
+            }
+        }
+
+        private synchronized void compress() {
+            // the journal is shut down: keep the data uncompressed
+            if (released)
+                {return;}
+            if (deflater == null)
+                {deflater = new Deflater(Deflater.BEST_SPEED);}
+            if (compressed.length < length)
+                {compressed = new byte[length];}
+            deflater.reset();
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            // keep the data uncompressed unless it gets smaller
+            final int deflated = deflater.deflate(compressed, 2, length - 3);
+            if (deflater.finished()) {
+                compressed[0] = (byte) (length >>> 8);
+                compressed[1] = (byte) length;
+                type |= COMPRESSED_ENTRY;
+                data = compressed;
+                length = deflated + 2;
+            }
+        }
+
+        /**
+         * Free the native memory used for compression. Called from another thread
+         * when the journal is shut down.
+         */
+        synchronized void release() {
+            released = true;
+            if (deflater != null) {
+                deflater.end();
+                deflater = null;
+            }
+        }
+
+        /**
+         * Serialize the data unless this has been done by {@link #prepare(Loggable)}.
+         * Called after the LSN of the entry has been set.
+         */
+        void encode(Loggable loggable) throws TransactionException {
+            if (encoded)
+                {return;}
+            serialize(loggable);
+            computeChecksum();
+        }
+
+        private void serialize(Loggable loggable) throws TransactionException {
+            if (length > buffer.capacity())
+                {buffer = ByteBuffer.allocate(length);}
+            buffer.clear().limit(length);
+            try {
+                loggable.write(buffer);
+            } catch (final BufferOverflowException e) {
+                throw new TransactionException("Buffer overflow while writing log record: " + loggable.dump(), e);
+            }
+            data = buffer.array();
+        }
+
+        private void computeChecksum() {
+            crc.reset();
+            crc.update(data, 0, length);
+            checksum = (int) crc.getValue();
+        }
+    }
 }
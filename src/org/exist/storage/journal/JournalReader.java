@@ -27,6 +27,9 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 import org.apache.log4j.Logger;
 import org.exist.storage.DBBroker;
@@ -45,7 +48,10 @@ public class JournalReader {
 
     private FileChannel fc;
     private ByteBuffer header = ByteBuffer.allocateDirect(Journal.LOG_ENTRY_HEADER_LEN);
-    private ByteBuffer payload = ByteBuffer.allocateDirect(8192);
+    private ByteBuffer payload = ByteBuffer.allocate(8192);
+    private ByteBuffer inflated = ByteBuffer.allocate(8192);
+    private final Inflater inflater = new Inflater();
+    private final CRC32 crc = new CRC32();
 
     private int fileNumber;
     private DBBroker broker;
@@ -141,11 +147,14 @@ public class JournalReader {
             if (bytes < Journal.LOG_ENTRY_HEADER_LEN)
                 {throw new LogException("Incomplete log entry header found: " + bytes);}
             header.flip();
-            final byte entryType = header.get();
+            final byte storedType = header.get();
             final long transactId = header.getLong();
             final short size = header.getShort();
+            final int checksum = header.getInt();
             if (fc.position() + size > fc.size())
                 {throw new LogException("Invalid length");}
+            final boolean compressed = (storedType & Journal.COMPRESSED_ENTRY) != 0;
+            final byte entryType = (byte) (storedType & ~Journal.COMPRESSED_ENTRY);
             final Loggable loggable = LogEntryTypes.create(entryType, broker, transactId);
             if (loggable == null)
                 {throw new LogException("Invalid log entry: " + entryType + "; size: " + size + "; id: " +
@@ -160,7 +169,16 @@ public class JournalReader {
             if (bytes < size + 2)
                 {throw new LogException("Incomplete log entry found!");}
             payload.flip();
-            loggable.read(payload);
+            crc.reset();
+            crc.update(payload.array(), 0, size);
+            if ((int) crc.getValue() != checksum)
+                {throw new LogException("Checksum mismatch in log entry: " + entryType + "; size: " + size +
+                        "; id: " + transactId + "; at: " + Lsn.dump(lsn) + ". The entry is incomplete or corrupted.");}
+            if (compressed) {
+                loggable.read(inflate(size));
+                payload.position(size);
+            } else
+                {loggable.read(payload);}
             final short prevLink = payload.getShort();
             if (prevLink != size + Journal.LOG_ENTRY_HEADER_LEN) {
                 LOG.warn("Bad pointer to previous: prevLink = " + prevLink + "; size = " + size + 
@@ -173,6 +191,31 @@ public class JournalReader {
         }
     }
 
+    /**
+     * Decompress the data of a compressed entry, which has been read into the payload buffer.
+     * 
+     * @param size length of the compressed data
+     * @return buffer containing the uncompressed data
+     * @throws LogException
+     */
+    private ByteBuffer inflate(int size) throws LogException {
+        final byte[] data = payload.array();
+        final int length = ((data[0] & 0xFF) << 8) | (data[1] & 0xFF);
+        if (length > inflated.capacity())
+            {inflated = ByteBuffer.allocate(length);}
+        inflater.reset();
+        inflater.setInput(data, 2, size - 2);
+        try {
+            final int bytes = inflater.inflate(inflated.array(), 0, length);
+            if (bytes != length || !inflater.finished())
+                {throw new LogException("Incomplete compressed log entry found!");}
+        } catch (final DataFormatException e) {
+            throw new LogException("Failed to decompress log entry: " + e.getMessage(), e);
+        }
+        inflated.clear().limit(length);
+        return inflated;
+    }
+
     /**
      * Re-position the file position so it points to the start of the entry
      * with the given LSN.
@@ -195,5 +238,6 @@ public class JournalReader {
             //Nothing to do
         }
         fc = null;
+        inflater.end();
     }
 }
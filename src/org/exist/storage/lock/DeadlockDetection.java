@@ -27,6 +27,9 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Deadlock detection for resource and collection locks. The static methods in this class
@@ -52,13 +55,28 @@ import java.util.Map;
  * the meantime, DeadlockDetection is used to detect deadlock situations as the one described
  * above. The lock classes can
  * then try to resolve the deadlock by suspending one thread.
+ *
+ * The waiting threads are kept in concurrent maps, so registering a waiter only contends
+ * with threads using the same segment of the map, and the checks done by the lock classes
+ * on every acquisition read the maps without locking. The checks therefore see the waiters
+ * registered at the time of the lookup, which is sufficient as the state of the locks
+ * themselves may change concurrently anyway.
+ *
+ * The number of lock requests which had to wait and the total time spent waiting are
+ * recorded and reported by the LockManager MBean.
  */
 public class DeadlockDetection {
 
-    private final static Object latch = new Object();
+    private final static ConcurrentMap<Thread, WaitingThread> waitForResource =
+        new ConcurrentHashMap<Thread, WaitingThread>();
+    private final static ConcurrentMap<Thread, Lock> waitForCollection = new ConcurrentHashMap<Thread, Lock>();
+
+    // the time at which each waiting thread started to wait, in milliseconds
+    private final static ConcurrentMap<Thread, Long> waitingSince = new ConcurrentHashMap<Thread, Long>();
 
-    private final static Map<Thread, WaitingThread> waitForResource = new HashMap<Thread, WaitingThread>();
-    private final static Map<Thread, Lock> waitForCollection = new HashMap<Thread, Lock>();
+    private final static AtomicLong resourceWaits = new AtomicLong();
+    private final static AtomicLong collectionWaits = new AtomicLong();
+    private final static AtomicLong waitTime = new AtomicLong();
 
     /**
      * Register a thread as waiting for a resource lock.
@@ -67,9 +85,8 @@ public class DeadlockDetection {
      * @param waiter the WaitingThread object which wraps around the thread
      */
     public static void addResourceWaiter(Thread thread, WaitingThread waiter) {
-        synchronized (latch) {
-            waitForResource.put(thread, waiter);
-        }
+        if (waitForResource.put(thread, waiter) == null)
+            {startWaiting(thread, resourceWaits);}
     }
 
     /**
@@ -79,18 +96,18 @@ public class DeadlockDetection {
      * @return lock
      */
     public static Lock clearResourceWaiter(Thread thread) {
-        synchronized (latch) {
-            final WaitingThread waiter = waitForResource.remove(thread);
-            if (waiter != null)
-                {return waiter.getLock();}
-            return null;
+        final WaitingThread waiter = waitForResource.remove(thread);
+        if (waiter != null) {
+            stopWaiting(thread);
+            return waiter.getLock();
         }
+        return null;
     }
 
     public static WaitingThread getResourceWaiter(Thread thread) {
-        synchronized (latch) {
-            return waitForResource.get(thread);
-        }
+        if (thread == null)
+            {return null;}
+        return waitForResource.get(thread);
     }
 
     /**
@@ -105,15 +122,15 @@ public class DeadlockDetection {
      * @return waiting thread
      */
     public static WaitingThread deadlockCheckResource(Thread threadA, Thread threadB) {
-        synchronized (latch) {
-            //Check if threadB is waiting for a resource lock
-            final WaitingThread waitingThread = waitForResource.get(threadB);
-            //If lock != null, check if thread B waits for a resource lock currently held by thread A
-            if (waitingThread != null) {
-                return waitingThread.getLock().hasLock(threadA) ? waitingThread : null;
-            }
-            return null;
+        if (threadB == null)
+            {return null;}
+        //Check if threadB is waiting for a resource lock
+        final WaitingThread waitingThread = waitForResource.get(threadB);
+        //If lock != null, check if thread B waits for a resource lock currently held by thread A
+        if (waitingThread != null) {
+            return waitingThread.getLock().hasLock(threadA) ? waitingThread : null;
         }
+        return null;
     }
 
     /**
@@ -125,53 +142,53 @@ public class DeadlockDetection {
      * @return true if threadB is currently blocked by a lock held by threadA
      */
     public static boolean isBlockedBy(Thread threadA, Thread threadB) {
-        synchronized (latch) {
-            //Check if threadB is waiting for a resource lock
-            final WaitingThread waitingThread = waitForResource.get(threadB);
-            //If lock != null, check if thread B waits for a resource lock currently held by thread A
-            if (waitingThread != null) {
-                return waitingThread.getLock().hasLock(threadA);
-            }
-            return false;
+        if (threadB == null)
+            {return false;}
+        //Check if threadB is waiting for a resource lock
+        final WaitingThread waitingThread = waitForResource.get(threadB);
+        //If lock != null, check if thread B waits for a resource lock currently held by thread A
+        if (waitingThread != null) {
+            return waitingThread.getLock().hasLock(threadA);
         }
+        return false;
     }
 
     public static boolean wouldDeadlock(Thread waiter, Thread owner, List<WaitingThread> waiters) {
-        synchronized (latch) {
-            final WaitingThread wt = waitForResource.get(owner);
-            if (wt != null) {
-                if (waiters.contains(wt)) {
-                    // probably a deadlock, but not directly connected to the current thread
-                    // return to avoid endless loop
-                    return false;
-                }
-                waiters.add(wt);
-                final Lock l = wt.getLock();
-                final Thread t = ((MultiReadReentrantLock) l).getWriteLockedThread();
-                if (t == owner) {
-                    return false;
-                }
-                if (t != null) {
-                    if (t == waiter)
-                        {return true;}
-                    return wouldDeadlock(waiter, t, waiters);
-                }
+        if (owner == null)
+            {return false;}
+        final WaitingThread wt = waitForResource.get(owner);
+        if (wt != null) {
+            if (waiters.contains(wt)) {
+                // probably a deadlock, but not directly connected to the current thread
+                // return to avoid endless loop
+                return false;
+            }
+            waiters.add(wt);
+            final Lock l = wt.getLock();
+            final Thread t = ((MultiReadReentrantLock) l).getWriteLockedThread();
+            if (t == owner) {
                 return false;
             }
-            final Lock l = waitForCollection.get(owner);
-            if (l != null) {
-                final Thread t = ((ReentrantReadWriteLock) l).getOwner();
-                if (t == owner) {
-                    return false;
-                }
-                if (t != null) {
-                    if (t == waiter)
-                        {return true;}
-                    return wouldDeadlock(waiter, t, waiters);
-                }
+            if (t != null) {
+                if (t == waiter)
+                    {return true;}
+                return wouldDeadlock(waiter, t, waiters);
             }
             return false;
         }
+        final Lock l = waitForCollection.get(owner);
+        if (l != null) {
+            final Thread t = ((ReentrantReadWriteLock) l).getOwner();
+            if (t == owner) {
+                return false;
+            }
+            if (t != null) {
+                if (t == waiter)
+                    {return true;}
+                return wouldDeadlock(waiter, t, waiters);
+            }
+        }
+        return false;
     }
 
     /**
@@ -181,21 +198,61 @@ public class DeadlockDetection {
      * @param lock the lock object
      */
     public static void addCollectionWaiter(Thread waiter, Lock lock) {
-        synchronized (latch) {
-            waitForCollection.put(waiter, lock);
-        }
+        if (waitForCollection.put(waiter, lock) == null)
+            {startWaiting(waiter, collectionWaits);}
     }
 
     public static Lock clearCollectionWaiter(Thread waiter) {
-        synchronized (latch) {
-            return waitForCollection.remove(waiter);
-        }
+        final Lock lock = waitForCollection.remove(waiter);
+        if (lock != null)
+            {stopWaiting(waiter);}
+        return lock;
     }
 
     public static Lock isWaitingFor(Thread waiter) {
-        synchronized (latch) {
-            return waitForCollection.get(waiter);
-        }
+        if (waiter == null)
+            {return null;}
+        return waitForCollection.get(waiter);
+    }
+
+    private static void startWaiting(Thread thread, AtomicLong counter) {
+        counter.incrementAndGet();
+        waitingSince.put(thread, Long.valueOf(System.currentTimeMillis()));
+    }
+
+    private static void stopWaiting(Thread thread) {
+        final Long since = waitingSince.remove(thread);
+        if (since != null)
+            {waitTime.addAndGet(System.currentTimeMillis() - since.longValue());}
+    }
+
+    /**
+     * @return the number of resource lock requests which had to wait
+     */
+    public static long getResourceWaits() {
+        return resourceWaits.get();
+    }
+
+    /**
+     * @return the number of collection lock requests which had to wait
+     */
+    public static long getCollectionWaits() {
+        return collectionWaits.get();
+    }
+
+    /**
+     * @return the total time in milliseconds threads have spent waiting for a
+     * resource or collection lock, not including the threads still waiting
+     */
+    public static long getWaitTime() {
+        return waitTime.get();
+    }
+
+    /**
+     * @return the number of threads currently waiting for a resource or collection lock
+     */
+    public static int getWaitingThreadCount() {
+        return waitForResource.size() + waitForCollection.size();
     }
 
     public static Map<String, LockInfo> getWaitingThreads() {
@@ -85,6 +85,12 @@ public class MultiReadReentrantLock implements Lock {
      */
     private List<WaitingThread> waitingForWriteLock = null;
 
+    /**
+     * Incremented whenever a write lock is granted and when it is released,
+     * so the value is odd while a thread holds the write lock.
+     */
+    private volatile long writeVersion = 0;
+
     /**
      * Default constructor.
      */
@@ -105,7 +111,9 @@ public class MultiReadReentrantLock implements Lock {
 
     public boolean acquire(int mode) throws LockException {
         if (mode == Lock.NO_LOCK) {
-            LOG.warn("acquired with no lock !");
+            // used by snapshot reads, which validate the write version instead
+            if (LOG.isDebugEnabled())
+                {LOG.debug("acquired with no lock !");}
             return true;
         }
         switch (mode) {
@@ -180,6 +188,7 @@ public class MultiReadReentrantLock implements Lock {
             }
             if (writeLockedThread == null && grantWriteLock()) {
                 writeLockedThread = thisThread;
+                writeVersion++;
                 outstandingWriteLocks++;
                 return true;
             }
@@ -290,6 +299,7 @@ public class MultiReadReentrantLock implements Lock {
             if (outstandingWriteLocks > 0) {
                 return;
             }
+            writeVersion++;
             //If another thread is waiting for a write lock, we immediately 
             //pass control to it. No further checks should be required here.
             if (grantWriteLockAfterRead()) {
@@ -297,6 +307,7 @@ public class MultiReadReentrantLock implements Lock {
                 removeWaitingWrite(waiter);
                 DeadlockDetection.clearResourceWaiter(waiter.getThread());
                 writeLockedThread = waiter.getThread();
+                writeVersion++;
                 synchronized (writeLockedThread) {
                     writeLockedThread.notifyAll();
                 }
@@ -329,6 +340,7 @@ public class MultiReadReentrantLock implements Lock {
                 removeWaitingWrite(waiter);
                 DeadlockDetection.clearResourceWaiter(waiter.getThread());
                 writeLockedThread = waiter.getThread();
+                writeVersion++;
                 synchronized (writeLockedThread) {
                     writeLockedThread.notifyAll();
                 }
@@ -466,6 +478,18 @@ public class MultiReadReentrantLock implements Lock {
     public Thread getWriteLockedThread() {
         return writeLockedThread;
     }
+
+    /**
+     * Returns a version number which changes whenever a write lock is granted
+     * or released. An odd number means that a thread currently holds the write lock.
+     * Readers which do not lock the resource can compare the version before and
+     * after reading to find out if the resource was modified in between.
+     *
+     * @return the current write version
+     */
+    public long getWriteVersion() {
+        return writeVersion;
+    }
     
     /**
      * Check if the specified thread holds either a write or a read lock
@@ -186,6 +186,7 @@ public class ReentrantReadWriteLock implements Lock {
                         }
                     }
                 } catch (final InterruptedException ex) {
+                    DeadlockDetection.clearCollectionWaiter(caller);
                     notify();
                     throw new LockException("Interrupted while waiting for lock");
                 }
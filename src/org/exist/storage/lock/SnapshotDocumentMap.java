@@ -0,0 +1,106 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.storage.lock;
+
+import org.exist.dom.DocumentImpl;
+import org.exist.util.hashtable.Int2ObjectHashMap;
+
+/**
+ * This map is used by the XQuery engine instead of document locks if a read-only
+ * query runs in snapshot mode. It records the write version of every document the
+ * query loads, see {@link MultiReadReentrantLock#getWriteVersion()}.
+ *
+ * Once the query has finished, {@link #isValid()} tells if none of the documents was
+ * locked for write while the query was running, i.e. the query saw a consistent
+ * version of all of them. Otherwise, the query has to be repeated.
+ *
+ * A query which tries to modify the database is marked as updating, see
+ * {@link #setUpdating()}. It must not be repeated and has to run with the usual
+ * document locks instead.
+ */
+public class SnapshotDocumentMap extends Int2ObjectHashMap<Object> {
+
+    private boolean valid = true;
+
+    private boolean updating = false;
+
+    public SnapshotDocumentMap() {
+        super(29, 1.75);
+    }
+
+    public void add(DocumentImpl document) {
+        final SnapshotDocument entry = (SnapshotDocument) get(document.getDocId());
+        if (entry == null) {
+            final long version = getWriteVersion(document);
+            // the document is currently being modified
+            if ((version & 1) != 0)
+                {valid = false;}
+            put(document.getDocId(), new SnapshotDocument(document, version));
+        } else if (entry.document != document) {
+            // the document has been replaced in the meantime
+            valid = false;
+        }
+    }
+
+    /**
+     * Check if the documents are still unchanged.
+     *
+     * @return true if no document was locked for write since it was added
+     */
+    public boolean isValid() {
+        if (!valid)
+            {return false;}
+        for(int idx = 0; idx < tabSize; idx++) {
+            if(values[idx] == null || values[idx] == REMOVED)
+                {continue;}
+            final SnapshotDocument entry = (SnapshotDocument) values[idx];
+            if (getWriteVersion(entry.document) != entry.version)
+                {return false;}
+        }
+        return true;
+    }
+
+    /**
+     * Record that the query tried to call a function or expression which may
+     * modify the database.
+     */
+    public void setUpdating() {
+        updating = true;
+    }
+
+    public boolean isUpdating() {
+        return updating;
+    }
+
+    private static long getWriteVersion(DocumentImpl document) {
+        return ((MultiReadReentrantLock) document.getUpdateLock()).getWriteVersion();
+    }
+
+    private static class SnapshotDocument {
+        private final DocumentImpl document;
+        private final long version;
+        public SnapshotDocument(DocumentImpl document, long version) {
+            this.document = document;
+            this.version = version;
+        }
+    }
+}
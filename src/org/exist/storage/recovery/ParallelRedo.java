@@ -0,0 +1,164 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.storage.recovery;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.log4j.Logger;
+import org.exist.storage.journal.FileLoggable;
+import org.exist.storage.journal.LogException;
+import org.exist.storage.journal.Loggable;
+import org.exist.storage.txn.TxnAbort;
+
+/**
+ * Redoes journal entries on a fixed number of threads during recovery.
+ *
+ * Entries are partitioned by the file they change: all entries for one file
+ * are passed to the same thread and redone in the order in which they were
+ * submitted, i.e. in LSN order. Entries for different files are redone in parallel.
+ */
+class ParallelRedo {
+
+    private final static Logger LOG = Logger.getLogger(ParallelRedo.class);
+
+    /** maximum number of entries waiting to be redone by a single thread */
+    private final static int QUEUE_SIZE = 1024;
+
+    /** signals a worker thread that no more entries will follow */
+    private final static Loggable END = new TxnAbort(-1);
+
+    private final Worker[] workers;
+
+    /** the first entry which could not be redone */
+    private volatile Loggable failedEntry = null;
+
+    private volatile Exception failure = null;
+
+    private boolean stopped = false;
+
+    ParallelRedo(int threads) {
+        workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(i);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Queue the entry to be redone by the thread responsible for its file.
+     * Blocks if that thread is too far behind.
+     *
+     * @param loggable
+     * @throws LogException if one of the threads failed to redo an entry
+     */
+    void redo(FileLoggable loggable) throws LogException {
+        checkFailure();
+        final Worker worker = workers[(loggable.getFileId() & 0xFF) % workers.length];
+        try {
+            worker.queue.put(loggable);
+        } catch (final InterruptedException e) {
+            throw new LogException("Interrupted while waiting for the redo threads", e);
+        }
+    }
+
+    /**
+     * Wait until all queued entries have been redone and stop the threads.
+     *
+     * @throws LogException if one of the threads failed to redo an entry
+     */
+    void finish() throws LogException {
+        stop();
+        checkFailure();
+    }
+
+    /**
+     * Stop the threads after the queued entries have been processed. Does not
+     * report failures, so it can be called to clean up after an error.
+     */
+    void stop() {
+        if (stopped)
+            {return;}
+        stopped = true;
+        for (int i = 0; i < workers.length; i++) {
+            try {
+                workers[i].queue.put(END);
+            } catch (final InterruptedException e) {
+                workers[i].interrupt();
+            }
+        }
+        for (int i = 0; i < workers.length; i++) {
+            try {
+                workers[i].join();
+            } catch (final InterruptedException e) {
+                //Nothing to do
+            }
+        }
+    }
+
+    private void checkFailure() throws LogException {
+        if (failure != null)
+            {throw new LogException("Failed to redo log entry " + failedEntry.dump() + ": " +
+                failure.getMessage(), failure);}
+    }
+
+    private synchronized void failed(Loggable loggable, Exception e) {
+        if (failure == null) {
+            failedEntry = loggable;
+            failure = e;
+        }
+    }
+
+    private class Worker extends Thread {
+
+        private final BlockingQueue<Loggable> queue = new ArrayBlockingQueue<Loggable>(QUEUE_SIZE);
+
+        Worker(int id) {
+            super("exist-recovery-redo-" + id);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final Loggable next;
+                try {
+                    next = queue.take();
+                } catch (final InterruptedException e) {
+                    LOG.warn("Redo thread interrupted", e);
+                    return;
+                }
+                if (next == END)
+                    {return;}
+                // after a failure, only drain the queue so the reader does not block
+                if (failure != null)
+                    {continue;}
+                try {
+                    next.redo();
+                } catch (final Exception e) {
+                    LOG.error("Exception caught while redoing log entry " + next.dump(), e);
+                    failed(next, e);
+                }
+            }
+        }
+    }
+}
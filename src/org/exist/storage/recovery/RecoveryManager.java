@@ -26,6 +26,7 @@ import java.io.File;
 import org.apache.log4j.Logger;
 import org.exist.storage.DBBroker;
 import org.exist.storage.BrokerPool;
+import org.exist.storage.journal.FileLoggable;
 import org.exist.storage.journal.Journal;
 import org.exist.storage.journal.JournalReader;
 import org.exist.storage.journal.LogEntryTypes;
@@ -56,11 +57,24 @@ public class RecoveryManager {
 	private Journal logManager;
 	private DBBroker broker;
     private boolean restartOnError;
+    private int redoThreads;
 
 	public RecoveryManager(DBBroker broker, Journal log, boolean restartOnError) {
+        this(broker, log, restartOnError, 1);
+	}
+
+	/**
+	 * @param broker
+	 * @param log
+	 * @param restartOnError
+	 * @param redoThreads number of threads used to redo entries for different files
+	 * in parallel. If 1, all entries are redone sequentially.
+	 */
+	public RecoveryManager(DBBroker broker, Journal log, boolean restartOnError, int redoThreads) {
         this.broker = broker;
 		this.logManager = log;
         this.restartOnError = restartOnError;
+        this.redoThreads = redoThreads;
 	}
 	
 	/**
@@ -92,7 +106,8 @@ public class RecoveryManager {
                     	final Checkpoint checkpoint = (Checkpoint) lastLog;
                     	// Found a checkpoint. To be sure it is indeed a valid checkpoint
                     	// record, we compare the LSN stored in it with the current LSN.
-                    	if (checkpoint.getStoredLsn() == checkpoint.getLsn()) {
+                    	// A fuzzy checkpoint does not guarantee that all pages have been written.
+                    	if (checkpoint.getStoredLsn() == checkpoint.getLsn() && !checkpoint.isFuzzy()) {
                     		checkpointFound = true;
                     		LOG.debug("Database is in clean state. Last checkpoint: " + 
                     				checkpoint.getDateString());
@@ -126,6 +141,11 @@ public class RecoveryManager {
 				            } else if (next.getLogType() == LogEntryTypes.CHECKPOINT) {
 				            	txnsStarted.clear();
 	        					lastCheckpoint = (Checkpoint) next;
+	        					// transactions still running at a fuzzy checkpoint
+	        					final long[] active = lastCheckpoint.getActiveTransactions();
+	        					for (int i = 0; i < active.length; i++) {
+	        						txnsStarted.put(active[i], next);
+	        					}
 				            }
 	        				lastLsn = next.getLsn();
 	        			}
@@ -137,13 +157,16 @@ public class RecoveryManager {
                     }
 
 	    			// if the last checkpoint record is not the last record in the file
-	    			// we need a recovery.
-	    			if ((lastCheckpoint == null || lastCheckpoint.getLsn() != lastLsn) &&
-	    					txnsStarted.size() > 0) {
+	    			// we need a recovery. Changes logged before a fuzzy checkpoint may not
+	    			// have been written, so they always need to be redone.
+	    			if (((lastCheckpoint == null || lastCheckpoint.getLsn() != lastLsn) &&
+	    					txnsStarted.size() > 0) || (lastCheckpoint != null && lastCheckpoint.isFuzzy())) {
 	    				LOG.info("Dirty transactions: " + txnsStarted.size());
 	    				// starting recovery: reposition the log reader to the last checkpoint
 						if (lastCheckpoint == null)
 						    {reader.position(1);}
+						else if (lastCheckpoint.isFuzzy())
+						    {reader.position(lastCheckpoint.getRedoLsn());}
 						else {
 						    reader.position(lastCheckpoint.getLsn());
 						    next = reader.nextEntry();
@@ -152,7 +175,7 @@ public class RecoveryManager {
                         try {
                             LOG.info("Running recovery...");
                             broker.getBrokerPool().reportStatus("Running recovery...");
-                            doRecovery(txnsStarted.size(), last, reader, lastLsn);
+                            doRecovery(txnsStarted.size(), last, reader, lastLsn, lastCheckpoint);
                         } catch (final LogException e) {
                             // if restartOnError == true, we try to bring up the database even if there
                             // are errors. Otherwise, an exception is thrown, which will stop the db initialization
@@ -186,9 +209,11 @@ public class RecoveryManager {
      * 
      * @param reader
      * @param lastLsn
+     * @param checkpoint the last checkpoint found or null
      * @throws LogException
      */
-    private void doRecovery(int txnCount, File last, JournalReader reader, long lastLsn) throws LogException {
+    private void doRecovery(int txnCount, File last, JournalReader reader, long lastLsn,
+            Checkpoint checkpoint) throws LogException {
         if (LOG.isInfoEnabled())
             {LOG.info("Running recovery ...");}
         logManager.setInRecovery(true);
@@ -196,6 +221,13 @@ public class RecoveryManager {
         try {
             // map to track running transactions
             final Long2ObjectHashMap<Loggable> runningTxns = new Long2ObjectHashMap<Loggable>();
+            // transactions running at a fuzzy checkpoint may have started before the redo LSN
+            if (checkpoint != null && checkpoint.isFuzzy()) {
+                final long[] active = checkpoint.getActiveTransactions();
+                for (int i = 0; i < active.length; i++) {
+                    runningTxns.put(active[i], checkpoint);
+                }
+            }
 
             // ------- REDO ---------
             if (LOG.isInfoEnabled())
@@ -203,9 +235,11 @@ public class RecoveryManager {
             final ProgressBar progress = new ProgressBar("Redo ", last.length());
             Loggable next = null;
             int redoCnt = 0;
+            // entries changing a paged file are redone in parallel per file
+            final ParallelRedo parallelRedo = redoThreads > 1 ? new ParallelRedo(redoThreads) : null;
             try {
                 while ((next = reader.nextEntry()) != null) {
-                    SanityCheck.ASSERT(next.getLogType() != LogEntryTypes.CHECKPOINT,
+                    SanityCheck.ASSERT(next.getLogType() != LogEntryTypes.CHECKPOINT || ((Checkpoint) next).isFuzzy(),
                             "Found a checkpoint during recovery run! This should not ever happen.");
                     if (next.getLogType() == LogEntryTypes.TXN_START) {
                         // new transaction starts: add it to the transactions table
@@ -220,12 +254,19 @@ public class RecoveryManager {
                     }
         //            LOG.debug("Redo: " + next.dump());
                     // redo the log entry
-                    next.redo();
+                    if (parallelRedo != null && next instanceof FileLoggable)
+                        {parallelRedo.redo((FileLoggable) next);}
+                    else
+                        {next.redo();}
                     progress.set(Lsn.getOffset(next.getLsn()));
                     if (next.getLsn() == lastLsn)
                         {break;} // last readable entry reached. Stop here.
                 }
+                if (parallelRedo != null)
+                    {parallelRedo.finish();}
             } catch (final Exception e) {
+                if (parallelRedo != null)
+                    {parallelRedo.stop();}
                 LOG.error("Exception caught while redoing transactions. Aborting recovery to avoid possible damage. " +
                     "Before starting again, make sure to run a check via the emergency export tool.", e);
                 if (next != null)
@@ -253,8 +294,9 @@ public class RecoveryManager {
                             }
                         } else if (next.getLogType() == LogEntryTypes.TXN_COMMIT) {
                             // ignore already committed transaction
-                        } else if (next.getLogType() == LogEntryTypes.CHECKPOINT) {
-                            // found last checkpoint: undo is completed
+                        } else if (next.getLogType() == LogEntryTypes.CHECKPOINT && !((Checkpoint) next).isFuzzy()) {
+                            // found last sharp checkpoint: undo is completed. Transactions
+                            // running at a fuzzy checkpoint may have started before it
                             break;
                         }
 
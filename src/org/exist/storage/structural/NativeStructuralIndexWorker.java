@@ -10,6 +10,7 @@ import org.exist.storage.btree.IndexQuery;
 import org.exist.storage.btree.Value;
 import org.exist.storage.lock.Lock;
 import org.exist.storage.txn.Txn;
+import org.exist.storage.txn.TxnListener;
 import org.exist.util.ByteConversion;
 import org.exist.util.DatabaseConfigurationException;
 import org.exist.util.LockException;
@@ -34,6 +35,15 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
     private DocumentImpl document;
     private Map<QName, List<NodeProxy>> pending = new TreeMap<QName, List<NodeProxy>>();
 
+    /** the maximum number of entries deferred in bulk-load mode before they are written */
+    public final static int MAX_DEFERRED = 200000;
+
+    /** index entries deferred in bulk-load mode, sorted by key; null if not in bulk-load mode */
+    private TreeMap<Value, Long> deferred = null;
+
+    /** the last transaction which deferred entries; they are written when it ends */
+    private Txn deferringTransaction = null;
+
     public NativeStructuralIndexWorker(NativeStructuralIndex index) {
         this.index = index;
     }
@@ -62,8 +72,19 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
      */
     public NodeSet findElementsByTagName(byte type, DocumentSet docs, QName qname, NodeSelector selector) {
         final Lock lock = index.btree.getLock();
-        final NewArrayNodeSet result = new NewArrayNodeSet(docs.getDocumentCount(), 256);
-        final FindElementsCallback callback = new FindElementsCallback(type, result, docs, selector);
+        final NodeSet result;
+        final BTreeCallback callback;
+        if (selector == null) {
+            // no proxies needed before the nodes are actually used
+            final ColumnarNodeSet nodes = new ColumnarNodeSet(index.getBrokerPool().getNodeFactory(),
+                type == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE);
+            callback = new CollectElementsCallback(nodes, docs);
+            result = nodes;
+        } else {
+            final NewArrayNodeSet nodes = new NewArrayNodeSet(docs.getDocumentCount(), 256);
+            callback = new FindElementsCallback(type, nodes, docs, selector);
+            result = nodes;
+        }
         // scan the document set to find document id ranges to query
         final List<Range> ranges = new ArrayList<Range>();
         Range next = null;
@@ -260,23 +281,42 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
             final NodeId nodeId = readNodeId(key, pointer);
             final DocumentImpl doc = docs.getDoc(readDocId(key));
             if (doc != null) {
-                if (selector == null) {
-                    final NodeProxy storedNode = new NodeProxy(doc, nodeId,
-                        type == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE, pointer);
+                final NodeProxy storedNode = selector.match(doc, nodeId);
+                if (storedNode != null) {
+                    storedNode.setNodeType(type == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE);
+                    storedNode.setInternalAddress(pointer);
                     result.add(storedNode);
-                } else {
-                    final NodeProxy storedNode = selector.match(doc, nodeId);
-                    if (storedNode != null) {
-                        storedNode.setNodeType(type == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE);
-                        storedNode.setInternalAddress(pointer);
-                        result.add(storedNode);
-                    }
                 }
             }
             return true;
         }
     }
 
+    /**
+     * Appends all nodes found to a {@link ColumnarNodeSet}, copying the node ids
+     * from the keys.
+     */
+    private class CollectElementsCallback implements BTreeCallback {
+        DocumentSet docs;
+        ColumnarNodeSet result;
+        DocumentImpl lastDoc = null;
+
+        CollectElementsCallback(ColumnarNodeSet result, DocumentSet docs) {
+            this.result = result;
+            this.docs = docs;
+        }
+
+        public boolean indexInfo(Value value, long pointer) throws TerminatedException {
+            final byte[] key = value.getData();
+            final int docId = readDocId(key);
+            if (lastDoc == null || lastDoc.getDocId() != docId)
+                {lastDoc = docs.getDoc(docId);}
+            if (lastDoc != null)
+                {result.append(lastDoc, readNodeIdUnits(key, pointer), key, 9, pointer);}
+            return true;
+        }
+    }
+
     private class FindDescendantsCallback implements BTreeCallback {
         int axis;
         byte type;
@@ -378,15 +418,38 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         return null;
     }
 
+    /**
+     * Switch bulk-load mode on or off. In bulk-load mode, the entries of stored documents
+     * are not written to the btree when the document is flushed. They are collected
+     * across documents instead and written in key order, once {@link #MAX_DEFERRED} entries
+     * are pending, the transaction which stored the documents is committed or aborted, or
+     * bulk-load mode is switched off. Inserting the keys in ascending order, the btree fills
+     * its pages sequentially instead of touching random pages for every document. Nodes of
+     * documents stored in bulk-load mode may thus not be found by queries until the storing
+     * transaction has ended.
+     */
+    public void setBulkLoad(boolean bulkLoad) {
+        if (bulkLoad) {
+            if (deferred == null)
+                {deferred = new TreeMap<Value, Long>();}
+        } else {
+            writeDeferred();
+            deferred = null;
+        }
+    }
+
     public void flush() {
         switch (mode) {
             case StreamListener.STORE:
                 processPending();
                 break;
             case StreamListener.REMOVE_ALL_NODES:
+                // entries of the document may still be deferred
+                writeDeferred();
                 removeDocument(document);
                 break;
             case StreamListener.REMOVE_SOME_NODES:
+                writeDeferred();
                 removeSome();
         }
     }
@@ -471,7 +534,7 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(fromKey), new Value(toKey));
         final Lock lock = index.btree.getLock();
         try {
-            lock.acquire(Lock.WRITE_LOCK);
+            lock.acquire(Lock.READ_LOCK);
             index.btree.query(query, new BTreeCallback() {
                 public boolean indexInfo(Value value, long pointer) throws TerminatedException {
                     final QName qname = readQName(value.getData());
@@ -485,13 +548,14 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
             NativeStructuralIndex.LOG.warn("Exception caught while reading structural index for document " +
                 doc.getURI() + ": " + e.getMessage(), e);
         } finally {
-            lock.release(Lock.WRITE_LOCK);
+            lock.release(Lock.READ_LOCK);
         }
         return qnames;
     }
 
     @Override
     public void removeCollection(Collection collection, DBBroker broker) throws PermissionDeniedException {
+        writeDeferred();
         for (final Iterator<DocumentImpl> i = collection.iterator(broker); i.hasNext(); ) {
             final DocumentImpl doc = i.next();
             removeDocument(doc);
@@ -533,6 +597,10 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
     private void processPending() {
         if (pending.size() == 0)
             {return;}
+        if (deferred != null) {
+            deferPending();
+            return;
+        }
 
         try {
             final Lock lock = index.btree.getLock();
@@ -565,6 +633,73 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         }
     }
 
+    private void deferPending() {
+        try {
+            for (final Map.Entry<QName,List<NodeProxy>> entry: pending.entrySet()) {
+                final QName qname = entry.getKey();
+                for (final NodeProxy proxy : entry.getValue()) {
+                    final byte[] key = computeKey(qname.getNameType(), qname, document.getDocId(), proxy.getNodeId());
+                    deferred.put(new Value(key), Long.valueOf(computeValue(proxy)));
+                }
+                deferred.put(new Value(computeDocKey(qname.getNameType(), document.getDocId(), qname)), Long.valueOf(0));
+            }
+        } finally {
+            pending.clear();
+        }
+        if (deferred.size() >= MAX_DEFERRED)
+            {writeDeferred();}
+    }
+
+    /**
+     * Register a listener which writes the deferred entries when the transaction
+     * storing the current document ends, so other brokers will see them once the
+     * document has been committed.
+     */
+    private void writeDeferredOnEnd(final Txn transaction) {
+        if (transaction == null || transaction == deferringTransaction)
+            {return;}
+        deferringTransaction = transaction;
+        transaction.registerListener(new TxnListener() {
+            public void commit() {
+                end();
+            }
+
+            public void abort() {
+                end();
+            }
+
+            private void end() {
+                if (deferringTransaction == transaction)
+                    {deferringTransaction = null;}
+                writeDeferred();
+            }
+        });
+    }
+
+    /**
+     * Write the entries deferred in bulk-load mode to the btree, in ascending key order.
+     */
+    private void writeDeferred() {
+        if (deferred == null || deferred.isEmpty())
+            {return;}
+        final Lock lock = index.btree.getLock();
+        try {
+            lock.acquire(Lock.WRITE_LOCK);
+            if (NativeStructuralIndex.LOG.isDebugEnabled())
+                {NativeStructuralIndex.LOG.debug("Writing " + deferred.size() + " deferred entries");}
+            for (final Map.Entry<Value, Long> entry : deferred.entrySet()) {
+                index.btree.addValue(entry.getKey(), entry.getValue().longValue());
+            }
+        } catch (final LockException e) {
+            NativeStructuralIndex.LOG.warn("Failed to lock structural index: " + e.getMessage(), e);
+        } catch (final Exception e) {
+            NativeStructuralIndex.LOG.warn("Exception caught while writing to structural index: " + e.getMessage(), e);
+        } finally {
+            lock.release(Lock.WRITE_LOCK);
+            deferred.clear();
+        }
+    }
+
     private byte[] computeKey(byte type, QName qname, int documentId, NodeId nodeId) {
         final SymbolTable symbols = index.getBrokerPool().getSymbols();
         final short sym = symbols.getSymbol(qname.getLocalName());
@@ -636,13 +771,16 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
     }
 
     private NodeId readNodeId(byte[] key, long value) {
+        return index.getBrokerPool().getNodeFactory().createFromData(readNodeIdUnits(key, value), key, 9);
+    }
+
+    private int readNodeIdUnits(byte[] key, long value) {
         // extra number of bits of the node id is encoded in the long address
         short bits = (short)((value >>> 24) & 0xFFL);
         if (bits == 0)
             {bits = 8;}
         // compute total number of bits for node id
-        final int units = (key.length - 10) * 8 + bits;
-        return index.getBrokerPool().getNodeFactory().createFromData(units, key, 9);
+        return (key.length - 10) * 8 + bits;
     }
 
     private QName readQName(byte[] key) {
@@ -664,6 +802,8 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         @Override
         public void startElement(Txn transaction, ElementImpl element, NodePath path) {
             super.startElement(transaction, element, path);
+            if (mode == StreamListener.STORE && deferred != null)
+                {writeDeferredOnEnd(transaction);}
             if (mode == StreamListener.STORE || mode == StreamListener.REMOVE_SOME_NODES) {
                 short indexType = RangeIndexSpec.NO_INDEX;
                 if (element.getIndexType() != RangeIndexSpec.NO_INDEX)
@@ -78,7 +78,10 @@ public class SyncTask implements SystemTask {
         }
         if(System.currentTimeMillis() - pool.getLastMajorSync() >
                 pool.getMajorSyncPeriod()) {
-            pool.sync(broker, Sync.MAJOR_SYNC);
+            if (pool.getTransactionManager().isFuzzyCheckpointsEnabled())
+                {pool.triggerFuzzyCheckpoint();}
+            else
+                {pool.sync(broker, Sync.MAJOR_SYNC);}
         } else {
             pool.sync(broker, Sync.MINOR_SYNC);
         }
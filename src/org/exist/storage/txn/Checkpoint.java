@@ -28,8 +28,16 @@ import java.util.Date;
 import org.exist.storage.DBBroker;
 import org.exist.storage.journal.AbstractLoggable;
 import org.exist.storage.journal.LogEntryTypes;
+import org.exist.storage.journal.Lsn;
 
 /**
+ * Checkpoint record written to the journal.
+ * 
+ * A sharp checkpoint is written while the database is idle, after all dirty pages
+ * have been flushed. A fuzzy checkpoint is written while transactions continue: it
+ * stores the LSN from which recovery has to redo the journal and the transactions
+ * which were still running when the record was written.
+ * 
  * @author wolf
  */
 
@@ -37,6 +45,8 @@ public class Checkpoint extends AbstractLoggable {
 
 	private long timestamp;
 	private long storedLsn;
+	private long redoLsn = Lsn.LSN_INVALID;
+	private long[] activeTransactions = new long[0];
 	
 	private final static DateFormat df = 
 		DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.MEDIUM);
@@ -49,6 +59,19 @@ public class Checkpoint extends AbstractLoggable {
         super(LogEntryTypes.CHECKPOINT, transactionId);
 		timestamp = new Date().getTime();
     }
+
+    /**
+     * Create a fuzzy checkpoint.
+     * 
+     * @param transactionId
+     * @param redoLsn all changes logged before this LSN have been written to disk
+     * @param activeTransactions ids of the transactions running when the checkpoint is written
+     */
+    public Checkpoint(long transactionId, long redoLsn, long[] activeTransactions) {
+        this(null, transactionId);
+        this.redoLsn = redoLsn;
+        this.activeTransactions = activeTransactions;
+    }
     
     /* (non-Javadoc)
      * @see org.exist.storage.log.Loggable#write(java.nio.ByteBuffer)
@@ -56,6 +79,11 @@ public class Checkpoint extends AbstractLoggable {
     public void write(ByteBuffer out) {
     	out.putLong(lsn);
 		out.putLong(timestamp);
+		out.putLong(redoLsn);
+		out.putInt(activeTransactions.length);
+		for (int i = 0; i < activeTransactions.length; i++) {
+			out.putLong(activeTransactions[i]);
+		}
     }
 
     /* (non-Javadoc)
@@ -64,17 +92,46 @@ public class Checkpoint extends AbstractLoggable {
     public void read(ByteBuffer in) {
     	storedLsn = in.getLong();
 		timestamp = in.getLong();
+		redoLsn = in.getLong();
+		activeTransactions = new long[in.getInt()];
+		for (int i = 0; i < activeTransactions.length; i++) {
+			activeTransactions[i] = in.getLong();
+		}
     }
 
     public long getStoredLsn() {
     	return storedLsn;
     }
+
+    /**
+     * Returns true if this is a fuzzy checkpoint, i.e. changes logged
+     * before it may not have been written to disk.
+     */
+    public boolean isFuzzy() {
+        return redoLsn != Lsn.LSN_INVALID;
+    }
+
+    /**
+     * Returns the LSN from which recovery has to redo the journal
+     * if this is a fuzzy checkpoint.
+     */
+    public long getRedoLsn() {
+        return redoLsn;
+    }
+
+    /**
+     * Returns the ids of the transactions running when a fuzzy checkpoint
+     * was written.
+     */
+    public long[] getActiveTransactions() {
+        return activeTransactions;
+    }
     
     /* (non-Javadoc)
      * @see org.exist.storage.log.Loggable#getLogSize()
      */
     public int getLogSize() {
-        return 16;
+        return 28 + 8 * activeTransactions.length;
     }
 	
     public String getDateString() {
@@ -82,6 +139,6 @@ public class Checkpoint extends AbstractLoggable {
     }
     
 	public String dump() {
-		return super.dump() + " - checkpoint at " + df.format(new Date(timestamp));
+		return super.dump() + " - " + (isFuzzy() ? "fuzzy " : "") + "checkpoint at " + df.format(new Date(timestamp));
 	}
 }
@@ -33,6 +33,7 @@ import org.exist.storage.SystemTask;
 import org.exist.storage.SystemTaskManager;
 import org.exist.storage.journal.Journal;
 import org.exist.storage.recovery.RecoveryManager;
+import org.exist.storage.sync.Sync;
 import org.exist.util.ReadOnlyException;
 import org.exist.xmldb.XmldbURI;
 
@@ -40,6 +41,7 @@ import java.io.File;
 import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -60,6 +62,10 @@ public class TransactionManager {
 	public final static String PROPERTY_RECOVERY_GROUP_COMMIT = "db-connection.recovery.group-commit";
     public final static String RECOVERY_FORCE_RESTART_ATTRIBUTE = "force-restart";
     public final static String PROPERTY_RECOVERY_FORCE_RESTART = "db-connection.recovery.force-restart";
+    public final static String RECOVERY_REDO_THREADS_ATTRIBUTE = "redo-threads";
+    public final static String PROPERTY_RECOVERY_REDO_THREADS = "db-connection.recovery.redo-threads";
+    public final static String RECOVERY_FUZZY_CHECKPOINTS_ATTRIBUTE = "fuzzy-checkpoints";
+    public final static String PROPERTY_RECOVERY_FUZZY_CHECKPOINTS = "db-connection.recovery.fuzzy-checkpoints";
 
     /**
      * Timeout for inactive transactions. A transaction which has not processed
@@ -85,6 +91,15 @@ public class TransactionManager {
     @ConfigurationFieldAsAttribute("force-restart")
     private boolean forceRestart = false;
 
+    @ConfigurationFieldAsAttribute("redo-threads")
+    private int redoThreads = 1;
+
+    @ConfigurationFieldAsAttribute("fuzzy-checkpoints")
+    private boolean fuzzyCheckpoints = false;
+
+    /** set while a fuzzy checkpoint is running in the background */
+    private final AtomicBoolean fuzzyCheckpointRunning = new AtomicBoolean(false);
+
     private Map<Long, TxnCounter> transactions = new HashMap<Long, TxnCounter>();
 
     private Lock lock = new ReentrantLock();
@@ -119,6 +134,18 @@ public class TransactionManager {
             if (LOG.isDebugEnabled())
                 {LOG.debug("ForceRestart = " + forceRestart);}
         }
+        final Integer redoOpt = (Integer) pool.getConfiguration().getProperty(PROPERTY_RECOVERY_REDO_THREADS);
+        if (redoOpt != null) {
+            redoThreads = redoOpt.intValue();
+            if (LOG.isDebugEnabled())
+                {LOG.debug("RedoThreads = " + redoThreads);}
+        }
+        final Boolean fuzzyOpt = (Boolean) pool.getConfiguration().getProperty(PROPERTY_RECOVERY_FUZZY_CHECKPOINTS);
+        if (fuzzyOpt != null) {
+            fuzzyCheckpoints = fuzzyOpt.booleanValue();
+            if (LOG.isDebugEnabled())
+                {LOG.debug("FuzzyCheckpoints = " + fuzzyCheckpoints);}
+        }
         taskManager = new SystemTaskManager(pool);
     }
     
@@ -140,7 +167,7 @@ public class TransactionManager {
      * @throws EXistException
      */
 	public boolean runRecovery(DBBroker broker) throws EXistException {
-		final RecoveryManager recovery = new RecoveryManager(broker, journal, forceRestart);
+		final RecoveryManager recovery = new RecoveryManager(broker, journal, forceRestart, redoThreads);
 		return recovery.recover();
 	}
 	
@@ -181,11 +208,12 @@ public class TransactionManager {
             return;
         }
 
-        new RunWithLock<Object>() {
-        	public Object execute() {
+        final Long commitLsn = new RunWithLock<Long>() {
+        	public Long execute() {
+                final TxnCommit commit = new TxnCommit(txn.getId());
                 if (enabled) {
                     try {
-						journal.writeToLog(new TxnCommit(txn.getId()));
+						journal.writeToLog(commit);
 					} catch (final TransactionException e) {
 						LOG.error("transaction manager caught exception while committing", e);
 					}
@@ -197,9 +225,13 @@ public class TransactionManager {
                 transactions.remove(txn.getId());
                 processSystemTasks();
                 LOG.debug("Committed transaction: " + txn.getId());
-                return null;
+                return Long.valueOf(commit.getLsn());
         	}
         }.run();
+        // wait for the commit record to be flushed together with other concurrent commits.
+        // this must happen outside the lock, otherwise commits could not be grouped
+        if (groupCommit && commitLsn != null)
+            {journal.flushGroupCommit(commitLsn.longValue());}
     }
 	
     public void abort(final Txn txn) {
@@ -276,6 +308,86 @@ public class TransactionManager {
 		journal.checkpoint(txnId, switchFiles);
 	}
 	
+    /**
+     * Returns true if periodic checkpoints should be fuzzy checkpoints,
+     * see {@link #triggerFuzzyCheckpoint()}.
+     */
+    public boolean isFuzzyCheckpointsEnabled() {
+        return enabled && fuzzyCheckpoints;
+    }
+
+    /**
+     * Start a fuzzy checkpoint in a background thread. Unlike {@link #checkpoint(boolean)},
+     * a fuzzy checkpoint does not need a stable database state: transactions continue while
+     * the dirty pages are flushed.
+     * 
+     * The checkpoint first determines the LSN from which recovery would have to redo the
+     * journal. It then flushes all caches, locking one file at a time, and finally writes a
+     * {@link Checkpoint} record containing the redo LSN and the transactions still running.
+     * The journal file is never switched by a fuzzy checkpoint. No fuzzy checkpoint is
+     * started or written once the database is shutting down, since the final checkpoint
+     * is taken by {@link #shutdown(boolean)}.
+     * 
+     * @return false if a fuzzy checkpoint is already running or the database is shutting down
+     */
+    public boolean triggerFuzzyCheckpoint() {
+        if (!enabled || pool.isShuttingDown() || !fuzzyCheckpointRunning.compareAndSet(false, true))
+            {return false;}
+        final Thread thread = new Thread("exist-fuzzy-checkpoint") {
+            @Override
+            public void run() {
+                try {
+                    fuzzyCheckpoint();
+                } finally {
+                    fuzzyCheckpointRunning.set(false);
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    private void fuzzyCheckpoint() {
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            if (pool.isShuttingDown())
+                {return;}
+            final long redoLsn = journal.getCheckpointRedoLsn();
+            broker.sync(Sync.MAJOR_SYNC);
+            // pages are not written if corruption is forced, as in BrokerPool.sync()
+            if (BrokerPool.FORCE_CORRUPTION)
+                {return;}
+            // the record is written while holding the lock, which is also held
+            // while shutting down, so it cannot overlap the final checkpoint
+            new RunWithLock<Object>() {
+                public Object execute() {
+                    if (pool.isShuttingDown())
+                        {return null;}
+                    final long[] active = new long[transactions.size()];
+                    int i = 0;
+                    for (final Long txnId : transactions.keySet()) {
+                        active[i++] = txnId.longValue();
+                    }
+                    try {
+                        if (!journal.checkpoint(new Checkpoint(nextTxnId++, redoLsn, active)))
+                            {LOG.debug("Journal has been switched during fuzzy checkpoint. Skipping checkpoint record.");}
+                    } catch (final TransactionException e) {
+                        LOG.warn("Fuzzy checkpoint failed: " + e.getMessage(), e);
+                    }
+                    return null;
+                }
+            }.run();
+        } catch (final Exception e) {
+            // do not let the exception end the thread which triggered the checkpoint
+            LOG.warn("Fuzzy checkpoint failed: " + e.getMessage(), e);
+        } finally {
+            if (broker != null)
+                {pool.release(broker);}
+        }
+    }
+
 	public Journal getJournal() {
 		return journal;
 	}
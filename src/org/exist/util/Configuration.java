@@ -44,6 +44,7 @@ import org.exist.scheduler.JobConfig;
 import org.exist.scheduler.JobException;
 import org.exist.security.internal.RealmImpl;
 import org.exist.security.xacml.XACMLConstants;
+import org.exist.storage.BlobStore;
 import org.exist.storage.BrokerFactory;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.CollectionCacheManager;
@@ -54,6 +55,8 @@ import org.exist.storage.NativeBroker;
 import org.exist.storage.NativeValueIndex;
 import org.exist.storage.TextSearchEngine;
 import org.exist.storage.XQueryPool;
+import org.exist.storage.btree.Paged;
+import org.exist.storage.index.BTreeStore;
 import org.exist.storage.journal.Journal;
 import org.exist.storage.serializers.CustomMatchListenerFactory;
 import org.exist.storage.serializers.Serializer;
@@ -831,6 +834,58 @@ public class Configuration implements ErrorHandler
             }
         }
 
+        final String scanResistantCaches = getConfigAttributeValue( con, DefaultCacheManager.SCAN_RESISTANT_CACHES_ATTRIBUTE );
+
+        if( scanResistantCaches != null ) {
+            config.put( DefaultCacheManager.PROPERTY_SCAN_RESISTANT_CACHES, scanResistantCaches.trim() );
+            LOG.debug( DefaultCacheManager.PROPERTY_SCAN_RESISTANT_CACHES + ": " + config.get( DefaultCacheManager.PROPERTY_SCAN_RESISTANT_CACHES ) );
+        }
+
+        final String concurrentCaches = getConfigAttributeValue( con, DefaultCacheManager.CONCURRENT_CACHES_ATTRIBUTE );
+
+        if( concurrentCaches != null ) {
+            config.put( DefaultCacheManager.PROPERTY_CONCURRENT_CACHES, concurrentCaches.trim() );
+            LOG.debug( DefaultCacheManager.PROPERTY_CONCURRENT_CACHES + ": " + config.get( DefaultCacheManager.PROPERTY_CONCURRENT_CACHES ) );
+        }
+
+        final String sharedReadLocks = getConfigAttributeValue( con, BTreeStore.SHARED_READ_LOCKS_ATTRIBUTE );
+
+        if( sharedReadLocks != null ) {
+            config.put( BTreeStore.PROPERTY_SHARED_READ_LOCKS, sharedReadLocks.trim() );
+            LOG.debug( BTreeStore.PROPERTY_SHARED_READ_LOCKS + ": " + config.get( BTreeStore.PROPERTY_SHARED_READ_LOCKS ) );
+        }
+
+        final String deduplicateBinaries = getConfigAttributeValue( con, BlobStore.DEDUPLICATE_BINARIES_ATTRIBUTE );
+
+        if( deduplicateBinaries != null ) {
+            config.put( BlobStore.PROPERTY_DEDUPLICATE_BINARIES, parseBoolean( deduplicateBinaries, false ) );
+            LOG.debug( BlobStore.PROPERTY_DEDUPLICATE_BINARIES + ": " + config.get( BlobStore.PROPERTY_DEDUPLICATE_BINARIES ) );
+        }
+
+        String offHeapCacheSize = getConfigAttributeValue( con, DefaultCacheManager.OFF_HEAP_CACHE_SIZE_ATTRIBUTE );
+
+        if( offHeapCacheSize != null ) {
+
+            if( offHeapCacheSize.endsWith( "M" ) || offHeapCacheSize.endsWith( "m" ) ) {
+                offHeapCacheSize = offHeapCacheSize.substring( 0, offHeapCacheSize.length() - 1 );
+            }
+
+            try {
+                config.put( DefaultCacheManager.PROPERTY_OFF_HEAP_CACHE_SIZE, Integer.valueOf(offHeapCacheSize) );
+                LOG.debug( DefaultCacheManager.PROPERTY_OFF_HEAP_CACHE_SIZE + ": " + config.get( DefaultCacheManager.PROPERTY_OFF_HEAP_CACHE_SIZE ) + "m" );
+            }
+            catch( final NumberFormatException nfe ) {
+                LOG.warn( nfe );
+            }
+        }
+
+        final String mmapFiles = getConfigAttributeValue( con, Paged.MMAP_FILES_ATTRIBUTE );
+
+        if( mmapFiles != null ) {
+            config.put( Paged.PROPERTY_MMAP_FILES, mmapFiles.trim() );
+            LOG.debug( Paged.PROPERTY_MMAP_FILES + ": " + config.get( Paged.PROPERTY_MMAP_FILES ) );
+        }
+
         final String pageSize = getConfigAttributeValue( con, NativeBroker.PAGE_SIZE_ATTRIBUTE );
 
         if( pageSize != null ) {
@@ -1040,6 +1095,23 @@ public class Configuration implements ErrorHandler
         setProperty( TransactionManager.PROPERTY_RECOVERY_GROUP_COMMIT, parseBoolean( option, false ) );
         LOG.debug( TransactionManager.PROPERTY_RECOVERY_GROUP_COMMIT + ": " + config.get( TransactionManager.PROPERTY_RECOVERY_GROUP_COMMIT ) );
 
+        option = getConfigAttributeValue( recovery, Journal.RECOVERY_COMPRESS_ATTRIBUTE );
+        setProperty( Journal.PROPERTY_RECOVERY_COMPRESS, parseBoolean( option, false ) );
+        LOG.debug( Journal.PROPERTY_RECOVERY_COMPRESS + ": " + config.get( Journal.PROPERTY_RECOVERY_COMPRESS ) );
+
+        option = getConfigAttributeValue( recovery, Journal.RECOVERY_GROUP_COMMIT_DELAY_ATTRIBUTE );
+
+        if( option != null ) {
+
+            try {
+                setProperty( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_DELAY, Long.valueOf( option ) );
+                LOG.debug( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_DELAY + ": " + config.get( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_DELAY ) );
+            }
+            catch( final NumberFormatException nfe ) {
+                LOG.warn( nfe );
+            }
+        }
+
         option = getConfigAttributeValue( recovery, Journal.RECOVERY_JOURNAL_DIR_ATTRIBUTE );
 
         if( option != null ) {
@@ -1081,6 +1153,23 @@ public class Configuration implements ErrorHandler
         setProperty( TransactionManager.PROPERTY_RECOVERY_FORCE_RESTART, new Boolean( value ) );
         LOG.debug( TransactionManager.PROPERTY_RECOVERY_FORCE_RESTART + ": " + config.get( TransactionManager.PROPERTY_RECOVERY_FORCE_RESTART ) );
 
+        option = getConfigAttributeValue( recovery, TransactionManager.RECOVERY_FUZZY_CHECKPOINTS_ATTRIBUTE );
+        setProperty( TransactionManager.PROPERTY_RECOVERY_FUZZY_CHECKPOINTS, parseBoolean( option, false ) );
+        LOG.debug( TransactionManager.PROPERTY_RECOVERY_FUZZY_CHECKPOINTS + ": " + config.get( TransactionManager.PROPERTY_RECOVERY_FUZZY_CHECKPOINTS ) );
+
+        option = getConfigAttributeValue( recovery, TransactionManager.RECOVERY_REDO_THREADS_ATTRIBUTE );
+
+        if( option != null ) {
+
+            try {
+                setProperty( TransactionManager.PROPERTY_RECOVERY_REDO_THREADS, new Integer( option ) );
+                LOG.debug( TransactionManager.PROPERTY_RECOVERY_REDO_THREADS + ": " + config.get( TransactionManager.PROPERTY_RECOVERY_REDO_THREADS ) );
+            }
+            catch( final NumberFormatException e ) {
+                throw( new DatabaseConfigurationException( "redo-threads attribute in recovery section needs to be a number" ) );
+            }
+        }
+
         option = getConfigAttributeValue( recovery, BrokerPool.RECOVERY_POST_RECOVERY_CHECK );
         value  = false;
 
@@ -1401,6 +1490,39 @@ public class Configuration implements ErrorHandler
             }
         }
 
+        final String reindexThreads = getConfigAttributeValue( indexer, NativeBroker.REINDEX_THREADS_ATTRIBUTE );
+
+        if( reindexThreads != null ) {
+
+            try {
+                config.put( NativeBroker.PROPERTY_REINDEX_THREADS, Integer.valueOf( reindexThreads ) );
+                LOG.debug( NativeBroker.PROPERTY_REINDEX_THREADS + ": " + config.get( NativeBroker.PROPERTY_REINDEX_THREADS ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
+
+        final String reindexBatchSize = getConfigAttributeValue( indexer, NativeBroker.REINDEX_BATCH_SIZE_ATTRIBUTE );
+
+        if( reindexBatchSize != null ) {
+
+            try {
+                config.put( NativeBroker.PROPERTY_REINDEX_BATCH_SIZE, Integer.valueOf( reindexBatchSize ) );
+                LOG.debug( NativeBroker.PROPERTY_REINDEX_BATCH_SIZE + ": " + config.get( NativeBroker.PROPERTY_REINDEX_BATCH_SIZE ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
+
+        final String shadowReindex = getConfigAttributeValue( indexer, NativeBroker.SHADOW_REINDEX_ATTRIBUTE );
+
+        if( shadowReindex != null ) {
+            config.put( NativeBroker.PROPERTY_SHADOW_REINDEX, parseBoolean( shadowReindex, false ) );
+            LOG.debug( NativeBroker.PROPERTY_SHADOW_REINDEX + ": " + config.get( NativeBroker.PROPERTY_SHADOW_REINDEX ) );
+        }
+
         final String suppressWS = getConfigAttributeValue( indexer, Indexer.SUPPRESS_WHITESPACE_ATTRIBUTE );
 
         if( suppressWS != null ) {
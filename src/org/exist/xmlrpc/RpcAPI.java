@@ -50,6 +50,7 @@ public interface RpcAPI {
 	public final static String BASE_URI = "base-uri";
 	public final static String STATIC_DOCUMENTS = "static-documents";
     public final static String PROTECTED_MODE = "protected";
+    public final static String SNAPSHOT = "snapshot";
     public static final String ERROR = "error";
 	public static final String LINE = "line";
 	public static final String COLUMN = "column";
@@ -67,6 +67,7 @@ import org.exist.storage.DataBackup;
 import org.exist.storage.XQueryPool;
 import org.exist.storage.lock.Lock;
 import org.exist.storage.lock.LockedDocumentMap;
+import org.exist.storage.lock.SnapshotDocumentMap;
 import org.exist.storage.serializers.EXistOutputKeys;
 import org.exist.storage.serializers.Serializer;
 import org.exist.storage.sync.Sync;
@@ -104,6 +105,8 @@ public class RpcConnection implements RpcAPI {
     
     private final static String DEFAULT_ENCODING = "UTF-8";
 
+    private final static int MAX_SNAPSHOT_ATTEMPTS = 3;
+
     protected XmldbRequestProcessorFactory factory;
 
     protected Subject user;
@@ -323,6 +326,9 @@ public class RpcConnection implements RpcAPI {
         final XQueryPool pool = xquery.getXQueryPool();
         
         checkPragmas(compiled.getContext(), parameters);
+        final QueryResult snapshotResult = doSnapshotQuery(xquery, compiled, contextSet, parameters);
+        if (snapshotResult != null)
+            {return snapshotResult;}
         LockedDocumentMap lockedDocuments = null;
         try {
             final long start = System.currentTimeMillis();
@@ -344,6 +350,72 @@ public class RpcConnection implements RpcAPI {
         }
     }
 
+    /**
+     * Run a read-only query without locking the documents it loads. The query is
+     * repeated if one of the documents was modified while it was running. After
+     * {@link #MAX_SNAPSHOT_ATTEMPTS} failed attempts, null is returned and the
+     * query should be run with the usual document locks.
+     *
+     * Snapshot mode is restricted to queries which cannot modify the database:
+     * they may only call the functions of the standard, math and map modules, see
+     * {@link XQueryContext#checkSnapshotCall(org.exist.xquery.Expression, org.exist.dom.QName)}.
+     * If the query calls any other function or contains an update expression, null is
+     * returned as soon as the call is refused.
+     *
+     * The context is not reset between the attempts, as the variables and documents
+     * passed by the client are needed to repeat the query.
+     */
+    private QueryResult doSnapshotQuery(XQuery xquery, CompiledXQuery compiled,
+            NodeSet contextSet, HashMap<String, Object> parameters) throws Exception {
+        final String option = (String) parameters.get(RpcAPI.SNAPSHOT);
+        if (option == null || !("yes".equals(option) || "true".equals(option)))
+            {return null;}
+        final XQueryContext context = compiled.getContext();
+        boolean finished = false;
+        try {
+            for (int attempt = 0; attempt < MAX_SNAPSHOT_ATTEMPTS; attempt++) {
+                final SnapshotDocumentMap snapshot = new SnapshotDocumentMap();
+                final long start = System.currentTimeMillis();
+                Sequence result = null;
+                XPathException error = null;
+                final Properties outputProperties = new Properties();
+                try {
+                    context.setSnapshotDocs(snapshot);
+                    context.getWatchDog().reset();
+                    result = xquery.execute(compiled, contextSet, outputProperties, false);
+                } catch (final XPathException e) {
+                    error = e;
+                } catch (final RuntimeException e) {
+                    // may be caused by a concurrent modification
+                    if (!snapshot.isUpdating() && snapshot.isValid()) {
+                        finished = true;
+                        throw e;
+                    }
+                } finally {
+                    context.setSnapshotDocs(null);
+                }
+                if (snapshot.isUpdating()) {
+                    LOG.debug("Query may modify the database. Running it with document locks.");
+                    return null;
+                }
+                if (snapshot.isValid()) {
+                    finished = true;
+                    if (error != null)
+                        {return new QueryResult(error);}
+                    HTTPUtils.addLastModifiedHeader( result, context );
+                    LOG.info("query took " + (System.currentTimeMillis() - start) + "ms.");
+                    return new QueryResult(result, outputProperties);
+                }
+                LOG.debug("Documents modified during snapshot read. Starting over again.");
+            }
+            return null;
+        } finally {
+            // the query is run again with document locks otherwise
+            if (finished)
+                {context.reset();}
+        }
+    }
+
     protected LockedDocumentMap beginProtected(DBBroker broker, HashMap<String, Object> parameters) throws EXistException, PermissionDeniedException {
         final String protectColl = (String) parameters.get(RpcAPI.PROTECTED_MODE);
         if (protectColl == null)
@@ -46,6 +46,7 @@ public class InternalFunctionCall extends Function
 		} catch (final PermissionDeniedException pde) {
 			throw new XPathException(function, "Access to function '" + functionName + "'  denied.", pde);
 		}
+		context.checkSnapshotCall(this, functionName);
         final long start = System.currentTimeMillis();
         if (context.getProfiler().traceFunctions())
             {context.getProfiler().traceFunctionStart(this);}
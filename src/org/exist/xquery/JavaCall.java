@@ -198,6 +198,7 @@ public class JavaCall extends Function {
 		} catch (final PermissionDeniedException pde) {
 			throw new XPathException(this, "Access to method '" + name + "' in class '" + myClass.getName() + "' denied.", pde);
 		}
+		context.checkSnapshotCall(this, getName());
         
 		// get the actual arguments
 		final Sequence args[] = getArguments(contextSequence, contextItem);
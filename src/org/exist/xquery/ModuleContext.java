@@ -26,6 +26,7 @@ import org.exist.dom.DocumentSet;
 import org.exist.dom.QName;
 import org.exist.memtree.MemTreeBuilder;
 import org.exist.storage.UpdateListener;
+import org.exist.storage.lock.SnapshotDocumentMap;
 import org.exist.util.FileUtils;
 import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.functions.response.ResponseModule;
@@ -301,6 +302,10 @@ public class ModuleContext extends XQueryContext {
 		return parentContext.getWatchDog();
 	}
 
+	public SnapshotDocumentMap getSnapshotDocs() {
+		return parentContext.getSnapshotDocs();
+	}
+
     public Profiler getProfiler() {
         return parentContext.getProfiler();
     }
@@ -82,13 +82,15 @@ public class RootNode extends Step {
         NewArrayNodeSet result = new NewArrayNodeSet(2);
         try {
             // wait for pending updates
-            if (!context.inProtectedMode())
+            if (!context.inProtectedMode() && !context.inSnapshotMode())
                 {ds.lock(context.getBroker(), false, true);}
 	        DocumentImpl doc;
 	        for (final Iterator<DocumentImpl> i = ds.getDocumentIterator(); i.hasNext();) {
 	            doc = i.next();
                 if (context.inProtectedMode() && !context.getProtectedDocs().containsKey(doc.getDocId()))
                     {continue;}
+                if (context.inSnapshotMode())
+                    {context.getSnapshotDocs().add(doc);}
                 if(doc.getResourceType() == DocumentImpl.XML_FILE) {  // skip binary resources
 	            	result.add(new NodeProxy(doc));
 	            }
@@ -99,7 +101,7 @@ public class RootNode extends Step {
             throw new XPathException(this, "Failed to acquire lock on the context document set");
         } finally {
             // release all locks
-            if (!context.inProtectedMode())
+            if (!context.inProtectedMode() && !context.inSnapshotMode())
                 {ds.unlock(false);}
         }
 //        result.updateNoSort();
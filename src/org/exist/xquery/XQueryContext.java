@@ -81,11 +81,13 @@ import org.exist.storage.DBBroker;
 import org.exist.storage.UpdateListener;
 import org.exist.storage.lock.Lock;
 import org.exist.storage.lock.LockedDocumentMap;
+import org.exist.storage.lock.SnapshotDocumentMap;
 import org.exist.util.Collations;
 import org.exist.util.Configuration;
 import org.exist.util.LockException;
 import org.exist.util.hashtable.NamePool;
 import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.functions.map.MapModule;
 import org.exist.xquery.functions.request.RequestModule;
 import org.exist.xquery.functions.session.SessionModule;
 import org.exist.xquery.parser.*;
@@ -287,6 +289,9 @@ public class XQueryContext implements BinaryValueManager, Context
 
     private LockedDocumentMap                          protectedDocuments            = null;
 
+    /** Documents read without locks by a read-only query in snapshot mode. */
+    private SnapshotDocumentMap                        snapshotDocuments             = null;
+
     /** The profiler instance used by this context. */
     protected Profiler                                 profiler;
 
@@ -1228,6 +1233,59 @@ public class XQueryContext implements BinaryValueManager, Context
     }
 
 
+    /**
+     * Run the query in snapshot mode: documents are loaded without locks, but their
+     * write versions are recorded in the given map. The query must not modify any
+     * documents. After the query has finished, the caller checks if the documents were
+     * modified concurrently and repeats the query if necessary.
+     *
+     * @param  map  the map to record the loaded documents in, or null to leave snapshot mode
+     */
+    public void setSnapshotDocs( SnapshotDocumentMap map )
+    {
+        this.snapshotDocuments = map;
+    }
+
+
+    public SnapshotDocumentMap getSnapshotDocs()
+    {
+        return( this.snapshotDocuments );
+    }
+
+
+    public boolean inSnapshotMode()
+    {
+        return( getSnapshotDocs() != null );
+    }
+
+
+    /**
+     * A query in snapshot mode may be run several times. It may thus only call the
+     * functions of the standard, math and map modules, which cannot modify the
+     * database. Calling any other function marks the snapshot as updating and fails,
+     * so that the query is run with the usual document locks instead.
+     *
+     * @param  expr          the calling expression
+     * @param  functionName  the name of the called function
+     *
+     * @throws  XPathException  if the function may not be called in snapshot mode
+     */
+    public void checkSnapshotCall( Expression expr, QName functionName ) throws XPathException
+    {
+        if( !inSnapshotMode() ) {
+            return;
+        }
+        final String namespaceURI = functionName.getNamespaceURI();
+
+        if( Namespaces.XPATH_FUNCTIONS_NS.equals( namespaceURI ) || Namespaces.XPATH_FUNCTIONS_MATH_NS.equals( namespaceURI )
+                || MapModule.NAMESPACE_URI.equals( namespaceURI ) || Namespaces.SCHEMA_NS.equals( namespaceURI ) ) {
+            return;
+        }
+        getSnapshotDocs().setUpdating();
+        throw( new XPathException( expr, "Call to function " + functionName.getStringValue() + "() is not allowed in a snapshot read" ) );
+    }
+
+
     /**
      * Should loaded documents be locked?
      *
@@ -1373,6 +1431,7 @@ public class XQueryContext implements BinaryValueManager, Context
         fragmentStack = new Stack<MemTreeBuilder>();
         callStack.clear();
         protectedDocuments = null;
+        snapshotDocuments  = null;
 
         if( !keepGlobals ) {
             globalVariables.clear();
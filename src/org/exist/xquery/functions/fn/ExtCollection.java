@@ -164,7 +164,9 @@ public class ExtCollection extends Function {
             dlock = doc.getUpdateLock();
             boolean lockAcquired = false;
             try {
-                if (!context.inProtectedMode() && !dlock.hasLock()) {
+                if (context.inSnapshotMode()) {
+                    context.getSnapshotDocs().add(doc);
+                } else if (!context.inProtectedMode() && !dlock.hasLock()) {
                     dlock.acquire(Lock.READ_LOCK);
                     lockAcquired = true;
                 }
@@ -139,8 +139,20 @@ public class XMLDBLoadFromPattern extends XMLDBAbstractCollectionManipulator {
         
         final ValueSequence stored = new ValueSequence();
 
+        // the resources are stored with the broker of the current thread:
+        // write their structural index entries in sorted batches
+        context.getBroker().beginBulkLoad();
+        try {
+            storeFiles(collection, baseDir, args[2], mimeTypeFromArgs, keepDirStructure, excludes, stored);
+        } finally {
+            context.getBroker().endBulkLoad();
+        }
+        return stored;
+    }
+
+    private void storeFiles(Collection collection, File baseDir, Sequence patterns, MimeType mimeTypeFromArgs,
+            boolean keepDirStructure, List<String> excludes, ValueSequence stored) throws XPathException {
         //store according to each pattern
-        final Sequence patterns = args[2];
         for(final SequenceIterator i = patterns.iterate(); i.hasNext(); )
         {
             //get the files to store
@@ -194,7 +206,6 @@ public class XMLDBLoadFromPattern extends XMLDBAbstractCollectionManipulator {
                 }
             }
         }
-        return stored;
     }
     
     /**
@@ -133,6 +133,10 @@ public abstract class Modification extends AbstractExpression
 	 */
 	protected StoredNode[] selectAndLock(Txn transaction, Sequence nodes) throws LockException, PermissionDeniedException,
 		XPathException, TriggerException {
+	    if (context.inSnapshotMode()) {
+	        context.getSnapshotDocs().setUpdating();
+	        throw new XPathException(this, "XQuery update expressions are not allowed in a snapshot read");
+	    }
 	    final Lock globalLock = context.getBroker().getBrokerPool().getGlobalUpdateLock();
 	    try {
 	        globalLock.acquire(Lock.READ_LOCK);
@@ -142,7 +142,9 @@ public class DocUtils {
 
 			// check if the loaded documents should remain locked
 			boolean lockOnLoad = context.lockDocumentsOnLoad();
-            final int lockType = lockOnLoad ? Lock.WRITE_LOCK : Lock.READ_LOCK;
+            // in snapshot mode, the document is not locked, but its version is recorded
+            final boolean snapshot = context.inSnapshotMode();
+            final int lockType = lockOnLoad ? Lock.WRITE_LOCK : (snapshot ? Lock.NO_LOCK : Lock.READ_LOCK);
 			DocumentImpl doc = null;
 			try
 			{
@@ -165,6 +167,8 @@ public class DocUtils {
 				doc = context.getBroker().getXMLResource(pathUri, lockType);
 				if(doc != null)
 				{
+					if(snapshot)
+						{context.getSnapshotDocs().add(doc);}
 					if(!doc.getPermissions().validate(context.getSubject(), Permission.READ))
 					{
 						doc.getUpdateLock().release(lockType);
@@ -0,0 +1,168 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.collections;
+
+import java.io.StringReader;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.exist.Namespaces;
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.DefaultHandler2;
+
+import static org.junit.Assert.*;
+
+public class SAXEventRecorderTest {
+
+    private final static String XML =
+        "<?xml version=\"1.0\"?>\n" +
+        "<!DOCTYPE root [<!ENTITY ent \"entity text\">]>\n" +
+        "<root xmlns=\"http://exist-db.org/test\" xmlns:x=\"urn:x\" a=\"1\">\n" +
+        "  <!-- comment -->\n" +
+        "  <?pi data?>\n" +
+        "  <x:child x:b=\"2\">text &ent; <![CDATA[<cdata>]]></x:child>\n" +
+        "</root>";
+
+    @Test
+    public void replay() throws Exception {
+        final EventLog parsed = new EventLog();
+        final SAXEventRecorder recorder = new SAXEventRecorder(parsed, parsed, 1024 * 1024);
+        parse(recorder);
+        assertTrue(recorder.isComplete());
+
+        final EventLog replayed = new EventLog();
+        recorder.replay(replayed, replayed);
+        assertEquals(parsed.toString(), replayed.toString());
+        assertTrue(replayed.toString().contains("entity text"));
+    }
+
+    @Test
+    public void overflow() throws Exception {
+        final EventLog parsed = new EventLog();
+        final SAXEventRecorder recorder = new SAXEventRecorder(parsed, parsed, 64);
+        parse(recorder);
+        assertFalse(recorder.isComplete());
+        // the events are still passed on
+        assertTrue(parsed.toString().contains("endDocument"));
+    }
+
+    private void parse(SAXEventRecorder recorder) throws Exception {
+        final SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        final XMLReader reader = factory.newSAXParser().getXMLReader();
+        reader.setContentHandler(recorder);
+        reader.setProperty(Namespaces.SAX_LEXICAL_HANDLER, recorder);
+        reader.parse(new InputSource(new StringReader(XML)));
+    }
+
+    private static class EventLog extends DefaultHandler2 {
+
+        private final StringBuilder log = new StringBuilder();
+
+        @Override
+        public void startDocument() {
+            log.append("startDocument\n");
+        }
+
+        @Override
+        public void endDocument() {
+            log.append("endDocument\n");
+        }
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri) {
+            log.append("startPrefixMapping ").append(prefix).append(' ').append(uri).append('\n');
+        }
+
+        @Override
+        public void endPrefixMapping(String prefix) {
+            log.append("endPrefixMapping ").append(prefix).append('\n');
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts) {
+            log.append("startElement {").append(uri).append('}').append(localName).append(' ').append(qName);
+            for (int i = 0; i < atts.getLength(); i++) {
+                log.append(' ').append(atts.getQName(i)).append("=").append(atts.getValue(i));
+            }
+            log.append('\n');
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            log.append("endElement ").append(qName).append('\n');
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            log.append("characters ").append(ch, start, length).append('\n');
+        }
+
+        @Override
+        public void processingInstruction(String target, String data) {
+            log.append("pi ").append(target).append(' ').append(data).append('\n');
+        }
+
+        @Override
+        public void comment(char[] ch, int start, int length) {
+            log.append("comment ").append(ch, start, length).append('\n');
+        }
+
+        @Override
+        public void startCDATA() {
+            log.append("startCDATA\n");
+        }
+
+        @Override
+        public void endCDATA() {
+            log.append("endCDATA\n");
+        }
+
+        @Override
+        public void startDTD(String name, String publicId, String systemId) {
+            log.append("startDTD ").append(name).append('\n');
+        }
+
+        @Override
+        public void endDTD() {
+            log.append("endDTD\n");
+        }
+
+        @Override
+        public void startEntity(String name) {
+            log.append("startEntity ").append(name).append('\n');
+        }
+
+        @Override
+        public void endEntity(String name) {
+            log.append("endEntity ").append(name).append('\n');
+        }
+
+        @Override
+        public String toString() {
+            return log.toString();
+        }
+    }
+}
@@ -56,6 +56,7 @@ import org.xml.sax.SAXException;
 import java.io.File;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Test basic {@link org.exist.dom.NodeSet} operations to ensure that
@@ -273,6 +274,41 @@ public class BasicNodeSetTest {
         assertEquals(1, result.getLength());
     }
 	
+    @Test
+    public void columnarNodeSet_nestedContext() throws XPathException, SAXException, PermissionDeniedException {
+        Sequence nestedSet = executeQuery(broker, "//section[@n = ('1', '1.1', '1.1.1')]", 3, null);
+        NameTest test = new NameTest(Type.ELEMENT, new QName("para", ""));
+        NodeSet paras = broker.getStructuralIndex().findElementsByTagName(ElementValue.ELEMENT, docs, test.getName(), null);
+        assertTrue(paras instanceof ColumnarNodeSet);
+
+        NodeSet result = paras.selectAncestorDescendant(nestedSet.toNodeSet(), NodeSet.DESCENDANT, false, 1, true);
+        assertEquals(5, result.getLength());
+        // 1.1.1.1 is a descendant of all three sections
+        assertEquals(3, countContextItems(result.get(0), 1));
+        assertEquals(1, countContextItems(result.get(4), 1));
+
+        result = paras.selectParentChild(nestedSet.toNodeSet(), NodeSet.ANCESTOR, -1);
+        assertEquals(1, result.getLength());
+        assertEquals(1, paras.selectParentChild(nestedSet.toNodeSet(), NodeSet.ANCESTOR, 1).getLength());
+
+        // all three sections have para descendants
+        assertEquals(3, paras.selectAncestorDescendant(nestedSet.toNodeSet(), NodeSet.ANCESTOR, false, -1, true).getLength());
+
+        // once the proxies are needed, the set behaves like any other
+        assertEquals(5, paras.getLength());
+        assertTrue(paras.contains(paras.get(2)));
+        assertEquals(3, paras.selectParentChild(nestedSet.toNodeSet(), NodeSet.DESCENDANT).getLength());
+    }
+
+    private static int countContextItems(NodeProxy proxy, int contextId) {
+        int count = 0;
+        for (ContextItem item = proxy.getContext(); item != null; item = item.getNextDirect()) {
+            if (item.getContextId() == contextId)
+                {count++;}
+        }
+        return count;
+    }
+
     @Test
     public void testOptimizations() throws XPathException, SAXException, PermissionDeniedException {
             
@@ -26,6 +26,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.io.StringReader;
@@ -552,6 +553,42 @@ public class RESTServiceTest {
         doStoredQuery(true, true);
     }
     
+    @Test
+    public void getBinaryRange() throws IOException {
+        HttpURLConnection connect = getConnection(COLLECTION_URI + "/range.txt");
+        connect.setRequestProperty("Authorization", "Basic " + credentials);
+        connect.setRequestMethod("PUT");
+        connect.setDoOutput(true);
+        connect.setRequestProperty("Content-Type", "application/octet-stream");
+        OutputStream os = connect.getOutputStream();
+        os.write("0123456789".getBytes("UTF-8"));
+        os.close();
+        connect.connect();
+        int r = connect.getResponseCode();
+        assertEquals("Server returned response code " + r, 201, r);
+
+        assertEquals("2345", getRange("bytes=2-5", 206, "bytes 2-5/10"));
+        assertEquals("789", getRange("bytes=-3", 206, "bytes 7-9/10"));
+        assertEquals("89", getRange("bytes=8-", 206, "bytes 8-9/10"));
+        assertEquals("0123456789", getRange("bytes=0-2,5-6", 200, null));
+        getRange("bytes=20-", 416, "bytes */10");
+    }
+
+    private String getRange(String range, int responseCode, String contentRange) throws IOException {
+        HttpURLConnection connect = getConnection(COLLECTION_URI + "/range.txt");
+        connect.setRequestProperty("Authorization", "Basic " + credentials);
+        connect.setRequestProperty("Range", range);
+        connect.setRequestMethod("GET");
+        connect.connect();
+        int r = connect.getResponseCode();
+        assertEquals("Server returned response code " + r, responseCode, r);
+        assertEquals(contentRange, connect.getHeaderField("Content-Range"));
+        if (r >= 400)
+            return null;
+        assertEquals("bytes", connect.getHeaderField("Accept-Ranges"));
+        return readResponse(connect.getInputStream()).trim();
+    }
+
     private void doPut(String data, String path, int responseCode) throws IOException {
         HttpURLConnection connect = getConnection(COLLECTION_URI + '/' + path);
         connect.setRequestProperty("Authorization", "Basic " + credentials);
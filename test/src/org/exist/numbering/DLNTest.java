@@ -345,4 +345,77 @@ public class DLNTest extends TestCase {
         
         System.out.println("------ testInsertion: PASSED ------");
     }
-}
\ No newline at end of file
+
+    public void testSerializedRelations() {
+        String[] ids = { "1", "1.1", "1.2", "1.1.1", "1.1.7", "1.1.8", "1.1.1.1", "1.1/1",
+            "1.1/1.3", "1.1.1/0/34", "1.2.500", "1.2.500.1", "1.10", "1.100.3" };
+        for (int i = 0; i < ids.length; i++) {
+            DLN id = new DLN(ids[i]);
+            // serialize with some padding to check the offsets
+            byte[] data = new byte[id.size() + 3];
+            id.serialize(data, 2);
+            assertEquals(id.computeRelation(NodeId.DOCUMENT_NODE),
+                NodeId.DOCUMENT_NODE.computeRelationOf(id.units(), data, 2));
+            for (int j = 0; j < ids.length; j++) {
+                DLN other = new DLN(ids[j]);
+                assertEquals(ids[i] + " / " + ids[j], id.computeRelation(other),
+                    other.computeRelationOf(id.units(), data, 2));
+                assertEquals(ids[i] + " / " + ids[j], Integer.signum(other.compareTo(id)),
+                    Integer.signum(other.compareTo(id.units(), data, 2)));
+            }
+        }
+    }
+
+    public void testCachedLevels() {
+        DLN dln = new DLN("1.7.3/1.34");
+        assertLevels(dln);
+        NodeId id = dln;
+        for (int i = 0; i < 5; i++) {
+            id = id.newChild();
+            assertLevels(id);
+            id = id.getChild(12);
+            assertLevels(id);
+            id = id.insertNode(id.nextSibling());
+            assertLevels(id);
+            id = id.insertBefore();
+            assertLevels(id);
+            id = id.precedingSibling();
+            assertLevels(id);
+        }
+        while (id != NodeId.DOCUMENT_NODE) {
+            id = id.getParentId();
+            assertLevels(id);
+        }
+        dln = new DLN("1.2.3");
+        dln.getTreeLevel();
+        dln.addLevelId(1, true);
+        assertLevels(dln);
+        dln.addLevelId(1, false);
+        assertLevels(dln);
+        dln.incrementLevelId();
+        assertLevels(dln);
+        assertEquals("1.2.3/1.2", dln.toString());
+        dln.setLevelId(dln.lastLevelOffset(), 200);
+        assertLevels(dln);
+        assertEquals("1.2.3/1.200", dln.toString());
+
+        // the first level added to an empty id
+        dln = new DLN("");
+        dln.getTreeLevel();
+        dln.addLevelId(5, false);
+        assertLevels(dln);
+        assertEquals(1, dln.getLevelOffsets().length);
+        assertEquals("5", dln.toString());
+    }
+
+    private void assertLevels(NodeId id) {
+        DLN dln = (DLN) id;
+        // the copy computes the levels from scratch
+        byte[] data = new byte[dln.size()];
+        dln.serialize(data, 0);
+        DLN copy = new DLN(dln.units(), data, 0);
+        assertEquals(dln.toString(), copy.getTreeLevel(), dln.getTreeLevel());
+        assertEquals(dln.toString(), copy.lastLevelOffset(), dln.lastLevelOffset());
+        assertTrue(dln.toString(), Arrays.equals(copy.getLevelOffsets(), dln.getLevelOffsets()));
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import org.exist.collections.Collection;
+import org.exist.dom.BinaryDocument;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.TestConstants;
+import org.exist.util.Configuration;
+import org.exist.xmldb.XmldbURI;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Store, copy, move and remove binary resources with deduplication enabled,
+ * and undo the changes of an uncommitted transaction after a crash.
+ */
+public class BlobStoreTest {
+
+    private final static byte[] DATA = "binary data shared by several resources".getBytes();
+    private final static byte[] OTHER_DATA = "binary data of a single resource".getBytes();
+
+    @Test
+    public void storeAndRecover() throws Exception {
+        BrokerPool.FORCE_CORRUPTION = true;
+        BrokerPool pool = startDB();
+        DBBroker broker = null;
+        File entry;
+        File markerA;
+        File markerD;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            final TransactionManager transact = pool.getTransactionManager();
+            Txn transaction = transact.beginTransaction();
+            final Collection root = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI);
+            broker.saveCollection(transaction, root);
+
+            final BinaryDocument a = store(transaction, broker, root, "a.bin", DATA);
+            final BinaryDocument b = store(transaction, broker, root, "b.bin", DATA);
+            final BinaryDocument other = store(transaction, broker, root, "other.bin", OTHER_DATA);
+            assertNotNull(a.getBlobReference());
+            assertFalse(a.getBlobReference().equals(b.getBlobReference()));
+            assertEquals(broker.getBinaryFile(a), broker.getBinaryFile(b));
+            assertFalse(broker.getBinaryFile(a).equals(broker.getBinaryFile(other)));
+            entry = broker.getBinaryFile(a).getParentFile();
+            markerA = marker(entry, a);
+            assertTrue(markerA.exists());
+
+            broker.copyResource(transaction, a, root, XmldbURI.create("c.bin"));
+            broker.moveResource(transaction, b, root, XmldbURI.create("b2.bin"));
+            final File otherFile = broker.getBinaryFile(other);
+            root.removeBinaryResource(transaction, broker, other);
+            assertFalse(otherFile.exists());
+            transact.commit(transaction);
+
+            // content, a.bin, b2.bin and c.bin
+            assertEquals(4, entry.list().length);
+            assertArrayEquals(DATA, read(broker, "b2.bin"));
+            assertArrayEquals(DATA, read(broker, "c.bin"));
+            assertEquals(broker.getBinaryFile(a), broker.getBinaryFile(getDocument(broker, "c.bin")));
+
+            // the following transaction will not be committed. It will thus be rolled back by recovery
+            transaction = transact.beginTransaction();
+            markerD = marker(entry, store(transaction, broker, root, "d.bin", DATA));
+            root.removeBinaryResource(transaction, broker, getDocument(broker, "a.bin"));
+            assertTrue(markerD.exists());
+            assertFalse(markerA.exists());
+            transact.getJournal().flushToLog(true);
+        } finally {
+            pool.release(broker);
+        }
+        BrokerPool.stopAll(false);
+
+        BrokerPool.FORCE_CORRUPTION = false;
+        pool = startDB();
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            assertArrayEquals(DATA, read(broker, "a.bin"));
+            assertNull(broker.getXMLResource(TestConstants.TEST_COLLECTION_URI.append("d.bin")));
+            assertTrue(markerA.exists());
+            assertFalse(markerD.exists());
+            assertEquals(4, entry.list().length);
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    private File marker(File entry, BinaryDocument doc) {
+        final String reference = doc.getBlobReference();
+        return new File(entry, reference.substring(reference.indexOf('/') + 1));
+    }
+
+    private BinaryDocument store(Txn transaction, DBBroker broker, Collection root, String name, byte[] data)
+            throws Exception {
+        return root.addBinaryResource(transaction, broker, XmldbURI.create(name), data, "application/octet-stream");
+    }
+
+    private BinaryDocument getDocument(DBBroker broker, String name) throws Exception {
+        final BinaryDocument doc = (BinaryDocument) broker.getXMLResource(TestConstants.TEST_COLLECTION_URI.append(name));
+        assertNotNull(doc);
+        return doc;
+    }
+
+    private byte[] read(DBBroker broker, String name) throws Exception {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        broker.readBinaryResource(getDocument(broker, name), os);
+        return os.toByteArray();
+    }
+
+    @After
+    public void closeDB() throws Exception {
+        // do not leave the binary resources to other tests
+        BrokerPool.FORCE_CORRUPTION = false;
+        final BrokerPool pool = startDB();
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            final TransactionManager transact = pool.getTransactionManager();
+            final Txn transaction = transact.beginTransaction();
+            final Collection test = broker.getCollection(TestConstants.TEST_COLLECTION_URI);
+            if (test != null)
+                {broker.removeCollection(transaction, test);}
+            transact.commit(transaction);
+        } finally {
+            pool.release(broker);
+            BrokerPool.stopAll(false);
+        }
+    }
+
+    protected BrokerPool startDB() throws Exception {
+        final Configuration config = new Configuration();
+        config.setProperty(BlobStore.PROPERTY_DEDUPLICATE_BINARIES, Boolean.TRUE);
+        BrokerPool.configure(1, 5, config);
+        return BrokerPool.getInstance();
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.storage;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.dom.DefaultDocumentSet;
+import org.exist.dom.DocumentImpl;
+import org.exist.dom.QName;
+import org.exist.security.xacml.AccessContext;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.TestConstants;
+import org.exist.util.Configuration;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.value.Sequence;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Store documents in bulk-load mode.
+ */
+public class BulkLoadTest {
+
+    private final static int DOCUMENTS = 20;
+
+    private BrokerPool pool;
+
+    @Test
+    public void storeInBulkLoadMode() throws Exception {
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            broker.beginBulkLoad();
+            assertTrue(broker.isBulkLoad());
+            final Collection root = storeDocuments(broker);
+            broker.endBulkLoad();
+            assertFalse(broker.isBulkLoad());
+
+            assertEquals(String.valueOf(DOCUMENTS * 10), query(broker, "count(collection('" +
+                TestConstants.TEST_COLLECTION_URI + "')//item)"));
+            assertEquals("10", query(broker, "count(doc('" +
+                TestConstants.TEST_COLLECTION_URI + "/test3.xml')//item[@n])"));
+
+            // the entries of a document are written when the storing transaction is committed
+            broker.beginBulkLoad();
+            final TransactionManager transact = pool.getTransactionManager();
+            final Txn transaction = transact.beginTransaction();
+            final XmldbURI docName = XmldbURI.create("extra.xml");
+            final IndexInfo info = root.validateXMLResource(transaction, broker, docName, document(99));
+            root.store(transaction, broker, info, document(99), false);
+            transact.commit(transaction);
+            final DocumentImpl doc = root.getDocument(broker, docName);
+            assertNotNull(doc);
+            assertEquals(10, countItems(broker, doc));
+            assertEquals(String.valueOf((DOCUMENTS + 1) * 10), query(broker, "count(collection('" +
+                TestConstants.TEST_COLLECTION_URI + "')//item)"));
+
+            // another broker removes the document while this one is still in bulk-load mode
+            final Exception[] failure = new Exception[1];
+            final Thread remover = new Thread() {
+                public void run() {
+                    DBBroker other = null;
+                    final Txn txn = transact.beginTransaction();
+                    try {
+                        other = pool.get(pool.getSecurityManager().getSystemSubject());
+                        root.removeXMLResource(txn, other, docName);
+                        transact.commit(txn);
+                    } catch (final Exception e) {
+                        failure[0] = e;
+                    } finally {
+                        transact.close(txn);
+                        pool.release(other);
+                    }
+                }
+            };
+            remover.start();
+            remover.join();
+            assertNull(failure[0]);
+            broker.endBulkLoad();
+
+            // no entries are left for the removed document, whose id may be reused
+            assertEquals(0, countItems(broker, doc));
+            assertEquals(String.valueOf(DOCUMENTS * 10), query(broker, "count(collection('" +
+                TestConstants.TEST_COLLECTION_URI + "')//item)"));
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    @Test
+    public void releaseEndsBulkLoad() throws Exception {
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            broker.beginBulkLoad();
+            broker.beginBulkLoad();
+            storeDocuments(broker);
+        } finally {
+            pool.release(broker);
+        }
+        broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            assertFalse(broker.isBulkLoad());
+            assertEquals(String.valueOf(DOCUMENTS * 10), query(broker, "count(collection('" +
+                TestConstants.TEST_COLLECTION_URI + "')//item)"));
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    private Collection storeDocuments(DBBroker broker) throws Exception {
+        final TransactionManager transact = pool.getTransactionManager();
+        final Txn transaction = transact.beginTransaction();
+        final Collection root = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI);
+        broker.saveCollection(transaction, root);
+        for (int i = 0; i < DOCUMENTS; i++) {
+            final XmldbURI docName = XmldbURI.create("test" + i + ".xml");
+            final IndexInfo info = root.validateXMLResource(transaction, broker, docName, document(i));
+            root.store(transaction, broker, info, document(i), false);
+        }
+        transact.commit(transaction);
+        return root;
+    }
+
+    private int countItems(DBBroker broker, DocumentImpl doc) {
+        final DefaultDocumentSet docs = new DefaultDocumentSet();
+        docs.add(doc);
+        return broker.getStructuralIndex().findElementsByTagName(ElementValue.ELEMENT, docs,
+            new QName("item", ""), null).getLength();
+    }
+
+    private static String document(int n) {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("<test id=\"").append(n).append("\">");
+        for (int i = 0; i < 10; i++) {
+            builder.append("<item n=\"").append(i).append("\">item ").append(i).append("</item>");
+        }
+        builder.append("</test>");
+        return builder.toString();
+    }
+
+    private String query(DBBroker broker, String query) throws Exception {
+        final XQuery xquery = broker.getXQueryService();
+        final Sequence seq = xquery.execute(query, null, AccessContext.TEST);
+        assertEquals(1, seq.getItemCount());
+        return seq.itemAt(0).getStringValue();
+    }
+
+    @Before
+    public void startDB() throws Exception {
+        final Configuration config = new Configuration();
+        BrokerPool.configure(1, 5, config);
+        pool = BrokerPool.getInstance();
+        DBBroker broker = null;
+        final TransactionManager transact = pool.getTransactionManager();
+        final Txn transaction = transact.beginTransaction();
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            final Collection root = broker.getCollection(TestConstants.TEST_COLLECTION_URI);
+            if (root != null)
+                {broker.removeCollection(transaction, root);}
+            transact.commit(transaction);
+        } finally {
+            transact.close(transaction);
+            pool.release(broker);
+        }
+    }
+
+    @After
+    public void closeDB() {
+        BrokerPool.stopAll(false);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.storage;
+
+import java.util.Properties;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.dom.DocumentImpl;
+import org.exist.security.xacml.AccessContext;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.TestConstants;
+import org.exist.util.Configuration;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.value.Sequence;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Defragment documents fragmented by updates, a limited number per run.
+ */
+public class DefragmentTaskTest {
+
+    private final static String XML =
+        "<test><section><item n='0'/></section><section><item n='1'/></section></test>";
+
+    private final static String QUERY = "string-join(doc('" + TestConstants.TEST_COLLECTION_URI +
+        "/%s')//item/@n, ',')";
+
+    @Test
+    public void defragmentInSteps() throws Exception {
+        final BrokerPool pool = startDB();
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            // do not defragment on update
+            pool.getConfiguration().setProperty(DBBroker.PROPERTY_XUPDATE_FRAGMENTATION_FACTOR,
+                Integer.valueOf(Integer.MAX_VALUE));
+            // store in reverse order, so the documents are not processed in the order of their ids
+            store(pool, broker, "b.xml");
+            store(pool, broker, "a.xml");
+            final String before = query(broker, "a.xml");
+            assertTrue(getSplitCount(broker, "a.xml") > 0);
+            assertTrue(getSplitCount(broker, "b.xml") > 0);
+
+            final Properties properties = new Properties();
+            properties.setProperty(DefragmentTask.COLLECTION_PROP_NAME, TestConstants.TEST_COLLECTION_URI.toString());
+            properties.setProperty(DefragmentTask.MIN_SPLITS_PROP_NAME, "0");
+            properties.setProperty(DefragmentTask.MAX_DOCUMENTS_PROP_NAME, "1");
+            final DefragmentTask task = new DefragmentTask();
+            task.configure(pool.getConfiguration(), properties);
+
+            task.execute(broker);
+            assertEquals(0, getSplitCount(broker, "a.xml"));
+            assertTrue(getSplitCount(broker, "b.xml") > 0);
+            assertEquals(before, query(broker, "a.xml"));
+
+            task.execute(broker);
+            assertEquals(0, getSplitCount(broker, "b.xml"));
+            assertEquals(before, query(broker, "b.xml"));
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    @Before
+    public void removeTestCollection() throws Exception {
+        BrokerPool.FORCE_CORRUPTION = false;
+        final BrokerPool pool = startDB();
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            final TransactionManager transact = pool.getTransactionManager();
+            final Txn transaction = transact.beginTransaction();
+            final Collection test = broker.getCollection(TestConstants.TEST_COLLECTION_URI);
+            if (test != null)
+                {broker.removeCollection(transaction, test);}
+            transact.commit(transaction);
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    private void store(BrokerPool pool, DBBroker broker, String name) throws Exception {
+        final TransactionManager transact = pool.getTransactionManager();
+        final Txn transaction = transact.beginTransaction();
+        final Collection root = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI);
+        broker.saveCollection(transaction, root);
+        final IndexInfo info = root.validateXMLResource(transaction, broker, XmldbURI.create(name), XML);
+        root.store(transaction, broker, info, XML, false);
+        transact.commit(transaction);
+
+        // insert into the first section, so its pages are split
+        final XQuery xquery = broker.getXQueryService();
+        xquery.execute("for $i in 2 to 300 return update insert <item n='{$i}'>{string-join(" +
+            "for $j in 1 to 10 return 'some text', ' ')}</item> into doc('" +
+            TestConstants.TEST_COLLECTION_URI + "/" + name + "')/test/section[1]", null, AccessContext.TEST);
+    }
+
+    private int getSplitCount(DBBroker broker, String name) throws Exception {
+        final DocumentImpl doc = (DocumentImpl) broker.getXMLResource(TestConstants.TEST_COLLECTION_URI.append(name));
+        assertNotNull(doc);
+        return doc.getMetadata().getSplitCount();
+    }
+
+    private String query(DBBroker broker, String name) throws Exception {
+        final XQuery xquery = broker.getXQueryService();
+        final Sequence seq = xquery.execute(String.format(QUERY, name), null, AccessContext.TEST);
+        assertEquals(1, seq.getItemCount());
+        return seq.itemAt(0).getStringValue();
+    }
+
+    @After
+    public void closeDB() {
+        BrokerPool.stopAll(false);
+    }
+
+    protected BrokerPool startDB() throws Exception {
+        final Configuration config = new Configuration();
+        BrokerPool.configure(1, 5, config);
+        return BrokerPool.getInstance();
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.storage;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.dom.DocumentImpl;
+import org.exist.security.xacml.AccessContext;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.TestConstants;
+import org.exist.util.Configuration;
+import org.exist.util.MimeTable;
+import org.exist.util.MimeType;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.value.Sequence;
+import org.junit.After;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reindex a collection tree with several threads and small batches.
+ */
+public class ParallelReindexTest {
+
+    private final static String QUERY = "count(collection('" + TestConstants.TEST_COLLECTION_URI +
+        "')//SPEECH[SPEAKER = 'HAMLET'])";
+
+    private final static String SPEECH =
+        "<PLAY><SPEECH><SPEAKER>HAMLET</SPEAKER><LINE>To be, or not to be</LINE></SPEECH></PLAY>";
+
+    private static File dir = null;
+    static {
+      String existHome = System.getProperty("exist.home");
+      File existDir = existHome==null ? new File(".") : new File(existHome);
+      dir = new File(existDir, "samples/shakespeare");
+    }
+
+    @Test
+    public void reindexInParallel() throws Exception {
+        BrokerPool.FORCE_CORRUPTION = false;
+        final BrokerPool pool = startDB();
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            storeDocuments(pool, broker);
+            final String before = query(broker);
+            assertFalse("0".equals(before));
+
+            pool.getConfiguration().setProperty(NativeBroker.PROPERTY_REINDEX_THREADS, Integer.valueOf(3));
+            pool.getConfiguration().setProperty(NativeBroker.PROPERTY_REINDEX_BATCH_SIZE, Integer.valueOf(1));
+            broker.reindexCollection(TestConstants.TEST_COLLECTION_URI);
+
+            assertEquals(before, query(broker));
+            assertEquals(0, pool.getProcessMonitor().runningJobs().length);
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    @Test
+    public void storeDuringReindex() throws Exception {
+        BrokerPool.FORCE_CORRUPTION = false;
+        final BrokerPool pool = startDB();
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            storeDocuments(pool, broker);
+            final int before = Integer.parseInt(query(broker));
+
+            // store documents while the collection is reindexed
+            final AtomicBoolean done = new AtomicBoolean(false);
+            final AtomicInteger stored = new AtomicInteger();
+            final AtomicReference<Exception> error = new AtomicReference<Exception>();
+            final Thread writer = new Thread() {
+                @Override
+                public void run() {
+                    DBBroker writeBroker = null;
+                    try {
+                        writeBroker = pool.get(pool.getSecurityManager().getSystemSubject());
+                        final TransactionManager transact = pool.getTransactionManager();
+                        while (!done.get()) {
+                            final Txn transaction = transact.beginTransaction();
+                            final Collection root = writeBroker.getCollection(TestConstants.TEST_COLLECTION_URI);
+                            final XmldbURI name = XmldbURI.create("speech" + stored.get() + ".xml");
+                            final IndexInfo info = root.validateXMLResource(transaction, writeBroker, name, SPEECH);
+                            root.store(transaction, writeBroker, info, SPEECH, false);
+                            transact.commit(transaction);
+                            stored.incrementAndGet();
+                        }
+                    } catch (final Exception e) {
+                        error.set(e);
+                    } finally {
+                        pool.release(writeBroker);
+                    }
+                }
+            };
+            writer.start();
+            pool.getConfiguration().setProperty(NativeBroker.PROPERTY_REINDEX_THREADS, Integer.valueOf(3));
+            pool.getConfiguration().setProperty(NativeBroker.PROPERTY_REINDEX_BATCH_SIZE, Integer.valueOf(1));
+            for (int i = 0; i < 3; i++) {
+                broker.reindexCollection(TestConstants.TEST_COLLECTION_URI);
+            }
+            done.set(true);
+            writer.join();
+
+            assertNull(error.get());
+            assertTrue(stored.get() > 0);
+            assertEquals(before + stored.get(), Integer.parseInt(query(broker)));
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    @Test
+    public void shadowReindexKeepsIndexes() throws Exception {
+        BrokerPool.FORCE_CORRUPTION = false;
+        final BrokerPool pool = startDB();
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            storeDocuments(pool, broker);
+            final String before = query(broker);
+            final Collection root = broker.getCollection(TestConstants.TEST_COLLECTION_URI);
+            final DocumentImpl doc = root.iterator(broker).next();
+            final int oldId = doc.getDocId();
+
+            // query the collection while it is reindexed
+            final AtomicBoolean done = new AtomicBoolean(false);
+            final AtomicReference<String> wrongResult = new AtomicReference<String>();
+            final Thread reader = new Thread() {
+                @Override
+                public void run() {
+                    DBBroker readBroker = null;
+                    try {
+                        readBroker = pool.get(pool.getSecurityManager().getSystemSubject());
+                        while (!done.get()) {
+                            final String result = query(readBroker);
+                            if (!before.equals(result))
+                                {wrongResult.set(result);}
+                        }
+                    } catch (final Exception e) {
+                        wrongResult.set(e.toString());
+                    } finally {
+                        pool.release(readBroker);
+                    }
+                }
+            };
+            reader.start();
+            pool.getConfiguration().setProperty(NativeBroker.PROPERTY_SHADOW_REINDEX, Boolean.TRUE);
+            pool.getConfiguration().setProperty(NativeBroker.PROPERTY_REINDEX_THREADS, Integer.valueOf(2));
+            pool.getConfiguration().setProperty(NativeBroker.PROPERTY_REINDEX_BATCH_SIZE, Integer.valueOf(1));
+            broker.reindexCollection(TestConstants.TEST_COLLECTION_URI);
+            done.set(true);
+            reader.join();
+
+            assertNull(wrongResult.get());
+            assertEquals(before, query(broker));
+            final DocumentImpl newDoc = root.getDocument(broker, doc.getFileURI());
+            assertNotNull(newDoc);
+            assertTrue(oldId != newDoc.getDocId());
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    private void storeDocuments(BrokerPool pool, DBBroker broker) throws Exception {
+        final TransactionManager transact = pool.getTransactionManager();
+        final Txn transaction = transact.beginTransaction();
+        final Collection root = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI);
+        broker.saveCollection(transaction, root);
+        final Collection child = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI2);
+        broker.saveCollection(transaction, child);
+
+        final File files[] = dir.listFiles();
+        assertNotNull(files);
+        int stored = 0;
+        for (int i = 0; i < files.length; i++) {
+            final MimeType mime = MimeTable.getInstance().getContentTypeFor(files[i].getName());
+            if (mime == null || !mime.isXMLType())
+                {continue;}
+            final Collection target = stored++ % 2 == 0 ? root : child;
+            final XmldbURI name = XmldbURI.create(files[i].getName());
+            final IndexInfo info = target.validateXMLResource(transaction, broker, name,
+                new InputSource(files[i].toURI().toASCIIString()));
+            target.store(transaction, broker, info, new InputSource(files[i].toURI().toASCIIString()), false);
+        }
+        transact.commit(transaction);
+        assertTrue(stored > 2);
+    }
+
+    private String query(DBBroker broker) throws Exception {
+        final XQuery xquery = broker.getXQueryService();
+        final Sequence seq = xquery.execute(QUERY, null, AccessContext.TEST);
+        assertEquals(1, seq.getItemCount());
+        return seq.itemAt(0).getStringValue();
+    }
+
+    @After
+    public void closeDB() throws Exception {
+        // do not leave the documents to other tests
+        final BrokerPool pool = startDB();
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            final TransactionManager transact = pool.getTransactionManager();
+            final Txn transaction = transact.beginTransaction();
+            final Collection test = broker.getCollection(TestConstants.TEST_COLLECTION_URI);
+            if (test != null)
+                {broker.removeCollection(transaction, test);}
+            transact.commit(transaction);
+        } finally {
+            pool.release(broker);
+            BrokerPool.stopAll(false);
+        }
+    }
+
+    protected BrokerPool startDB() throws Exception {
+        final Configuration config = new Configuration();
+        BrokerPool.configure(1, 5, config);
+        return BrokerPool.getInstance();
+    }
+}
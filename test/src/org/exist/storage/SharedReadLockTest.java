@@ -0,0 +1,160 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.storage;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.security.xacml.AccessContext;
+import org.exist.storage.index.BTreeStore;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.TestConstants;
+import org.exist.util.Configuration;
+import org.exist.util.MimeTable;
+import org.exist.util.MimeType;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.value.Sequence;
+import org.junit.After;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+import static org.junit.Assert.*;
+
+/**
+ * Query the structural index on several threads while documents are stored,
+ * with the lock on structure.dbx shared by readers.
+ */
+public class SharedReadLockTest {
+
+    private final static String QUERY = "count(collection('" + TestConstants.TEST_COLLECTION_URI +
+        "')//SPEECH/SPEAKER)";
+
+    private final static int READERS = 4;
+
+    private static File dir = null;
+    static {
+      String existHome = System.getProperty("exist.home");
+      File existDir = existHome==null ? new File(".") : new File(existHome);
+      dir = new File(existDir, "samples/shakespeare");
+    }
+
+    @Test
+    public void queryWhileStoring() throws Exception {
+        BrokerPool.FORCE_CORRUPTION = false;
+        final BrokerPool pool = startDB();
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            final File files[] = xmlFiles();
+            store(pool, broker, files[0]);
+            final String first = query(broker);
+            assertFalse("0".equals(first));
+
+            final AtomicBoolean done = new AtomicBoolean(false);
+            final AtomicReference<String> error = new AtomicReference<String>();
+            final Thread readers[] = new Thread[READERS];
+            for (int i = 0; i < READERS; i++) {
+                readers[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        DBBroker readBroker = null;
+                        try {
+                            readBroker = pool.get(pool.getSecurityManager().getSystemSubject());
+                            int last = 0;
+                            while (!done.get()) {
+                                final int count = Integer.parseInt(query(readBroker));
+                                if (count < last)
+                                    {error.set("count decreased from " + last + " to " + count);}
+                                last = count;
+                            }
+                        } catch (final Throwable e) {
+                            error.set(e.toString());
+                        } finally {
+                            pool.release(readBroker);
+                        }
+                    }
+                };
+                readers[i].start();
+            }
+            for (int i = 1; i < files.length; i++) {
+                store(pool, broker, files[i]);
+            }
+            done.set(true);
+            for (int i = 0; i < READERS; i++) {
+                readers[i].join();
+            }
+            assertNull(error.get());
+            assertTrue(Integer.parseInt(query(broker)) >= Integer.parseInt(first));
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    private File[] xmlFiles() {
+        final File files[] = dir.listFiles(new java.io.FileFilter() {
+            public boolean accept(File file) {
+                final MimeType mime = MimeTable.getInstance().getContentTypeFor(file.getName());
+                return mime != null && mime.isXMLType();
+            }
+        });
+        assertNotNull(files);
+        assertTrue(files.length > 1);
+        return files;
+    }
+
+    private void store(BrokerPool pool, DBBroker broker, File file) throws Exception {
+        final TransactionManager transact = pool.getTransactionManager();
+        final Txn transaction = transact.beginTransaction();
+        final Collection root = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI);
+        broker.saveCollection(transaction, root);
+        final XmldbURI name = XmldbURI.create(file.getName());
+        final IndexInfo info = root.validateXMLResource(transaction, broker, name,
+            new InputSource(file.toURI().toASCIIString()));
+        root.store(transaction, broker, info, new InputSource(file.toURI().toASCIIString()), false);
+        transact.commit(transaction);
+    }
+
+    private String query(DBBroker broker) throws Exception {
+        final XQuery xquery = broker.getXQueryService();
+        final Sequence seq = xquery.execute(QUERY, null, AccessContext.TEST);
+        assertEquals(1, seq.getItemCount());
+        return seq.itemAt(0).getStringValue();
+    }
+
+    @After
+    public void closeDB() {
+        BrokerPool.stopAll(false);
+    }
+
+    protected BrokerPool startDB() throws Exception {
+        final Configuration config = new Configuration();
+        config.setProperty(BTreeStore.PROPERTY_SHARED_READ_LOCKS, "structure.dbx");
+        config.setProperty(DefaultCacheManager.PROPERTY_CONCURRENT_CACHES, "structure.dbx");
+        BrokerPool.configure(1, READERS + 2, config);
+        return BrokerPool.getInstance();
+    }
+}
@@ -217,6 +217,39 @@ public class BTreeTest {
         System.out.println("------------------ testLongStrings: END -------------------------");
     }
 
+    @Test
+    public void longPrefixes() throws Exception {
+        // keys sharing a prefix longer than the maximum prefix length stored on a leaf page
+        final StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            buf.append('p');
+        }
+        final String prefixStr = buf.toString();
+        BTree btree = null;
+        try {
+            btree = new BTree(pool, (byte) 0, false, pool.getCacheManager(), file, 0.1);
+            btree.create((short) -1);
+            for (int i = 1; i <= COUNT; i++) {
+                btree.addValue(new Value(prefixStr + i), i);
+            }
+            btree.flush();
+            btree.close();
+
+            // read the pages back from the file
+            btree = new BTree(pool, (byte) 0, false, pool.getCacheManager(), file, 0.1);
+            assertTrue(btree.open(btree.getFileVersion()));
+            for (int i = 1; i <= COUNT; i++) {
+                assertEquals(i, btree.findValue(new Value(prefixStr + i)));
+            }
+            IndexQuery query = new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value(prefixStr));
+            btree.query(query, new SimpleCallback());
+            assertEquals(COUNT, count);
+        } finally {
+            if (btree != null)
+                {btree.close();}
+        }
+    }
+
     @Test
     public void stringsTruncated() {
         System.out.println("------------------ testStringsTruncated: START -------------------------");
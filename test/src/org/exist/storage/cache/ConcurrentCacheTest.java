@@ -0,0 +1,161 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.storage.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.exist.storage.CacheManager;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentCacheTest {
+
+    private final static int SIZE = 64;
+
+    @Test
+    public void replacesPages() {
+        final ConcurrentCache cache = new ConcurrentCache(SIZE, 0.0, 1.0, CacheManager.DATA_CACHE);
+        final Item first = new Item(0);
+        first.dirty = true;
+        cache.add(first);
+        for (int i = 1; i < SIZE * 4; i++) {
+            cache.add(new Item(i));
+        }
+        assertTrue(cache.getUsedBuffers() <= SIZE);
+        assertNull(cache.get(0));
+        assertFalse(first.dirty);
+        assertNotNull(cache.get(SIZE * 4 - 1));
+    }
+
+    @Test
+    public void removeAndResize() {
+        final ConcurrentCache cache = new ConcurrentCache(SIZE, 0.0, 1.0, CacheManager.DATA_CACHE);
+        for (int i = 0; i < SIZE; i++) {
+            cache.add(new Item(i));
+        }
+        cache.remove(new Item(3));
+        assertNull(cache.get(3));
+        assertEquals(SIZE - 1, cache.getUsedBuffers());
+
+        cache.resize(SIZE * 2);
+        assertEquals(SIZE * 2, cache.getBuffers());
+        assertEquals(SIZE - 1, cache.getUsedBuffers());
+        assertNotNull(cache.get(4));
+
+        cache.resize(SIZE / 2);
+        assertEquals(0, cache.getUsedBuffers());
+    }
+
+    @Test
+    public void concurrentAccess() throws InterruptedException {
+        final ConcurrentCache cache = new ConcurrentCache(SIZE, 0.0, 1.0, CacheManager.DATA_CACHE);
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        final Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final long seed = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    final Random random = new Random(seed);
+                    try {
+                        for (int j = 0; j < 20000; j++) {
+                            final long key = random.nextInt(SIZE * 4);
+                            final Cacheable cached = cache.get(key);
+                            if (cached == null)
+                                {cache.add(new Item(key));}
+                            else
+                                {assertEquals(key, cached.getKey());}
+                        }
+                    } catch (final Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertTrue(cache.getUsedBuffers() <= SIZE);
+        assertEquals(8 * 20000, cache.getHits() + cache.getFails());
+    }
+
+    private static class Item implements Cacheable {
+
+        private final long key;
+        private int refCount = 0;
+        private int timestamp = 0;
+        boolean dirty = false;
+
+        Item(long key) {
+            this.key = key;
+        }
+
+        public long getKey() {
+            return key;
+        }
+
+        public int getReferenceCount() {
+            return refCount;
+        }
+
+        public int incReferenceCount() {
+            return ++refCount;
+        }
+
+        public int decReferenceCount() {
+            return refCount > 0 ? --refCount : 0;
+        }
+
+        public void setReferenceCount(int count) {
+            refCount = count;
+        }
+
+        public void setTimestamp(int timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        public int getTimestamp() {
+            return timestamp;
+        }
+
+        public boolean sync(boolean syncJournal) {
+            final boolean written = dirty;
+            dirty = false;
+            return written;
+        }
+
+        public boolean allowUnload() {
+            return true;
+        }
+
+        public boolean isDirty() {
+            return dirty;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.storage.cache;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OffHeapPageStoreTest {
+
+    private final static int PAGE_SIZE = 512;
+
+    @Test
+    public void readWrittenPages() {
+        final OffHeapPageStore store = new OffHeapPageStore(1024 * 1024, PAGE_SIZE);
+        final int file = store.registerFile();
+        for (int i = 0; i < 100; i++) {
+            store.write(file, i, page(i));
+        }
+        final byte[] buf = new byte[PAGE_SIZE];
+        for (int i = 0; i < 100; i++) {
+            assertTrue(store.read(file, i, buf));
+            assertArrayEquals(page(i), buf);
+        }
+        assertFalse(store.read(file, 100, buf));
+        assertEquals(100, store.getHits());
+        assertEquals(1, store.getMisses());
+
+        // a new image replaces the old one
+        store.write(file, 5, page(42));
+        assertTrue(store.read(file, 5, buf));
+        assertArrayEquals(page(42), buf);
+        assertEquals(100, store.getUsedPages());
+    }
+
+    @Test
+    public void filesDoNotSharePages() {
+        final OffHeapPageStore store = new OffHeapPageStore(1024 * 1024, PAGE_SIZE);
+        final int first = store.registerFile();
+        final int second = store.registerFile();
+        store.write(first, 1, page(1));
+        final byte[] buf = new byte[PAGE_SIZE];
+        assertFalse(store.read(second, 1, buf));
+        store.write(second, 1, page(2));
+        assertTrue(store.read(first, 1, buf));
+        assertArrayEquals(page(1), buf);
+    }
+
+    @Test
+    public void sizeIsLimited() {
+        final OffHeapPageStore store = new OffHeapPageStore(OffHeapPageStore.STRIPES * 4 * PAGE_SIZE, PAGE_SIZE);
+        final int file = store.registerFile();
+        for (int i = 0; i < 10000; i++) {
+            store.write(file, i, page(i));
+        }
+        assertEquals(OffHeapPageStore.STRIPES * 4, store.getUsedPages());
+        // pages still in the store are never stale
+        final byte[] buf = new byte[PAGE_SIZE];
+        for (int i = 0; i < 10000; i++) {
+            if (store.read(file, i, buf))
+                {assertArrayEquals(page(i), buf);}
+        }
+    }
+
+    private static byte[] page(int n) {
+        final byte[] data = new byte[PAGE_SIZE];
+        Arrays.fill(data, (byte) n);
+        data[0] = (byte) (n >>> 8);
+        return data;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.storage.cache;
+
+import org.exist.storage.CacheManager;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TwoQueueCacheTest {
+
+    private final static int SIZE = 16;
+
+    @Test
+    public void scanDoesNotEvictHotPages() {
+        final TwoQueueCache cache = new TwoQueueCache(SIZE, 0.0, 1.0, CacheManager.BTREE_CACHE);
+        // page 0 is accessed again after it has been evicted once: it becomes hot
+        cache.add(new Item(0));
+        for (int i = 1; i <= SIZE; i++) {
+            cache.add(new Item(i));
+        }
+        assertNull(cache.get(0));
+        cache.add(new Item(0));
+        assertEquals(1, cache.getHotBuffers());
+
+        // a scan over many pages which are read only once
+        for (int i = 1000; i < 1000 + 10 * SIZE; i++) {
+            cache.add(new Item(i));
+        }
+        assertNotNull(cache.get(0));
+        assertTrue(cache.getUsedBuffers() <= SIZE);
+    }
+
+    @Test
+    public void dirtyPagesAreWrittenOnEviction() {
+        final TwoQueueCache cache = new TwoQueueCache(SIZE, 0.0, 1.0, CacheManager.DATA_CACHE);
+        final Item first = new Item(0);
+        first.dirty = true;
+        cache.add(first);
+        assertTrue(cache.hasDirtyItems());
+        for (int i = 1; i <= SIZE; i++) {
+            cache.add(new Item(i));
+        }
+        assertNull(cache.get(0));
+        assertFalse(first.dirty);
+        assertFalse(cache.hasDirtyItems());
+    }
+
+    @Test
+    public void removeAndResize() {
+        final TwoQueueCache cache = new TwoQueueCache(SIZE, 0.0, 1.0, CacheManager.DATA_CACHE);
+        for (int i = 0; i < SIZE; i++) {
+            cache.add(new Item(i));
+        }
+        cache.remove(new Item(3));
+        assertNull(cache.get(3));
+        assertEquals(SIZE - 1, cache.getUsedBuffers());
+
+        cache.resize(SIZE * 2);
+        assertEquals(SIZE * 2, cache.getBuffers());
+        assertNotNull(cache.get(4));
+        for (int i = SIZE; i < SIZE * 2; i++) {
+            cache.add(new Item(i));
+        }
+        assertEquals(SIZE * 2 - 1, cache.getUsedBuffers());
+    }
+
+    private static class Item implements Cacheable {
+
+        private final long key;
+        private int refCount = 0;
+        private int timestamp = 0;
+        boolean dirty = false;
+
+        Item(long key) {
+            this.key = key;
+        }
+
+        public long getKey() {
+            return key;
+        }
+
+        public int getReferenceCount() {
+            return refCount;
+        }
+
+        public int incReferenceCount() {
+            return ++refCount;
+        }
+
+        public int decReferenceCount() {
+            return refCount > 0 ? --refCount : 0;
+        }
+
+        public void setReferenceCount(int count) {
+            refCount = count;
+        }
+
+        public void setTimestamp(int timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        public int getTimestamp() {
+            return timestamp;
+        }
+
+        public boolean sync(boolean syncJournal) {
+            final boolean written = dirty;
+            dirty = false;
+            return written;
+        }
+
+        public boolean allowUnload() {
+            return true;
+        }
+
+        public boolean isDirty() {
+            return dirty;
+        }
+    }
+}
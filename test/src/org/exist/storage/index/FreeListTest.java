@@ -0,0 +1,137 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.storage.index;
+
+import java.io.File;
+
+import org.exist.storage.BrokerPool;
+import org.exist.storage.btree.Value;
+import org.exist.util.Configuration;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FreeListTest {
+
+    private final static byte FILE_ID = 100;
+
+    private File file = null;
+
+    @Test
+    public void findBestFit() {
+        final FreeList list = new FreeList();
+        for (int i = 0; i < 1000; i++) {
+            list.add(new FreeSpace(i, 100 + (i * 7) % 3000));
+        }
+        assertEquals(1000, list.size());
+        final FreeSpace found = list.find(500);
+        assertNotNull(found);
+        assertTrue(found.getFree() >= 500);
+        assertTrue(found.getFree() < 500 + FreeList.BUCKET_SIZE);
+        assertNull(list.find(4000));
+
+        // changing the free space moves the page to another bucket
+        final FreeSpace page = list.retrieve(10);
+        list.setFree(page, 3500);
+        assertSame(page, list.find(3200));
+
+        list.remove(page);
+        assertNull(list.retrieve(10));
+        assertNull(list.find(3200));
+        // removing a record which is not in the list has no effect
+        list.remove(new FreeSpace(11, 100));
+        assertNotNull(list.retrieve(11));
+        assertEquals(999, list.size());
+    }
+
+    @Test
+    public void readWrite() throws Exception {
+        final FreeList list = new FreeList();
+        for (int i = 0; i < 300; i++) {
+            list.add(new FreeSpace(i, i * 10));
+        }
+        final byte[] buf = new byte[FreeList.MAX_FREE_LIST_SIZE];
+        assertEquals(FreeList.MAX_FREE_LIST_SIZE, list.write(buf, 0));
+        final FreeList copy = new FreeList();
+        copy.read(buf, 0);
+        assertEquals(FreeList.MAX_FREE_LIST_LEN, copy.size());
+        // the pages with the most free space come first
+        assertNotNull(copy.retrieve(299));
+        assertNull(copy.retrieve(0));
+    }
+
+    /**
+     * More pages than fit into the file header have free space. All of
+     * them should be reused after the file has been reopened.
+     */
+    @Test
+    public void reuseAfterRestart() throws Exception {
+        final BrokerPool pool = startDB();
+        file = new File(pool.getConfiguration().getProperty(BrokerPool.PROPERTY_DATA_DIR) + File.separator +
+            "freelist-test.dbx");
+        file.delete();
+
+        final byte[] data = new byte[900];
+        BFile bfile = createFile(pool);
+        for (int i = 0; i < 2000; i++) {
+            bfile.put(new Value(key(i)), data, true);
+        }
+        // free space on every page
+        for (int i = 0; i < 2000; i += 4) {
+            bfile.remove(new Value(key(i)));
+        }
+        bfile.close();
+
+        bfile = createFile(pool);
+        final long totalCount = bfile.getFileHeader().getTotalCount();
+        for (int i = 0; i < 2000; i += 4) {
+            bfile.put(new Value(key(i)), data, true);
+        }
+        assertEquals(totalCount, bfile.getFileHeader().getTotalCount());
+        for (int i = 0; i < 2000; i++) {
+            assertNotNull(bfile.get(new Value(key(i))));
+        }
+        bfile.close();
+    }
+
+    private BFile createFile(BrokerPool pool) throws Exception {
+        return new BFile(pool, FILE_ID, false, file, pool.getCacheManager(), 1.4, 0.01, 0.01);
+    }
+
+    private static byte[] key(int i) {
+        return ("key" + (10000 + i)).getBytes();
+    }
+
+    @After
+    public void closeDB() {
+        if (file != null)
+            {file.delete();}
+        BrokerPool.stopAll(false);
+    }
+
+    protected BrokerPool startDB() throws Exception {
+        final Configuration config = new Configuration();
+        BrokerPool.configure(1, 5, config);
+        return BrokerPool.getInstance();
+    }
+}
@@ -0,0 +1,95 @@
+package org.exist.storage.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that reads served from the memory mapping see the same
+ * data as reads through the file channel.
+ */
+public class MappedPageIOTest {
+
+    private static final int PAGE_SIZE = 4096;
+    private static final int SEGMENT_SIZE = PAGE_SIZE * 8;
+    private static final int PAGES = 300;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("mapped", ".dbx");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void readWrite() throws IOException {
+        final MappedPageIO io = new MappedPageIO(file, false, SEGMENT_SIZE);
+        try {
+            for (int i = 0; i < PAGES; i++) {
+                io.write((long) i * PAGE_SIZE, page(i), 0, PAGE_SIZE);
+            }
+            final byte[] buf = new byte[PAGE_SIZE];
+            for (int i = PAGES - 1; i >= 0; i--) {
+                io.read((long) i * PAGE_SIZE, buf, 0, PAGE_SIZE);
+                assertArrayEquals(page(i), buf);
+            }
+            // overwrite a page which is already mapped
+            io.write(PAGE_SIZE, page(1000), 0, PAGE_SIZE);
+            io.read(PAGE_SIZE, buf, 0, PAGE_SIZE);
+            assertArrayEquals(page(1000), buf);
+
+            // read crossing a segment boundary
+            final byte[] cross = new byte[PAGE_SIZE * 2];
+            io.read(SEGMENT_SIZE - PAGE_SIZE, cross, 0, cross.length);
+            assertArrayEquals(page(SEGMENT_SIZE / PAGE_SIZE - 1), Arrays.copyOfRange(cross, 0, PAGE_SIZE));
+            assertArrayEquals(page(SEGMENT_SIZE / PAGE_SIZE), Arrays.copyOfRange(cross, PAGE_SIZE, cross.length));
+
+            // beyond the end of the file
+            Arrays.fill(buf, (byte) 1);
+            assertEquals(0, io.read((long) PAGES * PAGE_SIZE, buf, 0, PAGE_SIZE));
+            assertArrayEquals(new byte[PAGE_SIZE], buf);
+        } finally {
+            io.close();
+        }
+    }
+
+    @Test
+    public void reopen() throws IOException {
+        PageIO io = new PageIO(file, false);
+        for (int i = 0; i < PAGES; i++) {
+            io.write((long) i * PAGE_SIZE, page(i), 0, PAGE_SIZE);
+        }
+        io.close();
+
+        io = new MappedPageIO(file, true, SEGMENT_SIZE);
+        try {
+            final byte[] buf = new byte[PAGE_SIZE];
+            for (int i = 0; i < PAGES; i++) {
+                io.read((long) i * PAGE_SIZE, buf, 0, PAGE_SIZE);
+                assertArrayEquals(page(i), buf);
+            }
+        } finally {
+            io.close();
+        }
+    }
+
+    private static byte[] page(int num) {
+        final byte[] data = new byte[PAGE_SIZE];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (num + i);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,130 @@
+package org.exist.storage.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.OverlappingFileLockException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that a file stays usable if a thread is interrupted while
+ * reading or writing a page.
+ */
+public class PageIOTest {
+
+    private static final int PAGE_SIZE = 4096;
+    private static final int PAGES = 16;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("paged", ".dbx");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void interruptedRead() throws IOException {
+        final PageIO io = new PageIO(file, false);
+        try {
+            writePages(io);
+            final byte[] buf = new byte[PAGE_SIZE];
+            Thread.currentThread().interrupt();
+            io.read(3L * PAGE_SIZE, buf, 0, PAGE_SIZE);
+            // the interrupt status is kept
+            assertTrue(Thread.interrupted());
+            assertArrayEquals(page(3), buf);
+
+            // the file is still usable for other operations
+            io.write(PAGE_SIZE, page(1000), 0, PAGE_SIZE);
+            io.read(PAGE_SIZE, buf, 0, PAGE_SIZE);
+            assertArrayEquals(page(1000), buf);
+            assertEquals((long) PAGES * PAGE_SIZE, io.size());
+        } finally {
+            Thread.interrupted();
+            io.close();
+        }
+    }
+
+    @Test
+    public void interruptedWrite() throws IOException {
+        final PageIO io = new PageIO(file, false);
+        try {
+            writePages(io);
+            Thread.currentThread().interrupt();
+            io.write(5L * PAGE_SIZE, page(500), 0, PAGE_SIZE);
+            assertTrue(Thread.interrupted());
+            Thread.currentThread().interrupt();
+            io.force(false);
+            assertTrue(Thread.interrupted());
+
+            final byte[] buf = new byte[PAGE_SIZE];
+            io.read(5L * PAGE_SIZE, buf, 0, PAGE_SIZE);
+            assertArrayEquals(page(500), buf);
+        } finally {
+            Thread.interrupted();
+            io.close();
+        }
+    }
+
+    @Test
+    public void keepLock() throws IOException {
+        final PageIO io = new PageIO(file, false);
+        try {
+            assertTrue(io.tryLock());
+            writePages(io);
+            Thread.currentThread().interrupt();
+            io.read(0, new byte[PAGE_SIZE], 0, PAGE_SIZE);
+            assertTrue(Thread.interrupted());
+
+            // the reopened file is still locked
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.getChannel().tryLock();
+                fail("file should still be locked");
+            } catch (final OverlappingFileLockException e) {
+                // expected
+            } finally {
+                raf.close();
+            }
+        } finally {
+            Thread.interrupted();
+            io.close();
+        }
+    }
+
+    @Test(expected = ClosedChannelException.class)
+    public void noReopenAfterClose() throws IOException {
+        final PageIO io = new PageIO(file, false);
+        writePages(io);
+        io.close();
+        io.read(0, new byte[PAGE_SIZE], 0, PAGE_SIZE);
+    }
+
+    private static void writePages(PageIO io) throws IOException {
+        for (int i = 0; i < PAGES; i++) {
+            io.write((long) i * PAGE_SIZE, page(i), 0, PAGE_SIZE);
+        }
+    }
+
+    private static byte[] page(int num) {
+        final byte[] data = new byte[PAGE_SIZE];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (num + i);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.storage.lock;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Record lock requests which have to wait for another thread.
+ */
+public class DeadlockDetectionTest {
+
+    @Test
+    public void recordWaits() throws Exception {
+        final long resourceWaits = DeadlockDetection.getResourceWaits();
+        final long collectionWaits = DeadlockDetection.getCollectionWaits();
+        final MultiReadReentrantLock resourceLock = new MultiReadReentrantLock("resource");
+        final ReentrantReadWriteLock collectionLock = new ReentrantReadWriteLock("collection");
+
+        // uncontended locks do not wait
+        assertTrue(resourceLock.acquire(Lock.READ_LOCK));
+        assertTrue(collectionLock.acquire(Lock.READ_LOCK));
+        resourceLock.release(Lock.READ_LOCK);
+        collectionLock.release(Lock.READ_LOCK);
+        assertEquals(resourceWaits, DeadlockDetection.getResourceWaits());
+        assertEquals(collectionWaits, DeadlockDetection.getCollectionWaits());
+
+        assertTrue(resourceLock.acquire(Lock.WRITE_LOCK));
+        assertTrue(collectionLock.acquire(Lock.WRITE_LOCK));
+        final Thread reader = new Thread() {
+            public void run() {
+                try {
+                    resourceLock.acquire(Lock.READ_LOCK);
+                    resourceLock.release(Lock.READ_LOCK);
+                    collectionLock.acquire(Lock.READ_LOCK);
+                    collectionLock.release(Lock.READ_LOCK);
+                } catch (final Exception e) {
+                    fail(e.getMessage());
+                }
+            }
+        };
+        reader.start();
+        waitForLock();
+        assertEquals(resourceWaits + 1, DeadlockDetection.getResourceWaits());
+        resourceLock.release(Lock.WRITE_LOCK);
+        waitForLock();
+        assertEquals(collectionWaits + 1, DeadlockDetection.getCollectionWaits());
+        collectionLock.release(Lock.WRITE_LOCK);
+        reader.join(10000);
+        assertFalse(reader.isAlive());
+        assertEquals(0, DeadlockDetection.getWaitingThreadCount());
+        assertTrue(DeadlockDetection.getWaitTime() > 0);
+    }
+
+    private void waitForLock() throws InterruptedException {
+        for (int i = 0; i < 100 && DeadlockDetection.getWaitingThreadCount() == 0; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, DeadlockDetection.getWaitingThreadCount());
+        // keep the thread waiting for a while
+        Thread.sleep(50);
+    }
+}
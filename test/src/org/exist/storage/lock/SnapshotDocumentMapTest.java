@@ -0,0 +1,109 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.storage.lock;
+
+import org.exist.dom.DocumentImpl;
+import org.exist.storage.BrokerPool;
+import org.exist.util.Configuration;
+import org.exist.xmldb.XmldbURI;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Validate the documents read by a query in snapshot mode.
+ */
+public class SnapshotDocumentMapTest {
+
+    private static BrokerPool pool = null;
+
+    @Test
+    public void writeVersion() throws Exception {
+        final MultiReadReentrantLock lock = new MultiReadReentrantLock("resource");
+        final long version = lock.getWriteVersion();
+        lock.acquire(Lock.READ_LOCK);
+        lock.release(Lock.READ_LOCK);
+        assertEquals(version, lock.getWriteVersion());
+
+        // reentrant write locks change the version only once
+        lock.acquire(Lock.WRITE_LOCK);
+        lock.acquire(Lock.WRITE_LOCK);
+        assertEquals(version + 1, lock.getWriteVersion());
+        lock.release(Lock.WRITE_LOCK);
+        assertEquals(version + 1, lock.getWriteVersion());
+        lock.release(Lock.WRITE_LOCK);
+        assertEquals(version + 2, lock.getWriteVersion());
+    }
+
+    @Test
+    public void validate() throws Exception {
+        final DocumentImpl a = createDocument(1, "a.xml");
+        final DocumentImpl b = createDocument(2, "b.xml");
+
+        SnapshotDocumentMap snapshot = new SnapshotDocumentMap();
+        snapshot.add(a);
+        snapshot.add(b);
+        snapshot.add(a);
+        assertTrue(snapshot.isValid());
+        b.getUpdateLock().acquire(Lock.READ_LOCK);
+        b.getUpdateLock().release(Lock.READ_LOCK);
+        assertTrue(snapshot.isValid());
+
+        // a document was modified after it has been read
+        b.getUpdateLock().acquire(Lock.WRITE_LOCK);
+        b.getUpdateLock().release(Lock.WRITE_LOCK);
+        assertFalse(snapshot.isValid());
+
+        // a document is being modified while it is read
+        snapshot = new SnapshotDocumentMap();
+        b.getUpdateLock().acquire(Lock.WRITE_LOCK);
+        snapshot.add(b);
+        b.getUpdateLock().release(Lock.WRITE_LOCK);
+        assertFalse(snapshot.isValid());
+
+        // a document has been replaced by another one with the same id
+        snapshot = new SnapshotDocumentMap();
+        snapshot.add(a);
+        snapshot.add(createDocument(1, "a.xml"));
+        assertFalse(snapshot.isValid());
+    }
+
+    private DocumentImpl createDocument(int docId, String name) {
+        final DocumentImpl doc = new DocumentImpl(pool, null, XmldbURI.create(name));
+        doc.setDocId(docId);
+        return doc;
+    }
+
+    @BeforeClass
+    public static void startDB() throws Exception {
+        BrokerPool.configure(1, 5, new Configuration());
+        pool = BrokerPool.getInstance();
+    }
+
+    @AfterClass
+    public static void stopDB() {
+        BrokerPool.stopAll(false);
+        pool = null;
+    }
+}
@@ -67,10 +67,18 @@ class SortTestNodeId implements NodeId {
 		return compareTo((SortTestNodeId) arg0);
 	}
 
+	public int compareTo(int arg0, byte[] arg1, int arg2) {
+		throw new UnsupportedOperationException();
+	}
+
 	public int computeRelation(NodeId arg0) {
 		throw new UnsupportedOperationException();
 	}
 
+	public int computeRelationOf(int arg0, byte[] arg1, int arg2) {
+		throw new UnsupportedOperationException();
+	}
+
 	public boolean equals(NodeId arg0) {
 		return i == ((SortTestNodeId) arg0).i;
 	}
@@ -0,0 +1,179 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ *  $Id$
+ */
+package org.exist.xmlrpc;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.dom.DocumentImpl;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.TestConstants;
+import org.exist.util.Configuration;
+import org.exist.xmldb.XmldbURI;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Run queries in snapshot mode while the document they read is locked for write,
+ * so that the snapshot reads fail and the queries have to be repeated.
+ */
+public class SnapshotQueryTest {
+
+    private final static String DOCUMENT = TestConstants.TEST_COLLECTION_URI + "/snapshot.xml";
+
+    private final static String XML =
+        "<items><item n=\"1\"/><item n=\"2\"/><item n=\"2\"/></items>";
+
+    private static BrokerPool pool = null;
+
+    @Test
+    public void retryWithVariables() throws Exception {
+        final HashMap<String, Object> variables = new HashMap<String, Object>();
+        variables.put("n", "2");
+        final HashMap<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put(RpcAPI.SNAPSHOT, "yes");
+        parameters.put(RpcAPI.VARIABLES, variables);
+        final String result = queryWhileLocked(
+            "declare variable $n external; " +
+            "<found>{count(doc('" + DOCUMENT + "')//item[@n = $n])}</found>", parameters);
+        assertTrue(result, result.contains("<found>2</found>"));
+    }
+
+    @Test
+    public void storeOnlyOnce() throws Exception {
+        final int before = countDocuments();
+        final HashMap<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put(RpcAPI.SNAPSHOT, "yes");
+        queryWhileLocked(
+            "let $items := doc('" + DOCUMENT + "')//item " +
+            "let $n := count(xmldb:get-child-resources('" + TestConstants.TEST_COLLECTION_URI + "')) " +
+            "return xmldb:store('" + TestConstants.TEST_COLLECTION_URI + "', concat('stored', $n, '.xml'), " +
+            "<stored count='{count($items)}'/>)", parameters);
+        assertEquals(before + 1, countDocuments());
+    }
+
+    /**
+     * Run the query while the document is locked for write. The lock is released
+     * once the query waits for it, i.e. after the snapshot reads have been given up.
+     */
+    private String queryWhileLocked(final String query, final HashMap<String, Object> parameters)
+            throws Exception {
+        final RpcConnection rpc = new RpcConnection(new XmldbRequestProcessorFactory(null, true),
+            pool.getSecurityManager().getSystemSubject());
+        final AtomicReference<String> result = new AtomicReference<String>();
+        final AtomicReference<Exception> error = new AtomicReference<Exception>();
+        final Thread reader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    result.set(rpc.query(query, 10, 1, parameters));
+                } catch (final Exception e) {
+                    error.set(e);
+                }
+            }
+        };
+        final Lock lock = getDocument().getUpdateLock();
+        lock.acquire(Lock.WRITE_LOCK);
+        try {
+            reader.start();
+            final long start = System.currentTimeMillis();
+            while (reader.isAlive() && reader.getState() != Thread.State.TIMED_WAITING &&
+                    System.currentTimeMillis() - start < 10000) {
+                Thread.sleep(10);
+            }
+        } finally {
+            lock.release(Lock.WRITE_LOCK);
+        }
+        reader.join();
+        if (error.get() != null)
+            {throw error.get();}
+        return result.get();
+    }
+
+    private DocumentImpl getDocument() throws Exception {
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            final DocumentImpl doc = broker.getXMLResource(XmldbURI.create(DOCUMENT), Lock.NO_LOCK);
+            assertNotNull(doc);
+            return doc;
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    private int countDocuments() throws Exception {
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            return broker.getCollection(TestConstants.TEST_COLLECTION_URI).getDocumentCount(broker);
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    @BeforeClass
+    public static void startDB() throws Exception {
+        BrokerPool.configure(1, 5, new Configuration());
+        pool = BrokerPool.getInstance();
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            final TransactionManager transact = pool.getTransactionManager();
+            final Txn transaction = transact.beginTransaction();
+            final Collection test = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI);
+            broker.saveCollection(transaction, test);
+            final IndexInfo info = test.validateXMLResource(transaction, broker, XmldbURI.create("snapshot.xml"), XML);
+            test.store(transaction, broker, info, XML, false);
+            transact.commit(transaction);
+        } finally {
+            pool.release(broker);
+        }
+    }
+
+    @AfterClass
+    public static void stopDB() throws Exception {
+        DBBroker broker = null;
+        try {
+            broker = pool.get(pool.getSecurityManager().getSystemSubject());
+            final TransactionManager transact = pool.getTransactionManager();
+            final Txn transaction = transact.beginTransaction();
+            final Collection test = broker.getCollection(TestConstants.TEST_COLLECTION_URI);
+            if (test != null)
+                {broker.removeCollection(transaction, test);}
+            transact.commit(transaction);
+        } finally {
+            pool.release(broker);
+            BrokerPool.stopAll(false);
+            pool = null;
+        }
+    }
+}